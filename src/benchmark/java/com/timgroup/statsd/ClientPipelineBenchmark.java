@@ -0,0 +1,104 @@
+package com.timgroup.statsd;
+
+import java.net.SocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends metrics through a whole client, writing to the in-memory transport, to compare the
+ * platform thread pipeline with the virtual thread one ({@code virtualThreads=true}, which falls
+ * back to platform threads with blocking hand-off before Java 21).
+ *
+ * <p>The score is the rate at which application threads send metrics. Without aggregation, compare
+ * the bytes written by the transport, printed at tear down, to check that the pipeline keeps up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ClientPipelineBenchmark {
+
+    @Param({"false", "true"})
+    boolean virtualThreads;
+
+    @Param({"true", "false"})
+    boolean aggregation;
+
+    private MemorySocketAddress address;
+    private NonBlockingStatsDClient client;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        address = new MemorySocketAddress();
+        client =
+                new NonBlockingStatsDClientBuilder()
+                        .addressLookup(
+                                new Callable<SocketAddress>() {
+                                    @Override
+                                    public SocketAddress call() {
+                                        return address;
+                                    }
+                                })
+                        .enableAggregation(aggregation)
+                        .enableTelemetry(false)
+                        .originDetectionEnabled(false)
+                        .virtualThreads(virtualThreads)
+                        .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        client.stop();
+        System.out.println(
+                "virtualThreads="
+                        + virtualThreads
+                        + " bytes written: "
+                        + address.getBytesWritten());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void count_t01(ThreadState ts) {
+        client.count(ts.next(), 1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void count_t08(ThreadState ts) {
+        client.count(ts.next(), 1);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final String[] names = new String[64];
+        private int index;
+
+        public ThreadState() {
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "metric." + i;
+            }
+        }
+
+        String next() {
+            int i = index;
+            index = (i + 1) % names.length;
+            return names[i];
+        }
+    }
+}
@@ -22,17 +22,17 @@ import org.openjdk.jmh.annotations.Warmup;
 
 /**
  * Mirrors {@link AggregatorBenchmark} but routes every call through a virtual-thread-per-task
- * executor, exposing the cost of carrier-thread pinning that occurs when a virtual thread holds
- * a monitor lock (the {@code synchronized} block inside
- * {@link StatsDAggregator#aggregateMessage}).
+ * executor, exposing the cost of contention on the shard locks of
+ * {@link StatsDAggregator#aggregateMessage} for virtual threads. The aggregator is created in
+ * virtual thread mode, where the shards are guarded by {@code ReentrantLock}s, which park the
+ * virtual thread instead of pinning its carrier thread as a {@code synchronized} block would.
  *
  * <p>Requires Java 21+. The benchmark fails fast with {@link UnsupportedOperationException}
  * when run on an older JVM.
  *
  * <p>Each JMH worker thread (platform thread) submits one task to the virtual-thread executor
  * and blocks on the returned {@link Future}. With {@code @Threads(N)}, up to N virtual threads
- * compete for the sharded {@code synchronized} maps simultaneously, potentially pinning up to
- * {@code min(N, carrier-pool-parallelism)} carrier threads (the carrier pool is a dedicated
+ * compete for the sharded maps simultaneously (the carrier pool is a dedicated
  * JDK-internal {@code ForkJoinPool}, defaulting to {@code Runtime.availableProcessors()} workers,
  * configurable via {@code jdk.virtualThreadScheduler.parallelism}).
  */
@@ -54,7 +54,7 @@ public class VirtualThreadAggregatorBenchmark {
 
     @Setup(Level.Trial)
     public void setup() throws Exception {
-        aggregator = new StatsDAggregator(new AggregatorBenchmark.NoOpProcessor(), StatsDAggregator.DEFAULT_SHARDS, StatsDAggregator.DEFAULT_FLUSH_INTERVAL);
+        aggregator = new StatsDAggregator(new AggregatorBenchmark.NoOpProcessor(), StatsDAggregator.DEFAULT_SHARDS, StatsDAggregator.DEFAULT_FLUSH_INTERVAL, true);
         executor = newVirtualThreadPerTaskExecutor();
         if (executor == null) {
             throw new UnsupportedOperationException(
@@ -0,0 +1,103 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Tracks the largest datagram the transport currently accepts.
+ *
+ * <p>The packet size starts at the configured maximum. Whenever the transport rejects a packet as
+ * too large, see {@link #isSizeError}, the size is halved (down to {@link #MIN_PACKET_SIZE_BYTES}).
+ * Other write failures, like a refused connection while the Agent restarts, leave the size
+ * unchanged. Once a probe interval has elapsed without failures, the size is doubled again, up to
+ * the configured maximum, so that a transient error does not keep packets small forever.
+ *
+ * <p>Processors limit the send buffers they fill to {@link #get()}, sending messages larger than
+ * that in a packet of their own, and the sender reports the outcome of each write back to this
+ * class.
+ */
+final class AdaptivePacketSize {
+    /** Smallest packet size the client backs off to. */
+    static final int MIN_PACKET_SIZE_BYTES = 512;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long probeIntervalNanos;
+
+    private volatile int current;
+    private volatile long nextProbe;
+
+    /**
+     * AdaptivePacketSize constructor.
+     *
+     * @param maxSize the largest packet size to probe for, in bytes.
+     * @param probeInterval interval between attempts to grow the packet size, in milliseconds.
+     */
+    AdaptivePacketSize(final int maxSize, final long probeInterval) {
+        this.maxSize = maxSize;
+        this.minSize = Math.min(MIN_PACKET_SIZE_BYTES, maxSize);
+        this.probeIntervalNanos = probeInterval * 1_000_000L;
+        this.current = maxSize;
+        this.nextProbe = System.nanoTime() + probeIntervalNanos;
+    }
+
+    /**
+     * Return the current packet size.
+     *
+     * @return the largest packet size that should be sent, in bytes.
+     */
+    int get() {
+        return current;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Tell whether a write failed because the packet was too large for the transport, i.e. with
+     * {@code EMSGSIZE}. The JDK and jnr only expose the error through its message.
+     *
+     * @param e the write failure.
+     * @return true if the same content may be written in smaller packets.
+     */
+    static boolean isSizeError(final Exception e) {
+        if (!(e instanceof IOException) || e.getMessage() == null) {
+            return false;
+        }
+        final String message = e.getMessage().toLowerCase(Locale.ROOT);
+        return message.contains("message too long")
+                || message.contains("message too large")
+                // WSAEMSGSIZE
+                || message.contains("larger than the internal message buffer");
+    }
+
+    /** Record a successful write, growing the packet size when the probe interval elapsed. */
+    void onSuccess() {
+        if (current < maxSize && System.nanoTime() - nextProbe >= 0) {
+            synchronized (this) {
+                final long now = System.nanoTime();
+                if (current < maxSize && now - nextProbe >= 0) {
+                    current = (int) Math.min((long) maxSize, current * 2L);
+                    nextProbe = now + probeIntervalNanos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a failed write of the given size, shrinking the packet size if possible.
+     *
+     * @param size the size of the packet that could not be written, in bytes.
+     * @return true if the packet size was reduced below {@code size}, meaning that the same content
+     *     may be retried in smaller packets.
+     */
+    synchronized boolean onFailure(final int size) {
+        if (size <= minSize) {
+            return false;
+        }
+        current = Math.max(minSize, Math.min(current, size / 2));
+        nextProbe = System.nanoTime() + probeIntervalNanos;
+        return true;
+    }
+}
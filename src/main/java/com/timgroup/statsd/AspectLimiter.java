@@ -0,0 +1,110 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Limits the rate of the messages of each aspect, to contain call sites that suddenly emit a metric
+ * from a hot loop.
+ *
+ * <p>Each aspect counts its messages over windows of {@link #WINDOW_NANOS}. Messages beyond the
+ * limit of the current window, and all the messages of a window following one over the limit, are
+ * sampled at the rate that keeps the aspect under the limit. The rate is decided before each
+ * message is sampled, so that annotating the kept messages with it leaves the values unbiased.
+ *
+ * <p>Buckets live in a fixed size, two-way set associative cache indexed by the hash of the aspect.
+ * Lookups and counts are lock-free. On a miss, the bucket of the set whose window started first,
+ * i.e. the least recently active one, is replaced.
+ */
+final class AspectLimiter {
+    static final long WINDOW_NANOS = 100_000_000L;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int mask;
+    private final double limitPerWindow;
+
+    private static final class Bucket {
+        final String aspect;
+        final AtomicLong count = new AtomicLong();
+        volatile long windowStart;
+        // sample rate of the current window, from the rate measured over the previous one.
+        volatile double rate = 1;
+
+        Bucket(final String aspect, final long now) {
+            this.aspect = aspect;
+            this.windowStart = now;
+        }
+    }
+
+    /**
+     * AspectLimiter constructor.
+     *
+     * @param limit maximum number of messages per second and per aspect.
+     * @param cacheSize number of aspects tracked at once, rounded up to a power of two.
+     */
+    AspectLimiter(final long limit, final int cacheSize) {
+        int sets = 1;
+        while (sets * 2 < cacheSize) {
+            sets <<= 1;
+        }
+        this.buckets = new AtomicReferenceArray<>(sets * 2);
+        this.mask = sets - 1;
+        this.limitPerWindow = Math.max(1, (double) limit * WINDOW_NANOS / 1_000_000_000L);
+    }
+
+    /**
+     * Count a message of an aspect.
+     *
+     * @param aspect the aspect of the message.
+     * @return the rate the message should be sampled at, 1 if the aspect is under the limit.
+     */
+    double rate(final String aspect) {
+        final long now = System.nanoTime();
+        final Bucket bucket = bucket(aspect, now);
+        if (now - bucket.windowStart >= WINDOW_NANOS) {
+            roll(bucket, now);
+        }
+        final long count = bucket.count.incrementAndGet();
+        final double rate = bucket.rate;
+        if (count > limitPerWindow) {
+            return Math.min(rate, limitPerWindow / count);
+        }
+        return rate;
+    }
+
+    private void roll(final Bucket bucket, final long now) {
+        synchronized (bucket) {
+            final long elapsed = now - bucket.windowStart;
+            if (elapsed >= WINDOW_NANOS) {
+                final double perWindow =
+                        bucket.count.getAndSet(0) * (double) WINDOW_NANOS / elapsed;
+                bucket.rate = perWindow > limitPerWindow ? limitPerWindow / perWindow : 1;
+                bucket.windowStart = now;
+            }
+        }
+    }
+
+    private Bucket bucket(final String aspect, final long now) {
+        int hash = aspect.hashCode();
+        hash ^= hash >>> 16;
+        final int first = (hash & mask) << 1;
+        final Bucket a = buckets.get(first);
+        if (a != null && a.aspect.equals(aspect)) {
+            return a;
+        }
+        final Bucket b = buckets.get(first + 1);
+        if (b != null && b.aspect.equals(aspect)) {
+            return b;
+        }
+
+        final Bucket bucket = new Bucket(aspect, now);
+        if (a == null || (b != null && a.windowStart - b.windowStart <= 0)) {
+            buckets.compareAndSet(first, a, bucket);
+        } else {
+            buckets.compareAndSet(first + 1, b, bucket);
+        }
+        // if another thread replaced the bucket first, this message is counted in a bucket of its
+        // own, which only delays the limit by a message.
+        return bucket;
+    }
+}
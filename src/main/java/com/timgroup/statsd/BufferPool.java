@@ -42,7 +42,18 @@ public class BufferPool {
     }
 
     ByteBuffer borrow() throws InterruptedException {
-        return pool.take();
+        ByteBuffer buffer = pool.poll();
+        // spin briefly before blocking, where the JVM supports spin-wait hints.
+        for (int i = Platform.spinTries(); buffer == null && i > 0; i--) {
+            Platform.onSpinWait();
+            buffer = pool.poll();
+        }
+        if (buffer == null) {
+            final Object event = ClientEvents.beginBufferWait();
+            buffer = pool.take();
+            ClientEvents.endBufferWait(event, size);
+        }
+        return buffer;
     }
 
     void put(ByteBuffer buffer) throws InterruptedException {
@@ -0,0 +1,32 @@
+package com.timgroup.statsd;
+
+/**
+ * Signals that the messages of an aspect carry more distinct contexts than the configured
+ * threshold, see {@link NonBlockingStatsDClientBuilder#cardinalityThreshold}. The messages are
+ * still sent.
+ */
+public class CardinalityExceededException extends RuntimeException {
+
+    private final String aspect;
+    private final long contexts;
+
+    /**
+     * Creates a CardinalityExceededException for an aspect.
+     *
+     * @param aspect the aspect, without the client prefix
+     * @param contexts the estimated number of distinct contexts of the aspect
+     */
+    public CardinalityExceededException(final String aspect, final long contexts) {
+        super("Aspect " + aspect + " has about " + contexts + " distinct contexts");
+        this.aspect = aspect;
+        this.contexts = contexts;
+    }
+
+    public String getAspect() {
+        return aspect;
+    }
+
+    public long getContexts() {
+        return contexts;
+    }
+}
@@ -0,0 +1,255 @@
+package com.timgroup.statsd;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estimates the number of distinct contexts, i.e. tags, of each aspect, to catch tag explosions
+ * before they hurt the aggregator.
+ *
+ * <p>Processor workers count each message they pick up, before aggregation, in a {@link
+ * HyperLogLog} of its aspect. Each worker has estimators of its own, see {@link #recorder()}, under
+ * a lock that is only contended when the window rolls. Estimates cover windows of the telemetry
+ * flush interval: windows roll once they have lasted the window duration, which the workers check
+ * every {@link #CHECK_INTERVAL} messages and whenever they find their queue empty, and readers
+ * check as well. The estimators of the workers are then merged. Readers get the last complete
+ * window, aspects first by decreasing number of contexts. Each worker tracks at most a fixed number
+ * of aspects at once, the others are ignored until an aspect idle over a whole window is dropped.
+ *
+ * <p>When a threshold is set, the error handler receives a {@link CardinalityExceededException} the
+ * first time an aspect crosses it in a window: as soon as the contexts seen by a single worker
+ * cross it, or else when the window rolls. Estimates are only computed when the registers of the
+ * aspect change, which gets rarer as its contexts repeat.
+ */
+final class CardinalityTracker {
+    static final int PRECISION = 10;
+    static final int REPORTED_ASPECTS = 10;
+    static final int CHECK_INTERVAL = 256;
+
+    /** Estimates of a complete window. */
+    static final class Window {
+        final long startMillis;
+        final Map<String, Long> contexts;
+
+        Window(final long startMillis, final Map<String, Long> contexts) {
+            this.startMillis = startMillis;
+            this.contexts = contexts;
+        }
+    }
+
+    private static final class Aspect {
+        final HyperLogLog contexts = new HyperLogLog(PRECISION);
+        boolean active;
+    }
+
+    private static final Comparator<Map.Entry<String, Long>> LARGEST_FIRST =
+            new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(
+                        final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+                    return Long.compare(b.getValue(), a.getValue());
+                }
+            };
+
+    private final int maxAspects;
+    private final long threshold;
+    private final StatsDClientErrorHandler handler;
+    private final long windowNanos;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    // aspects alerted on in the current window.
+    private final Set<String> alerted =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // guards the last window.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile long windowStart;
+    private long windowStartMillis;
+    private Window last;
+
+    /**
+     * CardinalityTracker constructor.
+     *
+     * @param maxAspects maximum number of aspects tracked at once.
+     * @param threshold number of contexts of an aspect that triggers an alert, 0 for none.
+     * @param handler the handler receiving the alerts.
+     * @param windowMillis duration of the windows, in milliseconds.
+     */
+    CardinalityTracker(
+            final int maxAspects,
+            final long threshold,
+            final StatsDClientErrorHandler handler,
+            final long windowMillis) {
+        this.maxAspects = maxAspects;
+        this.threshold = threshold;
+        this.handler = handler;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.windowStart = System.nanoTime();
+        this.windowStartMillis = System.currentTimeMillis();
+        this.last = new Window(windowStartMillis, Collections.<String, Long>emptyMap());
+    }
+
+    /** Estimators of a single processor worker, merged into the window when it rolls. */
+    final class Recorder {
+        private final Map<String, Aspect> aspects = new HashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        // only updated by the worker owning the recorder.
+        private int unchecked;
+
+        /**
+         * Count a message picked up by the worker.
+         *
+         * @param message the message, before aggregation.
+         */
+        void onMessage(final Message message) {
+            final String aspect = message.getAspect();
+            long estimate = 0;
+            lock.lock();
+            try {
+                Aspect tracked = aspects.get(aspect);
+                if (tracked == null && aspects.size() < maxAspects) {
+                    tracked = new Aspect();
+                    aspects.put(aspect, tracked);
+                }
+                if (tracked != null) {
+                    tracked.active = true;
+                    if (tracked.contexts.add(HyperLogLog.mix(message.hashCode()))
+                            && threshold > 0
+                            && !alerted.contains(aspect)) {
+                        estimate = tracked.contexts.estimate();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            // outside of the lock, the handler is application code.
+            if (threshold > 0 && estimate >= threshold && alerted.add(aspect) && handler != null) {
+                handler.handle(new CardinalityExceededException(aspect, estimate));
+            }
+            if (++unchecked >= CHECK_INTERVAL) {
+                unchecked = 0;
+                rollIfDue();
+            }
+        }
+
+        // merge the active aspects into the window, and start over.
+        private void drain(final Map<String, HyperLogLog> window) {
+            lock.lock();
+            try {
+                final Iterator<Map.Entry<String, Aspect>> it = aspects.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<String, Aspect> entry = it.next();
+                    final Aspect aspect = entry.getValue();
+                    if (!aspect.active) {
+                        // make room for the aspects that could not be tracked.
+                        it.remove();
+                        continue;
+                    }
+                    HyperLogLog contexts = window.get(entry.getKey());
+                    if (contexts == null) {
+                        contexts = new HyperLogLog(PRECISION);
+                        window.put(entry.getKey(), contexts);
+                    }
+                    contexts.merge(aspect.contexts);
+                    aspect.contexts.clear();
+                    aspect.active = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Return new estimators for a processor worker.
+     *
+     * @return the estimators, merged into the windows from the current one on.
+     */
+    Recorder recorder() {
+        final Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Return the estimates of the last complete window.
+     *
+     * @return the last window, empty until the first one completes.
+     */
+    Window last() {
+        final List<CardinalityExceededException> crossed = new ArrayList<>();
+        final Window window;
+        lock.lock();
+        try {
+            roll(System.nanoTime(), crossed);
+            window = last;
+        } finally {
+            lock.unlock();
+        }
+        alert(crossed);
+        return window;
+    }
+
+    /** Roll the window if it has lasted the window duration, unless it is already rolling. */
+    void rollIfDue() {
+        final long now = System.nanoTime();
+        if (now - windowStart < windowNanos || !lock.tryLock()) {
+            return;
+        }
+        final List<CardinalityExceededException> crossed = new ArrayList<>();
+        try {
+            roll(now, crossed);
+        } finally {
+            lock.unlock();
+        }
+        alert(crossed);
+    }
+
+    // outside of the lock, the handler is application code.
+    private void alert(final List<CardinalityExceededException> crossed) {
+        if (handler != null) {
+            for (final CardinalityExceededException alert : crossed) {
+                handler.handle(alert);
+            }
+        }
+    }
+
+    private void roll(final long now, final List<CardinalityExceededException> crossed) {
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        final Map<String, HyperLogLog> window = new HashMap<>();
+        for (final Recorder recorder : recorders) {
+            recorder.drain(window);
+        }
+        final List<Map.Entry<String, Long>> estimates = new ArrayList<>(window.size());
+        for (final Map.Entry<String, HyperLogLog> entry : window.entrySet()) {
+            final long estimate = entry.getValue().estimate();
+            estimates.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), estimate));
+            // spread over several workers, none of which crossed the threshold alone.
+            if (threshold > 0 && estimate >= threshold && !alerted.contains(entry.getKey())) {
+                crossed.add(new CardinalityExceededException(entry.getKey(), estimate));
+            }
+        }
+        alerted.clear();
+        Collections.sort(estimates, LARGEST_FIRST);
+        final Map<String, Long> contexts = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> estimate : estimates) {
+            contexts.put(estimate.getKey(), estimate.getValue());
+        }
+        last = new Window(windowStartMillis, Collections.unmodifiableMap(contexts));
+        windowStart = now;
+        windowStartMillis = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,86 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+
+/**
+ * Diagnostic events of the client hot path.
+ *
+ * <p>This implementation does nothing, so that the calls are inlined away. On Java 11 and later the
+ * multi-release jar replaces it with one emitting JDK Flight Recorder events, see {@code
+ * src/main/java11}. Events with a duration are started by one of the {@code begin} methods, whose
+ * result must be handed back to the matching {@code end} method, and is null when the event is not
+ * recorded.
+ */
+final class ClientEvents {
+    private ClientEvents() {}
+
+    /** Start timing an aggregator flush. */
+    static Object beginFlush() {
+        return null;
+    }
+
+    /**
+     * End timing an aggregator flush.
+     *
+     * @param event the result of {@link #beginFlush()}.
+     * @param contexts number of contexts flushed.
+     */
+    static void endFlush(final Object event, final int contexts) {}
+
+    /** Start timing a wait for a buffer of an exhausted pool. */
+    static Object beginBufferWait() {
+        return null;
+    }
+
+    /**
+     * End timing a wait for a buffer.
+     *
+     * @param event the result of {@link #beginBufferWait()}.
+     * @param poolSize number of buffers in the pool.
+     */
+    static void endBufferWait(final Object event, final int poolSize) {}
+
+    /** Start timing a write to the transport. */
+    static Object beginWrite() {
+        return null;
+    }
+
+    /**
+     * End timing a write to the transport, only writes stalling longer than the event threshold are
+     * recorded.
+     *
+     * @param event the result of {@link #beginWrite()}.
+     * @param bytes size of the packet.
+     */
+    static void endWrite(final Object event, final int bytes) {}
+
+    /**
+     * Record a failed write to the transport.
+     *
+     * @param channel the channel written to.
+     * @param bytes size of the packet.
+     * @param error the failure.
+     */
+    static void writeError(final Object channel, final int bytes, final Exception error) {}
+
+    /**
+     * Record a message dropped because the processor queue is full.
+     *
+     * @param aspect the metric name.
+     */
+    static void queueFull(final String aspect) {}
+
+    /** Start timing a reconnection to a unix domain socket. */
+    static Object beginReconnect() {
+        return null;
+    }
+
+    /**
+     * End timing a reconnection to a unix domain socket.
+     *
+     * @param event the result of {@link #beginReconnect()}.
+     * @param address the socket address.
+     * @param error the failure, null if the connection succeeded.
+     */
+    static void endReconnect(final Object event, final Object address, final IOException error) {}
+}
@@ -0,0 +1,55 @@
+package com.timgroup.statsd;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Destination of a transport appending the dogstatsd lines to rolling files, for jobs shipping
+ * their metrics later.
+ *
+ * <p>Lines are written to segments named after the path with an increasing numeric suffix, e.g.
+ * {@code /var/log/metrics.dsd.000001}. A segment is complete, and can be shipped, once the next one
+ * exists or the client is stopped.
+ */
+public class FileSocketAddress extends SocketAddress {
+    private final Path path;
+    private final int segmentSize;
+
+    /**
+     * FileSocketAddress constructor.
+     *
+     * @param path path of the files, without the segment suffix.
+     * @param segmentSize maximum size of a segment, in bytes.
+     */
+    public FileSocketAddress(Path path, int segmentSize) {
+        this.path = path;
+        this.segmentSize = segmentSize;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** Return true if object is a FileSocketAddress referring to the same path. */
+    public boolean equals(Object object) {
+        if (object instanceof FileSocketAddress) {
+            return path.equals(((FileSocketAddress) object).path)
+                    && segmentSize == ((FileSocketAddress) object).segmentSize;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "file://" + path;
+    }
+}
@@ -0,0 +1,161 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Suppresses the aggregated gauges whose value did not change since they were last flushed,
+ * re-emitting them every few flush intervals so that the Agent does not consider them stale.
+ *
+ * <p>Flushes are numbered by the flush intervals elapsed since the first one, rounded to the
+ * nearest, rather than counted: explicit flushes between two scheduled ones do not bring the
+ * heartbeat closer, and a late scheduled flush does not push it further.
+ *
+ * <p>The last flushed value of each context lives in open addressing tables, probed by {@link
+ * Message#contextKey} and holding the last flushed gauge of the context, which is compared in full
+ * on a hash match so that colliding contexts are kept apart. Contexts that were not flushed for a
+ * whole heartbeat are purged once per heartbeat. Flushes of an aggregator are serialized by the
+ * lock of this store.
+ */
+final class GaugeDeduplicator {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // a lock rather than a monitor, so that virtual threads flushing the aggregator are not pinned.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int heartbeat;
+    private final long intervalNanos;
+    private long[] keys = newKeys(INITIAL_CAPACITY);
+    private Message[] contexts = new Message[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    // flush at which the value was last emitted, and last seen.
+    private long[] emitted = new long[INITIAL_CAPACITY];
+    private long[] seen = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean started;
+    // time of the first flush, and number of the current and last purging flushes.
+    private long origin;
+    private long flush;
+    private long purged;
+
+    /**
+     * GaugeDeduplicator constructor.
+     *
+     * @param heartbeat number of flush intervals after which an unchanged gauge is emitted again.
+     * @param flushIntervalMillis flush interval of the aggregator, in milliseconds.
+     */
+    GaugeDeduplicator(final int heartbeat, final long flushIntervalMillis) {
+        this.heartbeat = Math.max(1, heartbeat);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+    }
+
+    private static long[] newKeys(final int capacity) {
+        final long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int slot(final long key, final int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Start a flush, purging the contexts not seen over the last heartbeat once per heartbeat.
+     *
+     * @param now the current time, see {@link System#nanoTime()}.
+     */
+    void startFlush(final long now) {
+        lock.lock();
+        try {
+            if (!started) {
+                started = true;
+                origin = now;
+            }
+            flush = Math.max(flush, (now - origin + intervalNanos / 2) / intervalNanos);
+            if (flush - purged >= heartbeat) {
+                purged = flush;
+                if (size > 0) {
+                    rehash(keys.length);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tell whether a gauge should be suppressed from the current flush, and record its value
+     * otherwise.
+     *
+     * @param message an aggregated gauge.
+     * @return true if its value was emitted less than a heartbeat ago.
+     */
+    boolean suppress(final NumericMessage<?> message) {
+        long key = Message.contextKey(message.getAspect(), message.getTags(), message.scopedTags);
+        if (key == EMPTY) {
+            key = EMPTY + 1;
+        }
+        final long value = Double.doubleToLongBits(message.getValue().doubleValue());
+        lock.lock();
+        try {
+            final int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != EMPTY && !(keys[i] == key && contexts[i].equals(message))) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] != EMPTY) {
+                seen[i] = flush;
+                if (values[i] == value && flush - emitted[i] < heartbeat) {
+                    return true;
+                }
+            } else {
+                keys[i] = key;
+                contexts[i] = message;
+                seen[i] = flush;
+                if (++size * 2 > keys.length) {
+                    values[i] = value;
+                    emitted[i] = flush;
+                    rehash(keys.length * 2);
+                    return false;
+                }
+            }
+            values[i] = value;
+            emitted[i] = flush;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // move the contexts seen over the last heartbeat to tables of the given capacity.
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final Message[] oldContexts = contexts;
+        final long[] oldValues = values;
+        final long[] oldEmitted = emitted;
+        final long[] oldSeen = seen;
+        keys = newKeys(capacity);
+        contexts = new Message[capacity];
+        values = new long[capacity];
+        emitted = new long[capacity];
+        seen = new long[capacity];
+        size = 0;
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY || flush - oldSeen[j] > heartbeat) {
+                continue;
+            }
+            int i = slot(oldKeys[j], mask);
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            contexts[i] = oldContexts[j];
+            values[i] = oldValues[j];
+            emitted[i] = oldEmitted[j];
+            seen[i] = oldSeen[j];
+            size++;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.timgroup.statsd;
+
+/**
+ * Supplies the value of a registered gauge, see {@link StatsDClient#registerGauge}.
+ *
+ * <p>Called by the client once per aggregation flush interval, from one of its own threads, so it
+ * must be thread-safe and return quickly.
+ */
+public interface GaugeSupplier {
+    /**
+     * Return the current value of the gauge.
+     *
+     * @return the value, or NaN to skip this sample.
+     */
+    double get();
+}
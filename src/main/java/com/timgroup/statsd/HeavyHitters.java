@@ -0,0 +1,212 @@
+package com.timgroup.statsd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the contexts, i.e. the aspect and tags of the messages, that cost the client the most
+ * throughput.
+ *
+ * <p>Processor workers count each message they pick up, before aggregation, and the bytes each
+ * message takes once serialized. Both rankings are kept by {@link SpaceSaving} sketches with {@link
+ * #CAPACITY_FACTOR} times more counters than the contexts reported, so that the reported counts are
+ * close to exact, and the distinct contexts are counted by a {@link HyperLogLog}. The sketches
+ * cover windows of the telemetry flush interval: readers get the last complete window.
+ *
+ * <p>Each worker updates sketches of its own, see {@link #recorder()}, under a lock that is only
+ * contended when the window rolls. Windows roll once they have lasted the window duration, which
+ * the workers check every {@link #CHECK_INTERVAL} messages and whenever they find their queue
+ * empty, and readers check as well. The sketches of the workers are then merged.
+ */
+final class HeavyHitters {
+    static final int CAPACITY_FACTOR = 4;
+    static final int PRECISION = 12;
+    static final int CHECK_INTERVAL = 256;
+
+    /** Contexts of a complete window. */
+    static final class Window {
+        final long startMillis;
+        final List<Telemetry.TopContext> byMessages;
+        final List<Telemetry.TopContext> byBytes;
+        final long distinctContexts;
+
+        Window(
+                final long startMillis,
+                final List<Telemetry.TopContext> byMessages,
+                final List<Telemetry.TopContext> byBytes,
+                final long distinctContexts) {
+            this.startMillis = startMillis;
+            this.byMessages = byMessages;
+            this.byBytes = byBytes;
+            this.distinctContexts = distinctContexts;
+        }
+    }
+
+    private final int size;
+    private final long windowNanos;
+    private final SpaceSaving<Message> messages;
+    private final SpaceSaving<Message> bytes;
+    private final HyperLogLog contexts = new HyperLogLog(PRECISION);
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    // guards the window sketches and the last window.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile long windowStart;
+    private long windowStartMillis;
+    private Window last;
+
+    /**
+     * HeavyHitters constructor.
+     *
+     * @param size number of contexts reported by each ranking.
+     * @param windowMillis duration of the windows, in milliseconds.
+     */
+    HeavyHitters(final int size, final long windowMillis) {
+        this.size = size;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.messages = new SpaceSaving<>(size * CAPACITY_FACTOR);
+        this.bytes = new SpaceSaving<>(size * CAPACITY_FACTOR);
+        this.windowStart = System.nanoTime();
+        this.windowStartMillis = System.currentTimeMillis();
+        this.last =
+                new Window(
+                        windowStartMillis,
+                        Collections.<Telemetry.TopContext>emptyList(),
+                        Collections.<Telemetry.TopContext>emptyList(),
+                        0);
+    }
+
+    /** Sketches of a single processor worker, merged into the window when it rolls. */
+    final class Recorder {
+        private final SpaceSaving<Message> messages = new SpaceSaving<>(size * CAPACITY_FACTOR);
+        private final SpaceSaving<Message> bytes = new SpaceSaving<>(size * CAPACITY_FACTOR);
+        private final HyperLogLog contexts = new HyperLogLog(PRECISION);
+        private final ReentrantLock lock = new ReentrantLock();
+        // only updated by the worker owning the recorder.
+        private int unchecked;
+
+        /**
+         * Count a message picked up by the worker.
+         *
+         * @param message the message, before aggregation.
+         */
+        void onMessage(final Message message) {
+            lock.lock();
+            try {
+                messages.add(message, 1);
+                contexts.add(HyperLogLog.mix(message.hashCode()));
+            } finally {
+                lock.unlock();
+            }
+            if (++unchecked >= CHECK_INTERVAL) {
+                unchecked = 0;
+                rollIfDue();
+            }
+        }
+
+        /**
+         * Count the bytes of a serialized message.
+         *
+         * @param message the message.
+         * @param length the number of bytes it was serialized to.
+         */
+        void onBytes(final Message message, final int length) {
+            lock.lock();
+            try {
+                bytes.add(message, length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // merge the sketches into the window, and start over.
+        private void drain() {
+            lock.lock();
+            try {
+                HeavyHitters.this.messages.merge(messages);
+                HeavyHitters.this.bytes.merge(bytes);
+                HeavyHitters.this.contexts.merge(contexts);
+                messages.clear();
+                bytes.clear();
+                contexts.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Return new sketches for a processor worker.
+     *
+     * @return the sketches, merged into the windows from the current one on.
+     */
+    Recorder recorder() {
+        final Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Return the contexts of the last complete window.
+     *
+     * @return the last window, empty until the first one completes.
+     */
+    Window last() {
+        lock.lock();
+        try {
+            roll(System.nanoTime());
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Roll the window if it has lasted the window duration, unless it is already rolling. */
+    void rollIfDue() {
+        final long now = System.nanoTime();
+        if (now - windowStart >= windowNanos && lock.tryLock()) {
+            try {
+                roll(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void roll(final long now) {
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        for (final Recorder recorder : recorders) {
+            recorder.drain();
+        }
+        last =
+                new Window(
+                        windowStartMillis,
+                        contexts(messages),
+                        contexts(bytes),
+                        contexts.estimate());
+        messages.clear();
+        bytes.clear();
+        contexts.clear();
+        windowStart = now;
+        windowStartMillis = System.currentTimeMillis();
+    }
+
+    private List<Telemetry.TopContext> contexts(final SpaceSaving<Message> sketch) {
+        final List<Telemetry.TopContext> top = new ArrayList<>(size);
+        for (final SpaceSaving.Counter<Message> counter : sketch.top(size)) {
+            top.add(
+                    new Telemetry.TopContext(
+                            counter.key.getAspect(),
+                            counter.key.getTags(),
+                            counter.count,
+                            counter.error));
+        }
+        return Collections.unmodifiableList(top);
+    }
+}
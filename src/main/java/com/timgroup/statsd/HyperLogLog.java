@@ -0,0 +1,101 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values of a stream in a fixed amount of memory.
+ *
+ * <p>Values are hashed to 64 bits. The first {@code precision} bits of the hash select a register,
+ * which keeps the highest rank, i.e. the position of the first set bit, seen in the remaining bits.
+ * The estimate is the harmonic mean of the registers, corrected for small cardinalities by linear
+ * counting. The standard error is about {@code 1.04 / sqrt(2^precision)}.
+ *
+ * <p>Not thread-safe.
+ */
+final class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * HyperLogLog constructor.
+     *
+     * @param precision number of bits of the register index, between 4 and 16.
+     */
+    HyperLogLog(final int precision) {
+        this.precision = Math.max(4, Math.min(16, precision));
+        this.registers = new byte[1 << this.precision];
+    }
+
+    /**
+     * Spread the bits of a hash code over 64 bits, with the finalizer of MurmurHash3.
+     *
+     * @param hash a hash code.
+     * @return a 64-bit hash suitable for {@link #add(long)}.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Add a value to the estimate.
+     *
+     * @param hash the 64-bit hash of the value, see {@link #mix(long)}.
+     * @return true if the estimate changed.
+     */
+    boolean add(final long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // the sentinel bit bounds the rank when the remaining bits are all zero.
+        final long rest = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the number of distinct values added since the last {@link #clear()}.
+     *
+     * @return the estimated number of distinct values.
+     */
+    long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (final byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Add the values of another estimator, as if they had been added to this one.
+     *
+     * @param other an estimator of the same precision, left unchanged.
+     */
+    void merge(final HyperLogLog other) {
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /** Forget all the values added so far. */
+    void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+}
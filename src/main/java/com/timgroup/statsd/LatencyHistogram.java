@@ -0,0 +1,64 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact histogram of durations, with one bucket per power of two nanoseconds.
+ *
+ * <p>Bucket {@code i} counts the durations in {@code [2^(i-1), 2^i)} nanoseconds, so quantiles are
+ * reported as the upper bound of their bucket, i.e. within a factor of two.
+ */
+final class LatencyHistogram {
+    private static final int BUCKETS = Long.SIZE;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(final long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+    }
+
+    /**
+     * Return the bucket counts and reset them.
+     *
+     * @return the count of each bucket.
+     */
+    long[] getAndReset() {
+        final long[] res = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            res[i] = counts.getAndSet(i, 0);
+        }
+        return res;
+    }
+
+    static int bucket(final long nanos) {
+        return nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Estimate a quantile of the durations.
+     *
+     * @param counts bucket counts, as returned by {@link #getAndReset()}.
+     * @param quantile the quantile, between 0 and 1.
+     * @return the upper bound of the bucket holding the quantile in nanoseconds, 0 if the counts
+     *     are empty.
+     */
+    static long quantile(final long[] counts, final double quantile) {
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
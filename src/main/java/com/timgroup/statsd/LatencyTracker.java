@@ -0,0 +1,73 @@
+package com.timgroup.statsd;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples messages to measure how long they spend in the client pipeline.
+ *
+ * <p>A sampled message is stamped when it is sent, and the time elapsed since that stamp is
+ * recorded when a processor picks the message up ({@link #QUEUE}), when the buffer holding it is
+ * handed to the sender ({@link #BUFFER}), and when that buffer has been written to the transport
+ * ({@link #WRITE}). A buffer carries the stamp of the oldest sampled message it holds.
+ */
+final class LatencyTracker {
+    static final int QUEUE = 0;
+    static final int BUFFER = 1;
+    static final int WRITE = 2;
+    static final String[] STAGES = {"queue", "buffer", "write"};
+
+    private final double sampleRate;
+    private final LatencyHistogram[] histograms;
+    // buffers are compared by content, key them by identity.
+    private final Map<ByteBuffer, Long> stamps =
+            Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Long>());
+
+    /**
+     * LatencyTracker constructor.
+     *
+     * @param sampleRate share of the messages to measure, between 0 and 1.
+     */
+    LatencyTracker(final double sampleRate) {
+        this.sampleRate = sampleRate;
+        this.histograms = new LatencyHistogram[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Stamp the message if it is sampled. */
+    void onSend(final Message message) {
+        if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            message.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    void onPickup(final long enqueueNanos) {
+        histograms[QUEUE].record(System.nanoTime() - enqueueNanos);
+    }
+
+    void onHandOff(final ByteBuffer buffer, final long enqueueNanos) {
+        histograms[BUFFER].record(System.nanoTime() - enqueueNanos);
+        stamps.put(buffer, enqueueNanos);
+    }
+
+    void onWrite(final ByteBuffer buffer) {
+        final Long enqueueNanos = stamps.remove(buffer);
+        if (enqueueNanos != null) {
+            histograms[WRITE].record(System.nanoTime() - enqueueNanos);
+        }
+    }
+
+    /** Forget the stamp of a buffer that could not be written. */
+    void discard(final ByteBuffer buffer) {
+        stamps.remove(buffer);
+    }
+
+    LatencyHistogram getHistogram(final int stage) {
+        return histograms[stage];
+    }
+}
@@ -0,0 +1,118 @@
+package com.timgroup.statsd;
+
+/**
+ * Lowers the sample rate of the metric types that tolerate sampling as the client gets overloaded,
+ * so that they absorb the overload before messages start being dropped.
+ *
+ * <p>The pressure is the highest fill ratio of the processor queues and buffer pools. At each
+ * update, the shedding rate is halved (down to the configured minimum) when the pressure is above
+ * {@link #HIGH_WATERMARK} or messages were dropped since the previous update, and raised back by
+ * {@link #RATE_STEP} once the pressure falls below {@link #LOW_WATERMARK}.
+ *
+ * <p>The client samples histograms, distributions and timings at the shedding rate, on top of their
+ * own sample rate, and annotates the messages with the combined rate so that the server side values
+ * stay unbiased. Sender workers update the rate as they poll for packets, and report write
+ * failures.
+ */
+final class LoadShedder {
+    static final double HIGH_WATERMARK = 0.8;
+    static final double LOW_WATERMARK = 0.5;
+    static final double RATE_STEP = 0.1;
+    static final long UPDATE_INTERVAL_NANOS = 100_000_000L;
+
+    private final StatsDProcessor[] processors;
+    private final double minRate;
+
+    private volatile double rate = 1;
+    private volatile boolean dropped;
+    private volatile long nextUpdate;
+
+    /**
+     * LoadShedder constructor.
+     *
+     * @param processors the processors whose queues and buffer pools are watched.
+     * @param minRate lowest shedding rate, between 0 and 1.
+     */
+    LoadShedder(final StatsDProcessor[] processors, final double minRate) {
+        this.processors = processors;
+        this.minRate = Math.max(0, Math.min(1, minRate));
+        this.nextUpdate = System.nanoTime() + UPDATE_INTERVAL_NANOS;
+    }
+
+    /**
+     * Tell whether messages of a type may be shed.
+     *
+     * @param type the type of the message.
+     * @return true for histograms, distributions and timings.
+     */
+    static boolean canShed(final Message.Type type) {
+        switch (type) {
+            case HISTOGRAM:
+            case DISTRIBUTION:
+            case TIME:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return the current shedding rate.
+     *
+     * @return the share of the sheddable messages to keep, 1 when the client is not overloaded.
+     */
+    double rate() {
+        return rate;
+    }
+
+    /** Record a message or packet dropped by the client. */
+    void onDrop() {
+        if (!dropped) {
+            dropped = true;
+        }
+    }
+
+    /** Update the shedding rate, when the update interval elapsed. */
+    void update() {
+        if (System.nanoTime() - nextUpdate >= 0) {
+            synchronized (this) {
+                final long now = System.nanoTime();
+                if (now - nextUpdate >= 0) {
+                    nextUpdate = now + UPDATE_INTERVAL_NANOS;
+                    update(pressure());
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the shedding rate for the given pressure.
+     *
+     * @param pressure the highest fill ratio of the queues and buffer pools, between 0 and 1.
+     */
+    synchronized void update(final double pressure) {
+        final boolean dropped = this.dropped;
+        this.dropped = false;
+        if (dropped || pressure >= HIGH_WATERMARK) {
+            rate = Math.max(minRate, rate / 2);
+        } else if (pressure < LOW_WATERMARK && rate < 1) {
+            rate = Math.min(1, rate + RATE_STEP);
+        }
+    }
+
+    private double pressure() {
+        double pressure = 0;
+        for (final StatsDProcessor processor : processors) {
+            final BufferPool pool = processor.getBufferPool();
+            pressure =
+                    Math.max(
+                            pressure,
+                            (double) processor.getQueueSize()
+                                    / Math.max(1, processor.getQcapacity()));
+            // each processor worker holds on to a buffer.
+            final int idle = pool.available() + processor.workers.length;
+            pressure = Math.max(pressure, 1 - (double) idle / Math.max(1, pool.getSize()));
+        }
+        return pressure;
+    }
+}
@@ -0,0 +1,129 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transport appending packets to memory-mapped segment files.
+ *
+ * <p>A segment is mapped at its maximum size and truncated to the bytes actually written when the
+ * transport rolls to the next segment or is closed. Packets are never split across segments.
+ */
+class MappedFileClientChannel implements ClientChannel {
+    private final FileSocketAddress address;
+    // sender workers may run on virtual threads, which a monitor would pin while writing.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private FileChannel segment;
+    private MappedByteBuffer mapped;
+    private int sequence;
+
+    MappedFileClientChannel(FileSocketAddress address) throws IOException {
+        this.address = address;
+        roll();
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return segment != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        lock.lock();
+        try {
+            if (segment == null) {
+                throw new ClosedChannelException();
+            }
+            final int length = src.remaining();
+            if (length > address.getSegmentSize()) {
+                throw new IOException(
+                        "Packet of " + length + " bytes larger than the segments of " + address);
+            }
+            if (length > mapped.remaining()) {
+                roll();
+            }
+            mapped.put(src);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (segment != null) {
+                finish();
+                segment = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // truncate the current segment, if any, and map the next one.
+    private void roll() throws IOException {
+        if (segment != null) {
+            finish();
+        }
+
+        Path path;
+        do {
+            sequence++;
+            path = segmentPath(address.getPath(), sequence);
+        } while (Files.exists(path));
+
+        segment =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        mapped = segment.map(FileChannel.MapMode.READ_WRITE, 0, address.getSegmentSize());
+    }
+
+    private void finish() throws IOException {
+        final int written = mapped.position();
+        mapped.force();
+        mapped = null;
+        try {
+            segment.truncate(written);
+        } finally {
+            segment.close();
+        }
+    }
+
+    static Path segmentPath(final Path path, final int sequence) {
+        return Paths.get(path.toString() + String.format(".%06d", sequence));
+    }
+
+    @Override
+    public String getTransportType() {
+        return "file";
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getTransportType() + "] " + address;
+    }
+
+    @Override
+    public int getMaxPacketSizeBytes() {
+        return NonBlockingStatsDClient.DEFAULT_UDS_MAX_PACKET_SIZE_BYTES;
+    }
+}
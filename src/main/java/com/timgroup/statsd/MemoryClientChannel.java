@@ -0,0 +1,50 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/** Transport writing to a {@link MemorySocketAddress}, without any system call. */
+class MemoryClientChannel implements ClientChannel {
+    private final MemorySocketAddress address;
+    private volatile boolean open = true;
+
+    MemoryClientChannel(MemorySocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final int length = src.remaining();
+        address.record(src);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+    }
+
+    @Override
+    public String getTransportType() {
+        return "mem";
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getTransportType() + "] " + address;
+    }
+
+    @Override
+    public int getMaxPacketSizeBytes() {
+        return NonBlockingStatsDClient.DEFAULT_UDS_MAX_PACKET_SIZE_BYTES;
+    }
+}
@@ -0,0 +1,87 @@
+package com.timgroup.statsd;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Destination of an in-memory transport, which never leaves the process.
+ *
+ * <p>It counts the bytes and packets written to it and, when created with a ring size, keeps a copy
+ * of the latest bytes written. It is meant to measure the cost of the client pipeline without any
+ * system call, pass it to {@link NonBlockingStatsDClientBuilder#addressLookup} to read the counters
+ * back, or use a {@code mem://} address.
+ */
+public class MemorySocketAddress extends SocketAddress {
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong packets = new AtomicLong();
+    private final byte[] ring;
+    private long ringPosition;
+
+    public MemorySocketAddress() {
+        this(0);
+    }
+
+    /**
+     * MemorySocketAddress constructor.
+     *
+     * @param ringSize number of bytes of the latest packets to keep a copy of, 0 to only count
+     *     them.
+     */
+    public MemorySocketAddress(int ringSize) {
+        this.ring = new byte[ringSize];
+    }
+
+    public long getBytesWritten() {
+        return bytes.get();
+    }
+
+    public long getPacketsWritten() {
+        return packets.get();
+    }
+
+    /**
+     * Return the latest bytes written, oldest first.
+     *
+     * @return at most ring size bytes.
+     */
+    public synchronized byte[] getRing() {
+        final int size = (int) Math.min(ring.length, ringPosition);
+        final byte[] res = new byte[size];
+        final int start = (int) ((ringPosition - size) % Math.max(1, ring.length));
+        final int first = Math.min(size, ring.length - start);
+        System.arraycopy(ring, start, res, 0, first);
+        System.arraycopy(ring, 0, res, first, size - first);
+        return res;
+    }
+
+    void record(final ByteBuffer packet) {
+        final int length = packet.remaining();
+        if (ring.length > 0) {
+            copy(packet);
+        }
+        packet.position(packet.limit());
+        bytes.addAndGet(length);
+        packets.incrementAndGet();
+    }
+
+    private synchronized void copy(final ByteBuffer packet) {
+        final ByteBuffer src = packet.duplicate();
+        // only the tail of a packet larger than the ring is kept.
+        if (src.remaining() > ring.length) {
+            ringPosition += src.remaining() - ring.length;
+            src.position(src.limit() - ring.length);
+        }
+        while (src.hasRemaining()) {
+            final int offset = (int) (ringPosition % ring.length);
+            final int length = Math.min(src.remaining(), ring.length - offset);
+            src.get(ring, offset, length);
+            ringPosition += length;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "mem://";
+    }
+}
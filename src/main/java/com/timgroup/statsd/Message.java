@@ -12,6 +12,12 @@ public abstract class Message implements Comparable<Message> {
     final String[] tags;
     protected boolean done;
     final TagsCardinality tagsCardinality;
+    long enqueueNanos; // set when the message is sampled for latency measurement, 0 otherwise
+    // prefix, constant tags and origin of the sending client when it shares a runtime, null
+    // otherwise. Clients of a runtime share its aggregator, but render their messages themselves.
+    String clientContext;
+    MessagePriority priority; // null for normal priority
+    String scopedTags; // rendered tags of the sending thread's scope, null for none
 
     // borrowed from Array.hashCode implementation:
     // https://github.com/openjdk/jdk11/blob/master/src/java.base/share/classes/java/util/Arrays.java#L4454-L4465
@@ -122,6 +128,23 @@ public abstract class Message implements Comparable<Message> {
         return this.done;
     }
 
+    /**
+     * Hash a context to 64 bits, for the stores keyed by context rather than by message.
+     *
+     * @param aspect the aspect of the context.
+     * @param tags the tags of the context.
+     * @param scopedTags the scoped tags of the context, or null.
+     * @return the key of the context.
+     */
+    static long contextKey(final String aspect, final String[] tags, final String scopedTags) {
+        long hash = HyperLogLog.mix(aspect.hashCode());
+        hash = HyperLogLog.mix(hash + Arrays.hashCode(tags));
+        if (scopedTags != null) {
+            hash = HyperLogLog.mix(hash + scopedTags.hashCode());
+        }
+        return hash;
+    }
+
     /** Messages must implement hashCode. */
     @Override
     public int hashCode() {
@@ -130,6 +153,12 @@ public abstract class Message implements Comparable<Message> {
         hash = hash * HASH_MULTIPLIER + aspect.hashCode();
         hash = hash * HASH_MULTIPLIER + tagsCardinality.hashCode();
         hash = hash * HASH_MULTIPLIER + Arrays.hashCode(this.tags);
+        if (clientContext != null) {
+            hash = hash * HASH_MULTIPLIER + clientContext.hashCode();
+        }
+        if (scopedTags != null) {
+            hash = hash * HASH_MULTIPLIER + scopedTags.hashCode();
+        }
         return hash;
     }
 
@@ -145,7 +174,9 @@ public abstract class Message implements Comparable<Message> {
             return (Objects.equals(this.getAspect(), msg.getAspect()))
                     && (this.getType() == msg.getType())
                     && (this.getTagsCardinality().equals(msg.getTagsCardinality()))
-                    && Arrays.equals(this.tags, msg.getTags());
+                    && Arrays.equals(this.tags, msg.getTags())
+                    && Objects.equals(this.clientContext, msg.clientContext)
+                    && Objects.equals(this.scopedTags, msg.scopedTags);
         }
 
         return false;
@@ -166,6 +197,16 @@ public abstract class Message implements Comparable<Message> {
             return cmp;
         }
 
+        cmp = compare(clientContext, message.clientContext);
+        if (cmp != 0) {
+            return cmp;
+        }
+
+        cmp = compare(scopedTags, message.scopedTags);
+        if (cmp != 0) {
+            return cmp;
+        }
+
         if (tags == null && message.tags == null) {
             return 0;
         } else if (tags == null) {
@@ -182,4 +223,12 @@ public abstract class Message implements Comparable<Message> {
         }
         return tags.length < message.tags.length ? 1 : -1;
     }
+
+    // nulls last, like the tags.
+    private static int compare(final String a, final String b) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? 1 : -1;
+        }
+        return a.compareTo(b);
+    }
 }
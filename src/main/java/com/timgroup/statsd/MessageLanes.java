@@ -0,0 +1,140 @@
+package com.timgroup.statsd;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded message queues, one per {@link MessagePriority}, or a single one when priorities are not
+ * used.
+ *
+ * <p>The queue size is split among the lanes: the high and low lanes hold a quarter of it each, the
+ * normal lane the rest. Consumers pass a turn counter of their own to {@link #poll(int)}, which
+ * picks the lane to start from on a weighted schedule: out of 7 turns, 4 start from the high lane,
+ * 2 from the normal lane and 1 from the low lane. Empty lanes are skipped in priority order, so
+ * that no lane is ever starved while another one is idle.
+ */
+final class MessageLanes {
+    private static final int[] SCHEDULE = {0, 0, 0, 0, 1, 1, 2};
+    private static final int NORMAL = MessagePriority.NORMAL.ordinal();
+
+    private final Queue<Message>[] queues;
+    // sizes will not reflect actual sizes, but a close estimate.
+    private final AtomicInteger[] sizes;
+    private final int[] capacities;
+
+    /**
+     * Create the queues.
+     *
+     * @param queueSize the number of messages held by all the lanes together.
+     * @param priorities whether to have a lane per priority, or a single queue ignoring them.
+     */
+    @SuppressWarnings("unchecked")
+    MessageLanes(final int queueSize, final boolean priorities) {
+        final int lanes = priorities ? MessagePriority.values().length : 1;
+        queues = new Queue[lanes];
+        sizes = new AtomicInteger[lanes];
+        capacities = new int[lanes];
+        for (int i = 0; i < lanes; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+            sizes[i] = new AtomicInteger(0);
+        }
+        if (priorities) {
+            final int quarter = queueSize / 4;
+            for (int i = 0; i < lanes; i++) {
+                capacities[i] = Math.max(1, i == NORMAL ? queueSize - 2 * quarter : quarter);
+            }
+        } else {
+            capacities[0] = queueSize;
+        }
+    }
+
+    private int lane(final Message message) {
+        if (queues.length == 1) {
+            return 0;
+        }
+        return message.priority == null ? NORMAL : message.priority.ordinal();
+    }
+
+    /**
+     * Queue a message in the lane of its priority.
+     *
+     * @param message the message.
+     * @return false if the lane is full.
+     */
+    boolean offer(final Message message) {
+        final int lane = lane(message);
+        if (sizes[lane].get() < capacities[lane]) {
+            queues[lane].offer(message);
+            sizes[lane].incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queue a message in every lane, regardless of their capacity.
+     *
+     * @param message the message.
+     * @return the number of lanes.
+     */
+    int offerAll(final Message message) {
+        for (int lane = 0; lane < queues.length; lane++) {
+            queues[lane].offer(message);
+            sizes[lane].incrementAndGet();
+        }
+        return queues.length;
+    }
+
+    /**
+     * Take the next message.
+     *
+     * @param turn a counter incremented by the caller on each call.
+     * @return the message, or null if all the lanes are empty.
+     */
+    Message poll(final int turn) {
+        final int first =
+                queues.length == 1 ? 0 : SCHEDULE[(turn & Integer.MAX_VALUE) % SCHEDULE.length];
+        Message message = queues[first].poll();
+        if (message != null) {
+            sizes[first].decrementAndGet();
+            return message;
+        }
+        for (int lane = 0; lane < queues.length; lane++) {
+            if (lane != first) {
+                message = queues[lane].poll();
+                if (message != null) {
+                    sizes[lane].decrementAndGet();
+                    return message;
+                }
+            }
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        for (final Queue<Message> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        int size = 0;
+        for (final AtomicInteger lane : sizes) {
+            size += lane.get();
+        }
+        return size;
+    }
+
+    // size of the lane of a priority, when there is a lane per priority.
+    int size(final MessagePriority priority) {
+        return sizes[priority.ordinal()].get();
+    }
+
+    int lanes() {
+        return queues.length;
+    }
+}
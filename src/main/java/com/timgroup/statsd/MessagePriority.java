@@ -0,0 +1,17 @@
+package com.timgroup.statsd;
+
+/**
+ * Priority class of a message, see {@link NonBlockingStatsDClientBuilder#priorities}.
+ *
+ * <p>Each class has its own bounded queue in the processor, so that a flood of messages of one
+ * class can not push out the messages of another one, and the processor workers drain the queues
+ * with weights favoring the higher classes.
+ */
+public enum MessagePriority {
+    /** Messages that must survive a saturated queue, like paging-critical counters. */
+    HIGH,
+    /** Default class. */
+    NORMAL,
+    /** Messages that matter the least, like debug histograms. */
+    LOW
+}
@@ -0,0 +1,170 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Last values of cumulative counters, turning them into the deltas sent as counts.
+ *
+ * <p>Contexts live in open addressing tables, probed by a 64-bit hash of their aspect and tags, see
+ * {@link Message#contextKey}, and compared in full on a hash match, so that colliding contexts are
+ * kept apart. The tables are split in {@link #SEGMENTS} segments, each with its own lock, to keep
+ * concurrent callers out of each other's way.
+ *
+ * <p>A segment about to grow first purges the contexts idle for longer than the configured
+ * duration, and only grows if more than three eighths of its slots are still in use. A purged
+ * counter that comes back starts over, as if seen for the first time.
+ */
+final class MonotonicCounters {
+    static final int SEGMENTS = 16;
+    static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long idleNanos;
+
+    private static final class Context {
+        final String aspect;
+        final String[] tags;
+        final String scopedTags;
+
+        Context(final String aspect, final String[] tags, final String scopedTags) {
+            this.aspect = aspect;
+            // callers may reuse their arrays.
+            this.tags = tags == null ? null : tags.clone();
+            this.scopedTags = scopedTags;
+        }
+
+        boolean matches(final String aspect, final String[] tags, final String scopedTags) {
+            return this.aspect.equals(aspect)
+                    && Arrays.equals(this.tags, tags)
+                    && Objects.equals(this.scopedTags, scopedTags);
+        }
+    }
+
+    private final class Segment {
+        // a lock rather than a monitor, so that virtual threads reporting counters are not pinned.
+        final ReentrantLock lock = new ReentrantLock();
+        long[] keys = newKeys(INITIAL_CAPACITY);
+        Context[] contexts = new Context[INITIAL_CAPACITY];
+        long[] values = new long[INITIAL_CAPACITY];
+        // time at which each context was last updated.
+        long[] seen = new long[INITIAL_CAPACITY];
+        int size;
+
+        // return the previous value of the context, or EMPTY if it was not tracked.
+        long put(
+                final long key,
+                final String aspect,
+                final String[] tags,
+                final String scopedTags,
+                final long value) {
+            lock.lock();
+            try {
+                final long now = System.nanoTime();
+                final int mask = keys.length - 1;
+                int i = slot(key, mask);
+                while (keys[i] != EMPTY) {
+                    if (keys[i] == key && contexts[i].matches(aspect, tags, scopedTags)) {
+                        final long previous = values[i];
+                        values[i] = value;
+                        seen[i] = now;
+                        return previous;
+                    }
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                contexts[i] = new Context(aspect, tags, scopedTags);
+                values[i] = value;
+                seen[i] = now;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length, now);
+                    if (size * 8 > keys.length * 3) {
+                        rehash(keys.length * 2, now);
+                    }
+                }
+                return EMPTY;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // move the contexts updated over the idle duration to tables of the given capacity.
+        private void rehash(final int capacity, final long now) {
+            final long[] oldKeys = keys;
+            final Context[] oldContexts = contexts;
+            final long[] oldValues = values;
+            final long[] oldSeen = seen;
+            keys = newKeys(capacity);
+            contexts = new Context[capacity];
+            values = new long[capacity];
+            seen = new long[capacity];
+            size = 0;
+            final int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == EMPTY || now - oldSeen[j] > idleNanos) {
+                    continue;
+                }
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                contexts[i] = oldContexts[j];
+                values[i] = oldValues[j];
+                seen[i] = oldSeen[j];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * MonotonicCounters constructor.
+     *
+     * @param idleMillis time after which a context that was not updated may be purged, in
+     *     milliseconds.
+     */
+    MonotonicCounters(final long idleMillis) {
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private static long[] newKeys(final int capacity) {
+        final long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int slot(final long key, final int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Record the current value of a counter.
+     *
+     * @param aspect the aspect of the counter.
+     * @param tags the tags of the counter.
+     * @param scopedTags the scoped tags of the caller, or null.
+     * @param value the cumulative value.
+     * @return the increase since the previous value, the value itself if the counter was reset to a
+     *     lower value, or 0 the first time the counter is seen.
+     */
+    long delta(
+            final String aspect, final String[] tags, final String scopedTags, final long value) {
+        long key = Message.contextKey(aspect, tags, scopedTags);
+        if (key == EMPTY) {
+            key = EMPTY + 1;
+        }
+        final long previous =
+                segments[(int) (key >>> 60)].put(key, aspect, tags, scopedTags, value);
+        if (previous == EMPTY) {
+            return 0;
+        }
+        return value >= previous ? value - previous : value;
+    }
+}
@@ -1,5 +1,7 @@
 package com.timgroup.statsd;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A No-Op StatsDClient, which can be substituted in when metrics are not required.
  *
@@ -13,6 +15,11 @@ public class NoOpStatsDClient implements StatsDClient {
     @Override
     public void close() {}
 
+    @Override
+    public boolean flush(long timeout, TimeUnit unit) {
+        return true;
+    }
+
     @Override
     public void count(String aspect, long delta, String... tags) {}
 
@@ -325,4 +332,15 @@ public class NoOpStatsDClient implements StatsDClient {
     @Override
     public void recordSetValue(
             String aspect, String value, TagsCardinality cardinality, String... tags) {}
+
+    @Override
+    public void registerGauge(String aspect, GaugeSupplier supplier, String... tags) {}
+
+    @Override
+    public boolean unregisterGauge(String aspect, String... tags) {
+        return false;
+    }
+
+    @Override
+    public void monotonicCount(String aspect, long value, String... tags) {}
 }
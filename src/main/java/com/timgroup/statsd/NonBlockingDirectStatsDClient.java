@@ -19,7 +19,7 @@ class NonBlockingDirectStatsDClient extends NonBlockingStatsDClient implements D
                             sampleRate,
                             0,
                             clientTagsCardinality,
-                            tags));
+                            rewriteTags(aspect, tags)));
         }
     }
 
@@ -35,7 +35,7 @@ class NonBlockingDirectStatsDClient extends NonBlockingStatsDClient implements D
                             sampleRate,
                             0,
                             clientTagsCardinality,
-                            tags));
+                            rewriteTags(aspect, tags)));
         }
     }
 
@@ -99,7 +99,7 @@ class NonBlockingDirectStatsDClient extends NonBlockingStatsDClient implements D
             if (timestamp != 0) {
                 builder.append("|T").append(timestamp);
             }
-            tagString(tags, builder);
+            scopedTagString(tags, scopedTags, builder);
             writeMessageTail(builder, tagsCardinality);
         }
 
@@ -6,18 +6,27 @@ import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A simple StatsD client implementation facilitating metrics recording.
@@ -96,6 +105,28 @@ public class NonBlockingStatsDClient implements StatsDClient {
     public static final boolean DEFAULT_ENABLE_AGGREGATION = true;
     public static final boolean DEFAULT_ENABLE_ORIGIN_DETECTION = true;
     public static final int SOCKET_CONNECT_TIMEOUT_MS = 1000;
+    public static final boolean DEFAULT_ADAPTIVE_PACKET_SIZE = false;
+    public static final int DEFAULT_PACKET_SIZE_PROBE_INTERVAL_MS = 10000;
+    public static final int DEFAULT_SENDER_BURST_INTERVAL_MS = 100;
+    public static final int DEFAULT_SPILL_FILE_SIZE_BYTES = 16 * 1024 * 1024;
+    public static final int DEFAULT_SPILL_MAX_AGE_MS = 300000;
+    public static final int DEFAULT_SPILL_REPLAY_RATE = 1000;
+    public static final int DEFAULT_SHARD_FAILURE_THRESHOLD = 3;
+    public static final int DEFAULT_SHARD_RETRY_INTERVAL_MS = 10000;
+    public static final int DEFAULT_FILE_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
+    public static final double DEFAULT_LATENCY_SAMPLE_RATE = 0;
+    public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+    public static final boolean DEFAULT_SYNCHRONOUS = false;
+    public static final boolean DEFAULT_LOAD_SHEDDING = false;
+    public static final double DEFAULT_LOAD_SHEDDING_MIN_RATE = 0.01;
+    public static final MessagePriority DEFAULT_PRIORITY = MessagePriority.NORMAL;
+    public static final int DEFAULT_ASPECT_RATE_LIMIT = 0;
+    public static final int DEFAULT_ASPECT_RATE_LIMIT_CACHE_SIZE = 4096;
+    public static final int DEFAULT_HEAVY_HITTERS = 0;
+    public static final int DEFAULT_CARDINALITY_ASPECTS = 0;
+    public static final int DEFAULT_CARDINALITY_THRESHOLD = 0;
+    public static final int DEFAULT_TAG_RULES_CACHE_SIZE = 1024;
+    public static final int DEFAULT_GAUGE_DEDUPLICATION = 0;
 
     public static final String CLIENT_TAG = "client:java";
     public static final String CLIENT_VERSION_TAG = "client_version:";
@@ -162,8 +193,41 @@ public class NonBlockingStatsDClient implements StatsDClient {
     final String prefix;
     private final ClientChannel clientChannel;
     private final ClientChannel telemetryClientChannel;
+    private SpillQueue spillQueue;
+    private ClientChannel[] shardChannels;
+    private ShardRing shardRing;
+    private LatencyTracker latency;
+    LoadShedder shedder;
+    private AspectLimiter limiter;
+    // flushes of the aggregators and telemetry, when they do not run on their own timer threads.
+    private ScheduledThreadPoolExecutor scheduler;
+    // virtual thread mode: hand-off processors, and aggregators guarded by j.u.c locks.
+    private boolean handOff;
+    // no background threads, buffers are written by the callers and flush().
+    private boolean synchronous;
+    // a queue per priority in the non-blocking processor, a single queue otherwise.
+    private boolean priorityLanes;
+    private long telemetryFlushInterval;
+    private volatile long telemetryFlushAt;
+    // serializes the drains of flush(long, TimeUnit).
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // runtime this client is attached to, null if the client owns its pipeline.
+    private final StatsDRuntime runtime;
+    // context of the messages of a client attached to a runtime, see Message.clientContext.
+    private final String clientContext;
+    // gauges registered by a client attached to a runtime, unregistered when it stops.
+    private final List<StatsDAggregator.RegisteredGauge> registeredGauges =
+            new CopyOnWriteArrayList<>();
     private final StatsDClientErrorHandler handler;
     private final String constantTagsRendered;
+    // aspect prefixes of the priority rules, longest first, null when all messages are normal.
+    private final String[] priorityPrefixes;
+    private final MessagePriority[] prefixPriorities;
+    private final MessagePriority priority;
+    // rewrites the tags of the metrics, null when there are no tag rules.
+    private final TagRewriter tagRewriter;
+    // last values of the monotonic counters, created by the first one.
+    private volatile MonotonicCounters monotonicCounters;
 
     // Typically the telemetry and regular processors will be the same,
     // but a separate destination for telemetry is supported.
@@ -171,6 +235,8 @@ public class NonBlockingStatsDClient implements StatsDClient {
     protected StatsDProcessor telemetryStatsDProcessor;
     protected final StatsDSender statsDSender;
     protected StatsDSender telemetryStatsDSender;
+    protected StatsDProcessor[] shardProcessors;
+    protected StatsDSender[] shardSenders;
     protected final Telemetry telemetry;
     final String telemetryTags;
     private final int maxPacketSizeBytes;
@@ -240,6 +306,71 @@ public class NonBlockingStatsDClient implements StatsDClient {
         containerID = getContainerID(builder.containerID, originDetectionEnabled);
         externalEnv = originDetectionEnabled ? Utf8.sanitize(env.get("DD_EXTERNAL_ENV")) : "";
 
+        priority = builder.priority == null ? DEFAULT_PRIORITY : builder.priority;
+        if ((builder.priorities == null || builder.priorities.isEmpty())
+                && priority == MessagePriority.NORMAL) {
+            priorityPrefixes = null;
+            prefixPriorities = null;
+        } else {
+            final List<Map.Entry<String, MessagePriority>> rules =
+                    builder.priorities == null
+                            ? new ArrayList<Map.Entry<String, MessagePriority>>()
+                            : new ArrayList<>(builder.priorities.entrySet());
+            Collections.sort(
+                    rules,
+                    new Comparator<Map.Entry<String, MessagePriority>>() {
+                        @Override
+                        public int compare(
+                                final Map.Entry<String, MessagePriority> a,
+                                final Map.Entry<String, MessagePriority> b) {
+                            return b.getKey().length() - a.getKey().length();
+                        }
+                    });
+            priorityPrefixes = new String[rules.size()];
+            prefixPriorities = new MessagePriority[rules.size()];
+            for (int i = 0; i < rules.size(); i++) {
+                priorityPrefixes[i] = rules.get(i).getKey();
+                prefixPriorities[i] = rules.get(i).getValue();
+            }
+        }
+
+        if (builder.tagRules == null || builder.tagRules.isEmpty()) {
+            tagRewriter = null;
+        } else {
+            tagRewriter = new TagRewriter(builder.tagRules, builder.tagRulesCacheSize);
+        }
+
+        runtime = builder.runtime;
+        clientContext =
+                runtime == null
+                        ? null
+                        : prefix
+                                + '|'
+                                + constantTagsRendered
+                                + '|'
+                                + containerID
+                                + '|'
+                                + externalEnv;
+        if (runtime != null) {
+            final NonBlockingStatsDClient pipeline = runtime.pipeline;
+            clientChannel = pipeline.clientChannel;
+            telemetryClientChannel = pipeline.telemetryClientChannel;
+            statsDProcessor = pipeline.statsDProcessor;
+            statsDSender = pipeline.statsDSender;
+            telemetryStatsDProcessor = pipeline.telemetryStatsDProcessor;
+            telemetryStatsDSender = pipeline.telemetryStatsDSender;
+            shardRing = pipeline.shardRing;
+            shardProcessors = pipeline.shardProcessors;
+            shardSenders = pipeline.shardSenders;
+            latency = pipeline.latency;
+            shedder = pipeline.shedder;
+            limiter = pipeline.limiter;
+            telemetry = pipeline.telemetry;
+            telemetryTags = pipeline.telemetryTags;
+            // the workers belong to the runtime, and are already running.
+            return;
+        }
+
         try {
             clientChannel =
                     createByteChannel(
@@ -248,10 +379,20 @@ public class NonBlockingStatsDClient implements StatsDClient {
                             builder.connectionTimeout,
                             builder.socketBufferSize);
 
-            ThreadFactory threadFactory =
-                    builder.threadFactory != null
-                            ? builder.threadFactory
-                            : new StatsDThreadFactory();
+            ThreadFactory threadFactory = builder.threadFactory;
+            if (threadFactory == null && builder.virtualThreads) {
+                threadFactory = VirtualThreads.newFactory("StatsD-");
+            }
+            if (threadFactory == null) {
+                threadFactory = new StatsDThreadFactory();
+            }
+            synchronous = builder.synchronous;
+            priorityLanes = priorityPrefixes != null || builder.priorityLanes;
+            if (builder.virtualThreads && !synchronous) {
+                handOff = true;
+                scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+                scheduler.setRemoveOnCancelPolicy(true);
+            }
 
             int aggregationFlushInterval =
                     builder.enableAggregation ? builder.aggregationFlushInterval : 0;
@@ -318,7 +459,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
                             clientChannel,
                             statsDProcessor.getBufferPool(),
                             statsDProcessor.getOutboundQueue(),
-                            builder.senderWorkers,
+                            synchronous ? 0 : builder.senderWorkers,
                             threadFactory);
 
             telemetryStatsDSender = statsDSender;
@@ -330,13 +471,163 @@ public class NonBlockingStatsDClient implements StatsDClient {
                                 telemetryClientChannel,
                                 telemetryStatsDProcessor.getBufferPool(),
                                 telemetryStatsDProcessor.getOutboundQueue(),
-                                1,
+                                synchronous ? 0 : 1,
                                 threadFactory);
+                attachSender(telemetryStatsDProcessor, telemetryStatsDSender);
             }
 
             // set telemetry
             statsDProcessor.setTelemetry(telemetry);
             statsDSender.setTelemetry(telemetry);
+            statsDProcessor.setExecutor(scheduler);
+            telemetry.setExecutor(scheduler);
+
+            attachSender(statsDProcessor, statsDSender);
+            configureTransport(builder, clientChannel, statsDProcessor, statsDSender);
+            if (telemetryStatsDSender != statsDSender) {
+                configureTransport(
+                        builder,
+                        telemetryClientChannel,
+                        telemetryStatsDProcessor,
+                        telemetryStatsDSender);
+            }
+            telemetry.senderPacing =
+                    builder.senderBytesPerSecond > 0 || builder.senderPacketsPerSecond > 0;
+
+            if (builder.spillFile != null) {
+                spillQueue =
+                        new SpillQueue(
+                                Paths.get(builder.spillFile),
+                                builder.spillFileSize,
+                                builder.spillMaxAge);
+                statsDSender.setSpill(spillQueue, builder.spillReplayRate);
+            }
+
+            if (builder.shardAddressLookups != null && !builder.shardAddressLookups.isEmpty()) {
+                final int shards = builder.shardAddressLookups.size() + 1;
+                shardRing =
+                        new ShardRing(
+                                shards, builder.shardFailureThreshold, builder.shardRetryInterval);
+                shardChannels = new ClientChannel[shards];
+                shardProcessors = new StatsDProcessor[shards];
+                shardSenders = new StatsDSender[shards];
+                shardChannels[0] = clientChannel;
+                shardProcessors[0] = statsDProcessor;
+                shardSenders[0] = statsDSender;
+                statsDSender.setShard(shardRing, 0);
+
+                for (int i = 1; i < shards; i++) {
+                    shardChannels[i] =
+                            createByteChannel(
+                                    builder.shardAddressLookups.get(i - 1),
+                                    builder.timeout,
+                                    builder.connectionTimeout,
+                                    builder.socketBufferSize);
+                    shardProcessors[i] =
+                            createProcessor(
+                                    builder.queueSize,
+                                    handler,
+                                    getPacketSize(shardChannels[i]),
+                                    builder.bufferPoolSize,
+                                    builder.processorWorkers,
+                                    builder.blocking,
+                                    aggregationFlushInterval,
+                                    builder.aggregationShards,
+                                    threadFactory);
+                    shardSenders[i] =
+                            createSender(
+                                    handler,
+                                    shardChannels[i],
+                                    shardProcessors[i].getBufferPool(),
+                                    shardProcessors[i].getOutboundQueue(),
+                                    synchronous ? 0 : builder.senderWorkers,
+                                    threadFactory);
+                    attachSender(shardProcessors[i], shardSenders[i]);
+                    shardProcessors[i].setTelemetry(telemetry);
+                    shardSenders[i].setTelemetry(telemetry);
+                    shardProcessors[i].setExecutor(scheduler);
+                    configureTransport(
+                            builder, shardChannels[i], shardProcessors[i], shardSenders[i]);
+                    shardSenders[i].setShard(shardRing, i);
+                }
+            }
+
+            if (builder.latencySampleRate > 0) {
+                latency = new LatencyTracker(builder.latencySampleRate);
+                final StatsDProcessor[] processors =
+                        shardProcessors != null
+                                ? shardProcessors
+                                : new StatsDProcessor[] {statsDProcessor};
+                final StatsDSender[] senders =
+                        shardSenders != null ? shardSenders : new StatsDSender[] {statsDSender};
+                for (int i = 0; i < processors.length; i++) {
+                    processors[i].setLatencyTracker(latency);
+                    senders[i].setLatencyTracker(latency);
+                }
+                telemetry.latency = latency;
+            }
+
+            if (builder.loadShedding) {
+                final StatsDProcessor[] processors =
+                        shardProcessors != null
+                                ? shardProcessors
+                                : new StatsDProcessor[] {statsDProcessor};
+                final StatsDSender[] senders =
+                        shardSenders != null ? shardSenders : new StatsDSender[] {statsDSender};
+                shedder = new LoadShedder(processors, builder.loadSheddingMinRate);
+                for (final StatsDSender sender : senders) {
+                    sender.setLoadShedder(shedder);
+                }
+                telemetry.loadShedding = true;
+            }
+
+            if (builder.aspectRateLimit > 0) {
+                limiter =
+                        new AspectLimiter(
+                                builder.aspectRateLimit, builder.aspectRateLimitCacheSize);
+                telemetry.aspectRateLimit = true;
+            }
+
+            if (builder.heavyHitters > 0) {
+                final HeavyHitters heavyHitters =
+                        new HeavyHitters(builder.heavyHitters, builder.telemetryFlushInterval);
+                final StatsDProcessor[] processors =
+                        shardProcessors != null
+                                ? shardProcessors
+                                : new StatsDProcessor[] {statsDProcessor};
+                for (final StatsDProcessor processor : processors) {
+                    processor.setHeavyHitters(heavyHitters);
+                }
+                telemetry.heavyHitters = heavyHitters;
+            }
+
+            if (builder.cardinalityAspects > 0) {
+                final CardinalityTracker cardinality =
+                        new CardinalityTracker(
+                                builder.cardinalityAspects,
+                                builder.cardinalityThreshold,
+                                handler,
+                                builder.telemetryFlushInterval);
+                final StatsDProcessor[] processors =
+                        shardProcessors != null
+                                ? shardProcessors
+                                : new StatsDProcessor[] {statsDProcessor};
+                for (final StatsDProcessor processor : processors) {
+                    processor.setCardinalityTracker(cardinality);
+                }
+                telemetry.cardinality = cardinality;
+            }
+
+            if (builder.gaugeDeduplication > 0) {
+                final StatsDProcessor[] processors =
+                        shardProcessors != null
+                                ? shardProcessors
+                                : new StatsDProcessor[] {statsDProcessor};
+                for (final StatsDProcessor processor : processors) {
+                    processor.getAggregator().setGaugeDeduplication(builder.gaugeDeduplication);
+                }
+                telemetry.gaugeDeduplication = true;
+            }
 
         } catch (final Exception e) {
             throw new StatsDClientException("Failed to start StatsD client", e);
@@ -344,14 +635,52 @@ public class NonBlockingStatsDClient implements StatsDClient {
 
         statsDProcessor.startWorkers("StatsD-Processor-");
         statsDSender.startWorkers("StatsD-Sender-");
+        if (shardRing != null) {
+            for (int i = 1; i < shardRing.size(); i++) {
+                shardProcessors[i].startWorkers("StatsD-Processor-" + i + "-");
+                shardSenders[i].startWorkers("StatsD-Sender-" + i + "-");
+            }
+        }
 
         if (builder.enableTelemetry) {
             if (telemetryStatsDProcessor != statsDProcessor) {
                 telemetryStatsDProcessor.startWorkers("StatsD-TelemetryProcessor-");
                 telemetryStatsDSender.startWorkers("StatsD-TelemetrySender-");
             }
-            telemetry.start(builder.telemetryFlushInterval);
+            if (synchronous) {
+                // sent by flush(), once the interval has elapsed.
+                telemetryFlushInterval =
+                        TimeUnit.MILLISECONDS.toNanos(builder.telemetryFlushInterval);
+                telemetryFlushAt = System.nanoTime() + telemetryFlushInterval;
+            } else {
+                telemetry.start(builder.telemetryFlushInterval);
+            }
+        }
+    }
+
+    private static void attachSender(final StatsDProcessor processor, final StatsDSender sender) {
+        if (processor instanceof StatsDSynchronousProcessor) {
+            ((StatsDSynchronousProcessor) processor).setSender(sender);
+        }
+    }
+
+    private void configureTransport(
+            final NonBlockingStatsDClientBuilder builder,
+            final ClientChannel channel,
+            final StatsDProcessor processor,
+            final StatsDSender sender) {
+        // Only datagram transports have a packet size that can be discovered, stream
+        // transports frame each packet themselves.
+        if (builder.adaptivePacketSize && channel instanceof DatagramClientChannel) {
+            AdaptivePacketSize packetSize =
+                    new AdaptivePacketSize(getPacketSize(channel), builder.packetSizeProbeInterval);
+            processor.setPacketSize(packetSize);
+            sender.setPacketSize(packetSize);
         }
+        sender.setPacing(
+                builder.senderBytesPerSecond,
+                builder.senderPacketsPerSecond,
+                builder.senderBurstInterval);
     }
 
     protected StatsDProcessor createProcessor(
@@ -365,8 +694,28 @@ public class NonBlockingStatsDClient implements StatsDClient {
             final int aggregationShards,
             final ThreadFactory threadFactory)
             throws Exception {
-        if (blocking) {
+        if (synchronous) {
+            return new StatsDSynchronousProcessor(
+                    queueSize,
+                    handler,
+                    maxPacketSizeBytes,
+                    bufferPoolSize,
+                    aggregationFlushInterval,
+                    aggregationShards,
+                    threadFactory);
+        } else if (blocking) {
             return new StatsDBlockingProcessor(
+                    queueSize,
+                    handler,
+                    maxPacketSizeBytes,
+                    bufferPoolSize,
+                    workers,
+                    aggregationFlushInterval,
+                    aggregationShards,
+                    threadFactory,
+                    handOff);
+        } else if (handOff) {
+            return new StatsDHandOffProcessor(
                     queueSize,
                     handler,
                     maxPacketSizeBytes,
@@ -384,7 +733,8 @@ public class NonBlockingStatsDClient implements StatsDClient {
                     workers,
                     aggregationFlushInterval,
                     aggregationShards,
-                    threadFactory);
+                    threadFactory,
+                    priorityLanes);
         }
     }
 
@@ -400,6 +750,139 @@ public class NonBlockingStatsDClient implements StatsDClient {
                 clientChannel, handler, pool, buffers, senderWorkers, threadFactory);
     }
 
+    /**
+     * Write the messages buffered by a synchronous client, see {@link
+     * NonBlockingStatsDClientBuilder#synchronous(boolean)}. Pending aggregates are written first,
+     * and the telemetry is sent along when its flush interval has elapsed.
+     *
+     * <p>Clients running background workers only flush their pending aggregates, without waiting
+     * for them to be written, see {@link #flush(long, TimeUnit)}.
+     */
+    public void flush() {
+        if (runtime != null) {
+            runtime.pipeline.flush();
+            return;
+        }
+        if (!synchronous) {
+            for (final StatsDProcessor processor : pipelineProcessors()) {
+                processor.getAggregator().flush();
+            }
+            return;
+        }
+        if (telemetryFlushInterval > 0 && System.nanoTime() - telemetryFlushAt >= 0) {
+            telemetryFlushAt = System.nanoTime() + telemetryFlushInterval;
+            telemetry.flush();
+        }
+        for (final StatsDProcessor processor : pipelineProcessors()) {
+            ((StatsDSynchronousProcessor) processor).flush();
+        }
+    }
+
+    /**
+     * Flush pending aggregates, and wait until the messages sent before the call, from any thread,
+     * have been written to the transport.
+     *
+     * <p>A marker is queued behind the messages sent before the call, and the workers hand off
+     * their partially filled packets once the marker has been picked up, then signal the caller.
+     * The flush thus completes under sustained traffic. Concurrent calls are serialized.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit unit of the timeout.
+     * @return true if all the messages were written before the timeout elapsed.
+     */
+    @Override
+    public boolean flush(final long timeout, final TimeUnit unit) {
+        if (runtime != null) {
+            return runtime.pipeline.flush(timeout, unit);
+        }
+        if (synchronous) {
+            flush();
+            return true;
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final StatsDProcessor[] processors = pipelineProcessors();
+        final StatsDSender[] senders = pipelineSenders();
+        try {
+            if (!flushLock.tryLock(timeout, unit)) {
+                return false;
+            }
+            try {
+                final CountDownLatch[] done = new CountDownLatch[processors.length];
+                for (int i = 0; i < processors.length; i++) {
+                    if (processors[i].shutdown) {
+                        return false;
+                    }
+                    done[i] = processors[i].requestDrain(deadline);
+                    if (done[i] == null) {
+                        return false;
+                    }
+                }
+                if (!await(done, deadline)) {
+                    return false;
+                }
+                // the messages are aggregated by now, drain the aggregates in turn.
+                for (int i = 0; i < processors.length; i++) {
+                    processors[i].getAggregator().flush();
+                    done[i] = processors[i].requestDrain(deadline);
+                    if (done[i] == null) {
+                        return false;
+                    }
+                }
+                if (!await(done, deadline)) {
+                    return false;
+                }
+                // all the buffers are now queued for the senders.
+                for (int i = 0; i < senders.length; i++) {
+                    done[i] = senders[i].requestDrain(deadline);
+                    if (done[i] == null) {
+                        return false;
+                    }
+                }
+                return await(done, deadline);
+            } finally {
+                flushLock.unlock();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static boolean await(final CountDownLatch[] latches, final long deadline)
+            throws InterruptedException {
+        for (final CountDownLatch latch : latches) {
+            if (!latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // processors of the shards, or the main processor, followed by the telemetry one if separate.
+    private StatsDProcessor[] pipelineProcessors() {
+        final List<StatsDProcessor> processors =
+                shardProcessors != null
+                        ? new ArrayList<>(Arrays.asList(shardProcessors))
+                        : new ArrayList<>(Arrays.asList(statsDProcessor));
+        if (telemetryStatsDProcessor != statsDProcessor) {
+            processors.add(telemetryStatsDProcessor);
+        }
+        return processors.toArray(new StatsDProcessor[processors.size()]);
+    }
+
+    // senders of the processors returned by pipelineProcessors(), in the same order.
+    private StatsDSender[] pipelineSenders() {
+        final List<StatsDSender> senders =
+                shardSenders != null
+                        ? new ArrayList<>(Arrays.asList(shardSenders))
+                        : new ArrayList<>(Arrays.asList(statsDSender));
+        if (telemetryStatsDProcessor != statsDProcessor) {
+            senders.add(telemetryStatsDSender);
+        }
+        return senders.toArray(new StatsDSender[senders.size()]);
+    }
+
     /**
      * Cleanly shut down this StatsD client. This method may throw an exception if the socket cannot
      * be closed.
@@ -408,10 +891,25 @@ public class NonBlockingStatsDClient implements StatsDClient {
      */
     @Override
     public void stop() {
+        if (runtime != null) {
+            // the pipeline belongs to the runtime, see StatsDRuntime.close(), only the gauges
+            // of this client leave it.
+            for (final StatsDAggregator.RegisteredGauge gauge : registeredGauges) {
+                unregisterGauge(gauge);
+            }
+            registeredGauges.clear();
+            return;
+        }
         try {
             this.telemetry.stop();
             statsDProcessor.shutdown(blocking);
             statsDSender.shutdown(blocking);
+            if (shardRing != null) {
+                for (int i = 1; i < shardRing.size(); i++) {
+                    shardProcessors[i].shutdown(blocking);
+                    shardSenders[i].shutdown(blocking);
+                }
+            }
 
             // shut down telemetry workers if need be
             if (telemetryStatsDProcessor != statsDProcessor) {
@@ -429,6 +927,18 @@ public class NonBlockingStatsDClient implements StatsDClient {
                 }
             }
 
+            if (shardChannels != null) {
+                for (int i = 1; i < shardChannels.length; i++) {
+                    if (shardChannels[i] != null) {
+                        try {
+                            shardChannels[i].close();
+                        } catch (final IOException e) {
+                            handler.handle(e);
+                        }
+                    }
+                }
+            }
+
             if (telemetryClientChannel != null && telemetryClientChannel != clientChannel) {
                 try {
                     telemetryClientChannel.close();
@@ -436,6 +946,18 @@ public class NonBlockingStatsDClient implements StatsDClient {
                     handler.handle(e);
                 }
             }
+
+            if (spillQueue != null) {
+                try {
+                    spillQueue.close();
+                } catch (final IOException e) {
+                    handler.handle(e);
+                }
+            }
+
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
         }
     }
 
@@ -444,6 +966,23 @@ public class NonBlockingStatsDClient implements StatsDClient {
         stop();
     }
 
+    /**
+     * Capture the state of the client pipeline: queue depth, buffer pool availability, aggregator
+     * contexts, and the counters accumulated since the previous snapshot.
+     *
+     * <p>Unlike the telemetry metrics, which are sent to the Agent through the client itself,
+     * snapshots are read in-process, e.g. by health checks. They are available whether or not
+     * telemetry is enabled, and do not affect the telemetry metrics.
+     *
+     * @return a telemetry snapshot.
+     */
+    public Telemetry.Snapshot snapshot() {
+        if (shardProcessors != null) {
+            return telemetry.snapshot(shardProcessors);
+        }
+        return telemetry.snapshot(statsDProcessor);
+    }
+
     /**
      * Return tag list as a tag string. Generate a suffix conveying the given tag list to the client
      */
@@ -476,6 +1015,29 @@ public class NonBlockingStatsDClient implements StatsDClient {
         return tagString(tags, constantTagsRendered, builder);
     }
 
+    /**
+     * Generate a suffix conveying the given tag list and scoped tags to the client, see {@link
+     * ScopedTags}.
+     */
+    StringBuilder scopedTagString(
+            final String[] tags, final String scopedTags, StringBuilder builder) {
+        if (scopedTags == null) {
+            return tagString(tags, constantTagsRendered, builder);
+        }
+        if (constantTagsRendered != null) {
+            builder.append(constantTagsRendered).append(',');
+        } else {
+            builder.append("|#");
+        }
+        builder.append(scopedTags);
+        if (tags != null) {
+            for (int n = tags.length - 1; n >= 0; n--) {
+                builder.append(',').append(tags[n]);
+            }
+        }
+        return builder;
+    }
+
     ClientChannel createByteChannel(
             Callable<SocketAddress> addressLookup,
             int timeout,
@@ -486,6 +1048,12 @@ public class NonBlockingStatsDClient implements StatsDClient {
         if (address instanceof NamedPipeSocketAddress) {
             return new NamedPipeClientChannel((NamedPipeSocketAddress) address);
         }
+        if (address instanceof MemorySocketAddress) {
+            return new MemoryClientChannel((MemorySocketAddress) address);
+        }
+        if (address instanceof FileSocketAddress) {
+            return new MappedFileClientChannel((FileSocketAddress) address);
+        }
         if (address instanceof UnixSocketAddressWithTransport) {
             UnixSocketAddressWithTransport unixAddr = ((UnixSocketAddressWithTransport) address);
 
@@ -545,7 +1113,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
             if (timestamp != 0) {
                 builder.append("|T").append(timestamp);
             }
-            tagString(this.tags, builder);
+            scopedTagString(this.tags, scopedTags, builder);
             writeMessageTail(builder, tagsCardinality);
             return false;
         }
@@ -577,16 +1145,95 @@ public class NonBlockingStatsDClient implements StatsDClient {
     }
 
     private boolean send(final Message message) {
-        boolean success = statsDProcessor.send(message);
+        boolean success = dispatch(message);
         if (success) {
             this.telemetry.incrMetricsSent(1, message.getType());
         } else {
             this.telemetry.incrPacketDroppedQueue(1);
+            ClientEvents.queueFull(message.getAspect());
+            if (shedder != null) {
+                shedder.onDrop();
+            }
         }
 
         return success;
     }
 
+    private MessagePriority priorityOf(final String aspect) {
+        for (int i = 0; i < priorityPrefixes.length; i++) {
+            if (aspect.startsWith(priorityPrefixes[i])) {
+                return prefixPriorities[i];
+            }
+        }
+        return priority;
+    }
+
+    // route the message to the processor of its shard, when sending to several destinations.
+    private boolean dispatch(final Message message) {
+        message.clientContext = clientContext;
+        message.scopedTags = ScopedTags.current();
+        if (priorityPrefixes != null) {
+            message.priority = priorityOf(message.getAspect());
+        }
+        if (latency != null) {
+            latency.onSend(message);
+        }
+        if (shardRing == null) {
+            return statsDProcessor.send(message);
+        }
+        return shardProcessors[shardRing.select(message.getAspect(), message.getTags())].send(
+                message);
+    }
+
+    // apply the tag rules, before the message reaches the aggregator.
+    String[] rewriteTags(final String aspect, final String[] tags) {
+        final TagRewriter tagRewriter = this.tagRewriter;
+        return tagRewriter == null ? tags : tagRewriter.rewrite(aspect, tags);
+    }
+
+    // sample the messages of the aspects over the rate limit, unless the client aggregates them.
+    // Return the sample rate to annotate the message with, NaN for none, or -1 if it is throttled.
+    private double limit(
+            final String aspect,
+            final Message.Type type,
+            final long timestamp,
+            final double sampleRate) {
+        final AspectLimiter limiter = this.limiter;
+        if (limiter == null
+                || (timestamp == 0
+                        && Message.AGGREGATE_SET.contains(type)
+                        && statsDProcessor.getAggregator().getFlushInterval() != 0)) {
+            return sampleRate;
+        }
+        final double rate = limiter.rate(aspect);
+        if (rate >= 1) {
+            return sampleRate;
+        }
+        if (isInvalidSample(rate)) {
+            telemetry.incrMetricsThrottled(1);
+            return -1;
+        }
+        return (Double.isNaN(sampleRate) ? 1 : sampleRate) * rate;
+    }
+
+    // sample the messages that tolerate it at the load shedding rate, on top of their own rate.
+    // Return the sample rate to annotate the message with, NaN for none, or -1 if it is shed.
+    private double shed(final Message.Type type, final double sampleRate) {
+        final LoadShedder shedder = this.shedder;
+        if (shedder == null || !LoadShedder.canShed(type)) {
+            return sampleRate;
+        }
+        final double rate = shedder.rate();
+        if (rate >= 1) {
+            return sampleRate;
+        }
+        if (isInvalidSample(rate)) {
+            telemetry.incrMetricsShed(1);
+            return -1;
+        }
+        return (Double.isNaN(sampleRate) ? 1 : sampleRate) * rate;
+    }
+
     // send double with sample rate and timestamp
     private void send(
             String aspect,
@@ -611,6 +1258,14 @@ public class NonBlockingStatsDClient implements StatsDClient {
         }
 
         if (Double.isNaN(sampleRate) || !isInvalidSample(sampleRate)) {
+            sampleRate = limit(aspect, type, timestamp, sampleRate);
+            if (sampleRate < 0) {
+                return;
+            }
+            sampleRate = shed(type, sampleRate);
+            if (sampleRate < 0) {
+                return;
+            }
 
             sendMetric(
                     new StatsDMessage<Double>(
@@ -620,7 +1275,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
                             sampleRate,
                             timestamp,
                             cardinality,
-                            tags) {
+                            rewriteTags(aspect, tags)) {
                         @Override
                         protected void writeValue(StringBuilder builder) {
                             builder.append(format(NUMBER_FORMATTER, this.value));
@@ -677,9 +1332,24 @@ public class NonBlockingStatsDClient implements StatsDClient {
         }
 
         if (Double.isNaN(sampleRate) || !isInvalidSample(sampleRate)) {
+            sampleRate = limit(aspect, type, timestamp, sampleRate);
+            if (sampleRate < 0) {
+                return;
+            }
+            sampleRate = shed(type, sampleRate);
+            if (sampleRate < 0) {
+                return;
+            }
+
             sendMetric(
                     new StatsDMessage<Long>(
-                            aspect, type, value, sampleRate, timestamp, cardinality, tags) {
+                            aspect,
+                            type,
+                            value,
+                            sampleRate,
+                            timestamp,
+                            cardinality,
+                            rewriteTags(aspect, tags)) {
                         @Override
                         protected void writeValue(StringBuilder builder) {
                             builder.append(this.value.longValue());
@@ -1427,7 +2097,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
         if (cardinality == null) {
             cardinality = clientTagsCardinality;
         }
-        statsDProcessor.send(
+        dispatch(
                 new AlphaNumericMessage(Message.Type.EVENT, "", cardinality) {
                     @Override
                     public boolean writeTo(StringBuilder builder, int capacity) {
@@ -1447,7 +2117,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
                         }
 
                         eventMap(event, builder);
-                        tagString(eventTags, builder);
+                        scopedTagString(eventTags, scopedTags, builder);
                         writeMessageTail(builder, tagsCardinality);
                         return false;
                     }
@@ -1485,7 +2155,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
             cardinality = clientTagsCardinality;
         }
 
-        statsDProcessor.send(
+        dispatch(
                 new AlphaNumericMessage(Message.Type.SERVICE_CHECK, "", cardinality) {
                     @Override
                     public boolean writeTo(StringBuilder sb, int capacity) {
@@ -1501,7 +2171,7 @@ public class NonBlockingStatsDClient implements StatsDClient {
                         if (sc.getHostname() != null) {
                             sb.append("|h:").append(sc.getHostname());
                         }
-                        tagString(sc.getTags(), sb);
+                        scopedTagString(sc.getTags(), scopedTags, sb);
                         if (sc.getMessage() != null) {
                             sb.append("|m:").append(sc.getEscapedMessage());
                         }
@@ -1567,8 +2237,9 @@ public class NonBlockingStatsDClient implements StatsDClient {
             final String... tags) {
         // documentation is light, but looking at dogstatsd source, we can send string values
         // here instead of numbers
-        statsDProcessor.send(
-                new AlphaNumericMessage(aspect, Message.Type.SET, val, cardinality, tags) {
+        dispatch(
+                new AlphaNumericMessage(
+                        aspect, Message.Type.SET, val, cardinality, rewriteTags(aspect, tags)) {
                     protected void writeValue(StringBuilder builder) {
                         builder.append(getValue());
                     }
@@ -1578,13 +2249,103 @@ public class NonBlockingStatsDClient implements StatsDClient {
                         builder.append(prefix).append(aspect).append(':');
                         writeValue(builder);
                         builder.append('|').append(type);
-                        tagString(this.tags, builder);
+                        scopedTagString(this.tags, scopedTags, builder);
                         writeMessageTail(builder, tagsCardinality);
                         return false;
                     }
                 });
     }
 
+    @Override
+    public void monotonicCount(final String aspect, final long value, final String... tags) {
+        MonotonicCounters counters = monotonicCounters;
+        if (counters == null) {
+            synchronized (this) {
+                counters = monotonicCounters;
+                if (counters == null) {
+                    counters = new MonotonicCounters(MonotonicCounters.IDLE_MILLIS);
+                    monotonicCounters = counters;
+                }
+            }
+        }
+        final long delta = counters.delta(aspect, tags, ScopedTags.current(), value);
+        if (delta != 0) {
+            send(aspect, delta, Message.Type.COUNT, tags);
+        }
+    }
+
+    @Override
+    public void registerGauge(
+            final String aspect, final GaugeSupplier supplier, final String... tags) {
+        final StatsDProcessor processor = gaugeProcessor(aspect, tags);
+        if (processor.getAggregator().getFlushInterval() == 0) {
+            throw new IllegalStateException("Registered gauges require client-side aggregation");
+        }
+        if (shardRing != null) {
+            // the gauge may have been registered on another shard.
+            unregisterGauge(aspect, tags);
+        }
+        final StatsDAggregator.RegisteredGauge gauge =
+                new StatsDAggregator.RegisteredGauge(
+                        aspect, clientTagsCardinality, rewriteTags(aspect, tags)) {
+                    @Override
+                    boolean writeTo(StringBuilder builder, int capacity) {
+                        // cleared first, so that a failing supplier is sampled again.
+                        queued = false;
+                        final double value = supplier.get();
+                        if (Double.isNaN(value)) {
+                            return false;
+                        }
+                        builder.append(prefix).append(aspect).append(':');
+                        builder.append(format(NUMBER_FORMATTER, value));
+                        builder.append('|').append(type);
+                        tagString(this.tags, builder);
+                        writeMessageTail(builder, tagsCardinality);
+                        return false;
+                    }
+                };
+        gauge.clientContext = clientContext;
+        processor.getAggregator().register(gauge);
+        if (runtime != null) {
+            registeredGauges.remove(gauge);
+            registeredGauges.add(gauge);
+        }
+    }
+
+    @Override
+    public boolean unregisterGauge(final String aspect, final String... tags) {
+        final StatsDAggregator.RegisteredGauge gauge =
+                new StatsDAggregator.RegisteredGauge(
+                        aspect, clientTagsCardinality, rewriteTags(aspect, tags)) {
+                    @Override
+                    boolean writeTo(StringBuilder builder, int capacity) {
+                        return false;
+                    }
+                };
+        gauge.clientContext = clientContext;
+        registeredGauges.remove(gauge);
+        return unregisterGauge(gauge);
+    }
+
+    private boolean unregisterGauge(final StatsDAggregator.RegisteredGauge gauge) {
+        // the shard of the gauge may have changed since it was registered.
+        final StatsDProcessor[] processors =
+                shardProcessors != null ? shardProcessors : new StatsDProcessor[] {statsDProcessor};
+        boolean registered = false;
+        for (final StatsDProcessor processor : processors) {
+            registered |= processor.getAggregator().unregister(gauge);
+        }
+        return registered;
+    }
+
+    // processor whose aggregator samples a registered gauge, the one of its shard.
+    private StatsDProcessor gaugeProcessor(final String aspect, final String[] tags) {
+        if (shardRing == null) {
+            return statsDProcessor;
+        }
+        return shardProcessors[shardRing.select(aspect, tags)];
+    }
+
     protected boolean isInvalidSample(double sampleRate) {
         return sampleRate != 1 && ThreadLocalRandom.current().nextDouble() > sampleRate;
     }
@@ -1624,11 +2385,15 @@ public class NonBlockingStatsDClient implements StatsDClient {
         return maxPacketSizeBytes > 0 ? maxPacketSizeBytes : chan.getMaxPacketSizeBytes();
     }
 
-    class TelemetryMessage extends NumericMessage<Integer> {
+    class TelemetryMessage extends NumericMessage<Long> {
         private final String tagsString; // pre-baked comma separeated tags string
 
-        protected TelemetryMessage(String metric, Integer value, String tags) {
-            super(metric, Message.Type.COUNT, value, clientTagsCardinality, null);
+        protected TelemetryMessage(String metric, long value, String tags) {
+            this(metric, Message.Type.COUNT, value, tags);
+        }
+
+        protected TelemetryMessage(String metric, Message.Type type, long value, String tags) {
+            super(metric, type, value, clientTagsCardinality, null);
             this.tagsString = tags;
             this.done = true; // dont aggregate telemetry messages for now
         }
@@ -1647,15 +2412,28 @@ public class NonBlockingStatsDClient implements StatsDClient {
     }
 
     public void sendTelemetryMetric(String metric, Integer value) {
+        sendTelemetryMetric(metric, value.longValue());
+    }
+
+    void sendTelemetryMetric(String metric, long value) {
         telemetryStatsDProcessor.send(new TelemetryMessage(metric, value, telemetryTags));
     }
 
-    void sendTelemetryMetric(String metric, Integer value, String tags) {
+    void sendTelemetryMetric(String metric, Message.Type type, long value) {
+        telemetryStatsDProcessor.send(new TelemetryMessage(metric, type, value, telemetryTags));
+    }
+
+    void sendTelemetryMetric(String metric, long value, String tags) {
+        sendTelemetryMetric(metric, Message.Type.COUNT, value, tags);
+    }
+
+    void sendTelemetryMetric(String metric, Message.Type type, long value, String tags) {
         StringBuilder tagsBuilder = new StringBuilder();
         tagsBuilder.setLength(0);
         tagsBuilder.append(telemetryTags);
         tagsBuilder.append(','); // telemetryTags is never empty
         tagsBuilder.append(tags);
-        telemetryStatsDProcessor.send(new TelemetryMessage(metric, value, tagsBuilder.toString()));
+        telemetryStatsDProcessor.send(
+                new TelemetryMessage(metric, type, value, tagsBuilder.toString()));
     }
 }
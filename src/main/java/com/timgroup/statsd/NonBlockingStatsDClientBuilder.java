@@ -5,6 +5,10 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadFactory;
@@ -61,6 +65,207 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
 
     public int aggregationShards = StatsDAggregator.DEFAULT_SHARDS;
 
+    /**
+     * Enable packet size discovery. Applies to UDP and unix datagram sockets only.
+     *
+     * <p>When enabled, the client starts sending packets of up to {@link #maxPacketSizeBytes} bytes
+     * (or the transport default), halves the packet size whenever the transport rejects a packet as
+     * too large, and periodically tries to grow it back. Rejected packets are re-sent in smaller
+     * pieces, and messages larger than the current packet size in a packet of their own. The Agent
+     * truncates packets larger than its {@code dogstatsd_buffer_size}, so {@link
+     * #maxPacketSizeBytes} must not be set above it.
+     */
+    public boolean adaptivePacketSize = NonBlockingStatsDClient.DEFAULT_ADAPTIVE_PACKET_SIZE;
+
+    /** Interval between attempts to grow the discovered packet size, in milliseconds. */
+    public int packetSizeProbeInterval =
+            NonBlockingStatsDClient.DEFAULT_PACKET_SIZE_PROBE_INTERVAL_MS;
+
+    /**
+     * Maximum number of bytes per second the sender writes to the socket. 0 disables the limit.
+     *
+     * <p>Buffers exceeding the rate wait in the outbound queue instead of overflowing the socket
+     * buffer of the Agent.
+     */
+    public int senderBytesPerSecond = 0;
+
+    /**
+     * Maximum number of packets per second the sender writes to the socket. 0 disables the limit.
+     */
+    public int senderPacketsPerSecond = 0;
+
+    /**
+     * Burst size of the sender rate limits, as the number of milliseconds worth of the configured
+     * rates that can be written at once.
+     */
+    public int senderBurstInterval = NonBlockingStatsDClient.DEFAULT_SENDER_BURST_INTERVAL_MS;
+
+    /**
+     * Path of a file used to keep packets that could not be sent, null to drop them.
+     *
+     * <p>When set, packets the sender fails to write are kept in a memory-mapped ring file of
+     * {@link #spillFileSize} bytes, and replayed at up to {@link #spillReplayRate} packets per
+     * second once writes succeed again. Packets older than {@link #spillMaxAge} are dropped. The
+     * file is truncated when the client starts.
+     */
+    public String spillFile;
+
+    /** Size of the spill file, in bytes. */
+    public int spillFileSize = NonBlockingStatsDClient.DEFAULT_SPILL_FILE_SIZE_BYTES;
+
+    /** Maximum age of a spilled packet, in milliseconds. */
+    public int spillMaxAge = NonBlockingStatsDClient.DEFAULT_SPILL_MAX_AGE_MS;
+
+    /** Maximum number of spilled packets replayed per second. */
+    public int spillReplayRate = NonBlockingStatsDClient.DEFAULT_SPILL_REPLAY_RATE;
+
+    /**
+     * Share of the messages, between 0 and 1, whose latency through the client is measured.
+     *
+     * <p>Sampled messages are timed from the moment they are sent to the moment they are picked up
+     * by a processor, handed to the sender, and written to the transport. The quantiles of these
+     * durations are reported by the {@code datadog.dogstatsd.client.latency_us} telemetry metric. 0
+     * disables the measurement.
+     */
+    public double latencySampleRate = NonBlockingStatsDClient.DEFAULT_LATENCY_SAMPLE_RATE;
+
+    /**
+     * Lower the sample rate of histograms, distributions and timings when the client gets
+     * overloaded, before messages are dropped.
+     *
+     * <p>The shedding rate is halved whenever the processor queue or the buffer pool are more than
+     * 80% full, or messages were dropped, and raised back once they are less than half full. The
+     * messages are sampled at the shedding rate on top of their own sample rate, and annotated with
+     * the combined rate. The number of messages shed is reported by the {@code
+     * datadog.dogstatsd.client.metrics_shed} telemetry metric.
+     */
+    public boolean loadShedding = NonBlockingStatsDClient.DEFAULT_LOAD_SHEDDING;
+
+    /** Lowest shedding rate the load shedding lowers sample rates to, between 0 and 1. */
+    public double loadSheddingMinRate = NonBlockingStatsDClient.DEFAULT_LOAD_SHEDDING_MIN_RATE;
+
+    /**
+     * Maximum number of messages per second for each aspect, 0 for no limit.
+     *
+     * <p>Messages of an aspect exceeding the limit are sampled down to it, and annotated with the
+     * sample rate. Messages aggregated by the client are not limited, as the aggregation already
+     * merges them. The number of messages throttled is reported by the {@code
+     * datadog.dogstatsd.client.metrics_throttled} telemetry metric.
+     */
+    public int aspectRateLimit = NonBlockingStatsDClient.DEFAULT_ASPECT_RATE_LIMIT;
+
+    /** Number of aspects whose rate is tracked at once by the {@link #aspectRateLimit}. */
+    public int aspectRateLimitCacheSize =
+            NonBlockingStatsDClient.DEFAULT_ASPECT_RATE_LIMIT_CACHE_SIZE;
+
+    /**
+     * Number of contexts, i.e. aspect and tags, reported as the heaviest ones, 0 to disable the
+     * tracking.
+     *
+     * <p>Processors rank the contexts by number of messages and by serialized bytes over each
+     * telemetry flush interval, and estimate the number of distinct contexts. The rankings are
+     * reported by {@link NonBlockingStatsDClient#snapshot()}, and by the {@code
+     * datadog.dogstatsd.client.top_context_messages}, {@code
+     * datadog.dogstatsd.client.top_context_bytes} and {@code
+     * datadog.dogstatsd.client.distinct_contexts} telemetry metrics, tagged with the aspect only.
+     */
+    public int heavyHitters = NonBlockingStatsDClient.DEFAULT_HEAVY_HITTERS;
+
+    /**
+     * Rules dropping, renaming or bucketing the tags of the metrics, applied in order to each tag
+     * before aggregation, see {@link TagRule}.
+     *
+     * <p>Rules only apply to the tags passed with the metrics, not to the constant tags. Events and
+     * service checks are left untouched.
+     */
+    public List<TagRule> tagRules;
+
+    /** Number of aspects whose matching {@link #tagRules} are cached. */
+    public int tagRulesCacheSize = NonBlockingStatsDClient.DEFAULT_TAG_RULES_CACHE_SIZE;
+
+    /**
+     * Number of aspects whose distinct contexts, i.e. tags, are estimated at once, 0 to disable the
+     * estimation.
+     *
+     * <p>Processors estimate the contexts of each aspect over each telemetry flush interval, before
+     * aggregation. The estimates are reported by {@link NonBlockingStatsDClient#snapshot()}, and
+     * for the aspects with the most contexts by the {@code
+     * datadog.dogstatsd.client.aspect_contexts} telemetry metric. Aspects beyond this number are
+     * only tracked once a tracked aspect stays idle over a whole interval.
+     */
+    public int cardinalityAspects = NonBlockingStatsDClient.DEFAULT_CARDINALITY_ASPECTS;
+
+    /**
+     * Number of distinct contexts of an aspect over a telemetry flush interval past which the error
+     * handler receives a {@link CardinalityExceededException}, 0 for no alerts. Requires {@link
+     * #cardinalityAspects}.
+     */
+    public int cardinalityThreshold = NonBlockingStatsDClient.DEFAULT_CARDINALITY_THRESHOLD;
+
+    /**
+     * Number of aggregation flush intervals after which an unchanged gauge is emitted again, 0 to
+     * emit every aggregated gauge at each flush.
+     *
+     * <p>When set, an aggregated gauge whose value is the one flushed last for its context is
+     * suppressed, until this many flush intervals elapsed since it was last emitted, so that the
+     * Agent keeps seeing slow-moving gauges without them going stale. Explicit flushes, see {@link
+     * NonBlockingStatsDClient#flush()}, do not bring the next emission closer. Suppressed gauges
+     * are counted by the {@code datadog.dogstatsd.client.gauges_suppressed} telemetry metric.
+     * Requires aggregation, and does not apply to the gauges registered with {@link
+     * StatsDClient#registerGauge}.
+     */
+    public int gaugeDeduplication = NonBlockingStatsDClient.DEFAULT_GAUGE_DEDUPLICATION;
+
+    /**
+     * Run the client on virtual threads, when the JVM supports them (Java 21 and later).
+     *
+     * <p>Processor and sender workers are created as virtual threads unless a {@link
+     * #threadFactory} is set, idle processors block on their queue instead of polling it, the
+     * aggregator and telemetry flushes share a single scheduler thread instead of a timer thread
+     * each, and the aggregator shards are guarded by j.u.c locks rather than monitors. On older
+     * JVMs the same pipeline runs on platform threads.
+     */
+    public boolean virtualThreads = NonBlockingStatsDClient.DEFAULT_VIRTUAL_THREADS;
+
+    /**
+     * Run the client without background threads, for serverless functions and batch jobs.
+     *
+     * <p>Messages are aggregated and serialized on the calling thread, and full packets are written
+     * to the transport right away. Partially filled packets, pending aggregates and telemetry are
+     * only written by {@link NonBlockingStatsDClient#flush()}, which must be called before the
+     * process is frozen or exits. Worker counts, the queue size and the blocking mode do not apply
+     * to synchronous clients.
+     */
+    public boolean synchronous = NonBlockingStatsDClient.DEFAULT_SYNCHRONOUS;
+
+    /**
+     * Priority of the messages whose aspect starts with each prefix, the longest matching prefix
+     * wins. Aspects are matched before the client {@link #prefix} is prepended, other messages have
+     * the {@link #priority} of the client.
+     *
+     * <p>Each priority has its own bounded queue, so that a flood of low priority messages can not
+     * push out high priority ones. Priorities only apply to the default non-blocking mode, see
+     * {@link MessagePriority}.
+     */
+    public Map<String, MessagePriority> priorities;
+
+    /**
+     * Priority of the messages of the client that do not match any of the {@link #priorities}
+     * rules, including events and service checks. Clients attached to a shared {@link #runtime} can
+     * each have their own priority.
+     */
+    public MessagePriority priority = NonBlockingStatsDClient.DEFAULT_PRIORITY;
+
+    // queue per priority even without priority rules, for runtimes whose clients may have some.
+    boolean priorityLanes;
+
+    /**
+     * Shared pipeline the client sends its messages through, null for the client to create its own.
+     * When set, only the prefix, constant tags, entity ID, origin detection, priority and error
+     * handler settings of this builder apply to the client.
+     */
+    public StatsDRuntime runtime;
+
     /**
      * Enable/disable the client origin detection.
      *
@@ -88,6 +293,23 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
     /** Yields the IP address and socket of the StatsD telemetry server destination. */
     public Callable<SocketAddress> telemetryAddressLookup;
 
+    /**
+     * Additional destinations metrics are distributed to, along with the main address.
+     *
+     * <p>Each destination gets its own processor, sender and buffers. Metrics are routed by
+     * consistent hashing of their name and tags, so that a given context is always aggregated and
+     * sent by the same destination. A destination failing {@link #shardFailureThreshold} writes in
+     * a row is skipped for {@link #shardRetryInterval} milliseconds, its metrics being routed to
+     * the other destinations meanwhile.
+     */
+    public List<Callable<SocketAddress>> shardAddressLookups;
+
+    /** Number of consecutive write failures after which a destination is skipped. */
+    public int shardFailureThreshold = NonBlockingStatsDClient.DEFAULT_SHARD_FAILURE_THRESHOLD;
+
+    /** How long a failing destination is skipped, in milliseconds. */
+    public int shardRetryInterval = NonBlockingStatsDClient.DEFAULT_SHARD_RETRY_INTERVAL_MS;
+
     public String hostname;
     public String telemetryHostname;
     public String namedPipe;
@@ -233,6 +455,49 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Additional destinations metrics are distributed to, along with the main address.
+     *
+     * <p>Each destination gets its own processor, sender and buffers. Metrics are routed by
+     * consistent hashing of their name and tags, so that a given context is always aggregated and
+     * sent by the same destination. A destination failing {@link #shardFailureThreshold} writes in
+     * a row is skipped for {@link #shardRetryInterval} milliseconds, its metrics being routed to
+     * the other destinations meanwhile.
+     */
+    public NonBlockingStatsDClientBuilder shardAddressLookups(List<Callable<SocketAddress>> val) {
+        shardAddressLookups = val;
+        return this;
+    }
+
+    /**
+     * Addresses of additional destinations metrics are distributed to, along with the main address.
+     *
+     * <p>Each destination gets its own processor, sender and buffers. Metrics are routed by
+     * consistent hashing of their name and tags, so that a given context is always aggregated and
+     * sent by the same destination. A destination failing {@link #shardFailureThreshold} writes in
+     * a row is skipped for {@link #shardRetryInterval} milliseconds, its metrics being routed to
+     * the other destinations meanwhile.
+     */
+    public NonBlockingStatsDClientBuilder shardAddresses(String... addresses) {
+        shardAddressLookups = new ArrayList<>();
+        for (String address : addresses) {
+            shardAddressLookups.add(getAddressLookupFromUrl(address));
+        }
+        return this;
+    }
+
+    /** Number of consecutive write failures after which a destination is skipped. */
+    public NonBlockingStatsDClientBuilder shardFailureThreshold(int val) {
+        shardFailureThreshold = val;
+        return this;
+    }
+
+    /** How long a failing destination is skipped, in milliseconds. */
+    public NonBlockingStatsDClientBuilder shardRetryInterval(int val) {
+        shardRetryInterval = val;
+        return this;
+    }
+
     /** The prefix to apply to keys sent via this client. */
     public NonBlockingStatsDClientBuilder prefix(String val) {
         prefix = val;
@@ -290,6 +555,277 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Enable packet size discovery. Applies to UDP and unix datagram sockets only.
+     *
+     * <p>When enabled, the client starts sending packets of up to {@link #maxPacketSizeBytes} bytes
+     * (or the transport default), halves the packet size whenever the transport rejects a packet as
+     * too large, and periodically tries to grow it back. Rejected packets are re-sent in smaller
+     * pieces, and messages larger than the current packet size in a packet of their own. The Agent
+     * truncates packets larger than its {@code dogstatsd_buffer_size}, so {@link
+     * #maxPacketSizeBytes} must not be set above it.
+     */
+    public NonBlockingStatsDClientBuilder adaptivePacketSize(boolean val) {
+        adaptivePacketSize = val;
+        return this;
+    }
+
+    /** Interval between attempts to grow the discovered packet size, in milliseconds. */
+    public NonBlockingStatsDClientBuilder packetSizeProbeInterval(int val) {
+        packetSizeProbeInterval = val;
+        return this;
+    }
+
+    /**
+     * Maximum number of bytes per second the sender writes to the socket. 0 disables the limit.
+     *
+     * <p>Buffers exceeding the rate wait in the outbound queue instead of overflowing the socket
+     * buffer of the Agent.
+     */
+    public NonBlockingStatsDClientBuilder senderBytesPerSecond(int val) {
+        senderBytesPerSecond = val;
+        return this;
+    }
+
+    /**
+     * Maximum number of packets per second the sender writes to the socket. 0 disables the limit.
+     */
+    public NonBlockingStatsDClientBuilder senderPacketsPerSecond(int val) {
+        senderPacketsPerSecond = val;
+        return this;
+    }
+
+    /**
+     * Burst size of the sender rate limits, as the number of milliseconds worth of the configured
+     * rates that can be written at once.
+     */
+    public NonBlockingStatsDClientBuilder senderBurstInterval(int val) {
+        senderBurstInterval = val;
+        return this;
+    }
+
+    /**
+     * Path of a file used to keep packets that could not be sent, null to drop them.
+     *
+     * <p>When set, packets the sender fails to write are kept in a memory-mapped ring file of
+     * {@link #spillFileSize} bytes, and replayed at up to {@link #spillReplayRate} packets per
+     * second once writes succeed again. Packets older than {@link #spillMaxAge} are dropped. The
+     * file is truncated when the client starts.
+     */
+    public NonBlockingStatsDClientBuilder spillFile(String val) {
+        spillFile = val;
+        return this;
+    }
+
+    /** Size of the spill file, in bytes. */
+    public NonBlockingStatsDClientBuilder spillFileSize(int val) {
+        spillFileSize = val;
+        return this;
+    }
+
+    /** Maximum age of a spilled packet, in milliseconds. */
+    public NonBlockingStatsDClientBuilder spillMaxAge(int val) {
+        spillMaxAge = val;
+        return this;
+    }
+
+    /** Maximum number of spilled packets replayed per second. */
+    public NonBlockingStatsDClientBuilder spillReplayRate(int val) {
+        spillReplayRate = val;
+        return this;
+    }
+
+    /**
+     * Share of the messages, between 0 and 1, whose latency through the client is measured.
+     *
+     * <p>Sampled messages are timed from the moment they are sent to the moment they are picked up
+     * by a processor, handed to the sender, and written to the transport. The quantiles of these
+     * durations are reported by the {@code datadog.dogstatsd.client.latency_us} telemetry metric. 0
+     * disables the measurement.
+     */
+    public NonBlockingStatsDClientBuilder latencySampleRate(double val) {
+        latencySampleRate = val;
+        return this;
+    }
+
+    /**
+     * Lower the sample rate of histograms, distributions and timings when the client gets
+     * overloaded, before messages are dropped.
+     *
+     * <p>The shedding rate is halved whenever the processor queue or the buffer pool are more than
+     * 80% full, or messages were dropped, and raised back once they are less than half full. The
+     * messages are sampled at the shedding rate on top of their own sample rate, and annotated with
+     * the combined rate. The number of messages shed is reported by the {@code
+     * datadog.dogstatsd.client.metrics_shed} telemetry metric.
+     */
+    public NonBlockingStatsDClientBuilder loadShedding(boolean val) {
+        loadShedding = val;
+        return this;
+    }
+
+    /** Lowest shedding rate the load shedding lowers sample rates to, between 0 and 1. */
+    public NonBlockingStatsDClientBuilder loadSheddingMinRate(double val) {
+        loadSheddingMinRate = val;
+        return this;
+    }
+
+    /**
+     * Maximum number of messages per second for each aspect, 0 for no limit.
+     *
+     * <p>Messages of an aspect exceeding the limit are sampled down to it, and annotated with the
+     * sample rate. Messages aggregated by the client are not limited, as the aggregation already
+     * merges them. The number of messages throttled is reported by the {@code
+     * datadog.dogstatsd.client.metrics_throttled} telemetry metric.
+     */
+    public NonBlockingStatsDClientBuilder aspectRateLimit(int val) {
+        aspectRateLimit = val;
+        return this;
+    }
+
+    /** Number of aspects whose rate is tracked at once by the {@link #aspectRateLimit}. */
+    public NonBlockingStatsDClientBuilder aspectRateLimitCacheSize(int val) {
+        aspectRateLimitCacheSize = val;
+        return this;
+    }
+
+    /**
+     * Number of contexts, i.e. aspect and tags, reported as the heaviest ones, 0 to disable the
+     * tracking.
+     *
+     * <p>Processors rank the contexts by number of messages and by serialized bytes over each
+     * telemetry flush interval, and estimate the number of distinct contexts. The rankings are
+     * reported by {@link NonBlockingStatsDClient#snapshot()}, and by the {@code
+     * datadog.dogstatsd.client.top_context_messages}, {@code
+     * datadog.dogstatsd.client.top_context_bytes} and {@code
+     * datadog.dogstatsd.client.distinct_contexts} telemetry metrics, tagged with the aspect only.
+     */
+    public NonBlockingStatsDClientBuilder heavyHitters(int val) {
+        heavyHitters = val;
+        return this;
+    }
+
+    /**
+     * Rules dropping, renaming or bucketing the tags of the metrics, applied in order to each tag
+     * before aggregation, see {@link TagRule}.
+     *
+     * <p>Rules only apply to the tags passed with the metrics, not to the constant tags. Events and
+     * service checks are left untouched.
+     */
+    public NonBlockingStatsDClientBuilder tagRules(TagRule... val) {
+        tagRules = Arrays.asList(val);
+        return this;
+    }
+
+    /** Number of aspects whose matching {@link #tagRules} are cached. */
+    public NonBlockingStatsDClientBuilder tagRulesCacheSize(int val) {
+        tagRulesCacheSize = val;
+        return this;
+    }
+
+    /**
+     * Number of aspects whose distinct contexts, i.e. tags, are estimated at once, 0 to disable the
+     * estimation.
+     *
+     * <p>Processors estimate the contexts of each aspect over each telemetry flush interval, before
+     * aggregation. The estimates are reported by {@link NonBlockingStatsDClient#snapshot()}, and
+     * for the aspects with the most contexts by the {@code
+     * datadog.dogstatsd.client.aspect_contexts} telemetry metric. Aspects beyond this number are
+     * only tracked once a tracked aspect stays idle over a whole interval.
+     */
+    public NonBlockingStatsDClientBuilder cardinalityAspects(int val) {
+        cardinalityAspects = val;
+        return this;
+    }
+
+    /**
+     * Number of distinct contexts of an aspect over a telemetry flush interval past which the error
+     * handler receives a {@link CardinalityExceededException}, 0 for no alerts. Requires {@link
+     * #cardinalityAspects}.
+     */
+    public NonBlockingStatsDClientBuilder cardinalityThreshold(int val) {
+        cardinalityThreshold = val;
+        return this;
+    }
+
+    /**
+     * Number of aggregation flush intervals after which an unchanged gauge is emitted again, 0 to
+     * emit every aggregated gauge at each flush.
+     *
+     * <p>When set, an aggregated gauge whose value is the one flushed last for its context is
+     * suppressed, until this many flush intervals elapsed since it was last emitted, so that the
+     * Agent keeps seeing slow-moving gauges without them going stale. Explicit flushes, see {@link
+     * NonBlockingStatsDClient#flush()}, do not bring the next emission closer. Suppressed gauges
+     * are counted by the {@code datadog.dogstatsd.client.gauges_suppressed} telemetry metric.
+     * Requires aggregation, and does not apply to the gauges registered with {@link
+     * StatsDClient#registerGauge}.
+     */
+    public NonBlockingStatsDClientBuilder gaugeDeduplication(int val) {
+        gaugeDeduplication = val;
+        return this;
+    }
+
+    /**
+     * Run the client on virtual threads, when the JVM supports them (Java 21 and later).
+     *
+     * <p>Processor and sender workers are created as virtual threads unless a {@link
+     * #threadFactory} is set, idle processors block on their queue instead of polling it, the
+     * aggregator and telemetry flushes share a single scheduler thread instead of a timer thread
+     * each, and the aggregator shards are guarded by j.u.c locks rather than monitors. On older
+     * JVMs the same pipeline runs on platform threads.
+     */
+    public NonBlockingStatsDClientBuilder virtualThreads(boolean val) {
+        virtualThreads = val;
+        return this;
+    }
+
+    /**
+     * Run the client without background threads, for serverless functions and batch jobs.
+     *
+     * <p>Messages are aggregated and serialized on the calling thread, and full packets are written
+     * to the transport right away. Partially filled packets, pending aggregates and telemetry are
+     * only written by {@link NonBlockingStatsDClient#flush()}, which must be called before the
+     * process is frozen or exits. Worker counts, the queue size and the blocking mode do not apply
+     * to synchronous clients.
+     */
+    public NonBlockingStatsDClientBuilder synchronous(boolean val) {
+        synchronous = val;
+        return this;
+    }
+
+    /**
+     * Priority of the messages whose aspect starts with each prefix, the longest matching prefix
+     * wins. Aspects are matched before the client {@link #prefix} is prepended, other messages have
+     * the {@link #priority} of the client.
+     *
+     * <p>Each priority has its own bounded queue, so that a flood of low priority messages can not
+     * push out high priority ones. Priorities only apply to the default non-blocking mode, see
+     * {@link MessagePriority}.
+     */
+    public NonBlockingStatsDClientBuilder priorities(Map<String, MessagePriority> val) {
+        priorities = val;
+        return this;
+    }
+
+    /**
+     * Priority of the messages of the client that do not match any of the {@link #priorities}
+     * rules, including events and service checks. Clients attached to a shared {@link #runtime} can
+     * each have their own priority.
+     */
+    public NonBlockingStatsDClientBuilder priority(MessagePriority val) {
+        priority = val;
+        return this;
+    }
+
+    /**
+     * Shared pipeline the client sends its messages through, null for the client to create its own.
+     * When set, only the prefix, constant tags, entity ID, origin detection, priority and error
+     * handler settings of this builder apply to the client.
+     */
+    public NonBlockingStatsDClientBuilder runtime(StatsDRuntime val) {
+        runtime = val;
+        return this;
+    }
+
     public NonBlockingStatsDClientBuilder threadFactory(ThreadFactory val) {
         threadFactory = val;
         return this;
@@ -362,6 +898,26 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
         return new NonBlockingStatsDClient(resolve());
     }
 
+    /**
+     * {@link StatsDRuntime} factory method.
+     *
+     * <p>The runtime is configured by this builder, except for its {@link #runtime} setting.
+     * Clients attach to it with {@link #runtime(StatsDRuntime)}.
+     *
+     * @return the built StatsDRuntime.
+     */
+    public StatsDRuntime buildRuntime() throws StatsDClientException {
+        NonBlockingStatsDClientBuilder owner;
+        try {
+            owner = (NonBlockingStatsDClientBuilder) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new UnsupportedOperationException("clone");
+        }
+        owner.runtime = null;
+        owner.priorityLanes = true;
+        return new StatsDRuntime(owner.resolve());
+    }
+
     /**
      * {@link DirectStatsDClient} factory method.
      *
@@ -389,19 +945,22 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
             throw new UnsupportedOperationException("clone");
         }
 
-        Callable<SocketAddress> lookup = getAddressLookup();
+        // clients attached to a runtime do not have an address of their own.
+        if (runtime == null) {
+            Callable<SocketAddress> lookup = getAddressLookup();
 
-        Callable<SocketAddress> telemetryLookup = telemetryAddressLookup;
-        if (telemetryLookup == null) {
-            if (telemetryHostname == null) {
-                telemetryLookup = lookup;
-            } else {
-                telemetryLookup = staticAddress(telemetryHostname, telemetryPort);
+            Callable<SocketAddress> telemetryLookup = telemetryAddressLookup;
+            if (telemetryLookup == null) {
+                if (telemetryHostname == null) {
+                    telemetryLookup = lookup;
+                } else {
+                    telemetryLookup = staticAddress(telemetryHostname, telemetryPort);
+                }
             }
-        }
 
-        resolved.addressLookup = lookup;
-        resolved.telemetryAddressLookup = telemetryLookup;
+            resolved.addressLookup = lookup;
+            resolved.telemetryAddressLookup = telemetryLookup;
+        }
 
         resolved.tagsCardinality = this.tagsCardinality;
         if (resolved.tagsCardinality == null) {
@@ -453,6 +1012,13 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
             return staticNamedPipeResolution(url);
         }
 
+        // "mem://" has no authority nor path, which URI does not accept.
+        if (url.startsWith("mem:")) {
+            String ring = getQueryParameter(url, "ring");
+            return staticAddress(
+                    new MemorySocketAddress(ring == null ? 0 : Integer.parseInt(ring)));
+        }
+
         URI parsed;
         try {
             parsed = new URI(url);
@@ -460,6 +1026,16 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
             return null;
         }
 
+        if (parsed.getScheme().equals("file")) {
+            String segment = getQueryParameter(url, "segment");
+            return staticAddress(
+                    new FileSocketAddress(
+                            Paths.get(parsed.getPath()),
+                            segment == null
+                                    ? NonBlockingStatsDClient.DEFAULT_FILE_SEGMENT_SIZE_BYTES
+                                    : Integer.parseInt(segment)));
+        }
+
         if (parsed.getScheme().equals("udp")) {
             String uriHost = parsed.getHost();
             int uriPort = parsed.getPort();
@@ -479,6 +1055,19 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
         return null;
     }
 
+    private static String getQueryParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String param : url.substring(query + 1).split("&")) {
+            if (param.startsWith(name + "=")) {
+                return param.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
     /**
      * Create dynamic lookup for the given host name and port.
      *
@@ -555,6 +1144,15 @@ public class NonBlockingStatsDClientBuilder implements Cloneable {
         }
     }
 
+    private static Callable<SocketAddress> staticAddress(final SocketAddress address) {
+        return new Callable<SocketAddress>() {
+            @Override
+            public SocketAddress call() {
+                return address;
+            }
+        };
+    }
+
     /**
      * Retrieves host name from the environment variable "DD_AGENT_HOST".
      *
@@ -0,0 +1,24 @@
+package com.timgroup.statsd;
+
+/**
+ * Hooks for JVM features newer than the Java 7 baseline, replaced by the versioned layers of the
+ * multi-release jar.
+ *
+ * <p>Values are returned by methods rather than held in constants, so that they are not inlined in
+ * the classes compiled against this implementation.
+ */
+final class Platform {
+    private Platform() {}
+
+    /**
+     * Return how many times an idle worker polls its queue with a spin-wait hint, before sleeping.
+     *
+     * @return 0, there is no spin-wait hint before Java 9.
+     */
+    static int spinTries() {
+        return 0;
+    }
+
+    /** Hint that the caller is busy-waiting. */
+    static void onSpinWait() {}
+}
@@ -0,0 +1,79 @@
+package com.timgroup.statsd;
+
+/**
+ * Tags added to every message sent by the current thread while a scope is open, like the tenant or
+ * region of a request.
+ *
+ * <p>The tags of a scope are rendered once, when it is opened, and messages only capture a
+ * reference to the rendered fragment, which is written after the constant tags of the client.
+ * Scopes nest: an inner scope adds its tags to the ones of the enclosing scope. Messages with
+ * different scoped tags are aggregated separately.
+ *
+ * <pre>
+ * try (ScopedTags.Scope scope = ScopedTags.open("tenant:" + tenant, "region:" + region)) {
+ *     handle(request);
+ * }
+ * </pre>
+ *
+ * <p>Scopes are bound to the thread that opened them, and must be closed by it, in reverse order.
+ * Work handed to other threads does not inherit them.
+ */
+public final class ScopedTags {
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+    // avoids the thread local lookup of each message until a scope is opened.
+    private static volatile boolean used;
+
+    private ScopedTags() {}
+
+    /** An open scope, which restores the enclosing one when closed. */
+    public static final class Scope implements AutoCloseable {
+        private final String previous;
+
+        private Scope(final String previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Open a scope adding tags to the messages of the current thread.
+     *
+     * @param tags the tags of the scope
+     * @return the scope, to close once the tags no longer apply
+     */
+    public static Scope open(final String... tags) {
+        final String previous = CURRENT.get();
+        final StringBuilder rendered = new StringBuilder();
+        if (previous != null) {
+            rendered.append(previous);
+        }
+        for (final String tag : tags) {
+            if (rendered.length() > 0) {
+                rendered.append(',');
+            }
+            rendered.append(tag);
+        }
+        if (rendered.length() > 0) {
+            used = true;
+            CURRENT.set(rendered.toString());
+        }
+        return new Scope(previous);
+    }
+
+    /**
+     * Return the tags of the current thread.
+     *
+     * @return the rendered tags, comma separated, or null outside of any scope.
+     */
+    static String current() {
+        return used ? CURRENT.get() : null;
+    }
+}
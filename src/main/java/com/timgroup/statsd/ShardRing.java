@@ -0,0 +1,220 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Consistent hash ring routing metric contexts to destinations (shards).
+ *
+ * <p>Each shard owns {@link #VIRTUAL_NODES} points of the ring, and a context, i.e. the aspect and
+ * tags of a metric, is routed to the owner of the first point following its hash. A context
+ * therefore always goes to the same shard, so that it is aggregated in a single place, and only the
+ * contexts of a shard move when that shard is added, removed or failing.
+ *
+ * <p>A shard is considered failing after {@code failureThreshold} consecutive write failures: its
+ * contexts are routed to the next healthy shard on the ring for {@code retryInterval} milliseconds,
+ * after which traffic is sent to it again. The health of the shards is cached between those
+ * transitions, so that routing a context does not read the state of every shard.
+ */
+final class ShardRing {
+    static final int VIRTUAL_NODES = 160;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int shards;
+    private final long[] points;
+    private final int[] owners;
+    private final int failureThreshold;
+    private final long retryIntervalNanos;
+    private final AtomicIntegerArray failures;
+    private final AtomicLongArray retryAt;
+    // bumped whenever a shard becomes failing, or healthy before its retry time.
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Health health;
+
+    /** Health of the shards at a given generation, valid until the first retry time. */
+    private static final class Health {
+        final int generation;
+        // null when all the shards are healthy.
+        final boolean[] healthy;
+        final boolean any;
+        final long expiresAt;
+
+        Health(
+                final int generation,
+                final boolean[] healthy,
+                final boolean any,
+                final long expiresAt) {
+            this.generation = generation;
+            this.healthy = healthy;
+            this.any = any;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * ShardRing constructor.
+     *
+     * @param shards number of shards.
+     * @param failureThreshold number of consecutive failures after which a shard is skipped.
+     * @param retryInterval how long a failing shard is skipped, in milliseconds.
+     */
+    ShardRing(final int shards, final int failureThreshold, final long retryInterval) {
+        this.shards = shards;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryInterval);
+        this.failures = new AtomicIntegerArray(shards);
+        this.retryAt = new AtomicLongArray(shards);
+
+        final long[] hashes = new long[shards * VIRTUAL_NODES];
+        final int[] hashOwners = new int[hashes.length];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                final int idx = shard * VIRTUAL_NODES + node;
+                hashes[idx] = mix(hash(FNV_OFFSET_BASIS, "shard-" + shard + "-" + node));
+                hashOwners[idx] = shard;
+            }
+        }
+
+        // sort the points, keeping track of their owner.
+        final Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(
+                order,
+                new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Long.compare(hashes[a], hashes[b]);
+                    }
+                });
+        points = new long[hashes.length];
+        owners = new int[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = hashOwners[order[i]];
+        }
+        health = new Health(0, null, true, 0);
+    }
+
+    int size() {
+        return shards;
+    }
+
+    /**
+     * Select the shard of a context.
+     *
+     * @param aspect the metric name.
+     * @param tags the metric tags, may be null.
+     * @return the index of the first healthy shard following the context on the ring, or of the
+     *     shard owning the context if no shard is healthy.
+     */
+    int select(final String aspect, final String[] tags) {
+        long hash = hash(FNV_OFFSET_BASIS, aspect);
+        if (tags != null) {
+            for (final String tag : tags) {
+                hash = hash(hash(hash, "|"), tag);
+            }
+        }
+        hash = mix(hash);
+
+        int idx = Arrays.binarySearch(points, hash);
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        if (idx == points.length) {
+            idx = 0;
+        }
+
+        Health health = this.health;
+        if (health.generation != generation.get()
+                || (health.healthy != null && System.nanoTime() - health.expiresAt >= 0)) {
+            health = refreshHealth();
+        }
+        if (health.healthy == null || !health.any) {
+            return owners[idx];
+        }
+        for (int i = 0; i < points.length; i++) {
+            final int shard = owners[(idx + i) % points.length];
+            if (health.healthy[shard]) {
+                return shard;
+            }
+        }
+        return owners[idx];
+    }
+
+    private Health refreshHealth() {
+        // read the generation first, a transition racing with the refresh triggers another one.
+        final int current = generation.get();
+        final long now = System.nanoTime();
+        final boolean[] healthy = new boolean[shards];
+        boolean all = true;
+        boolean any = false;
+        long expiresAt = now + retryIntervalNanos;
+        for (int shard = 0; shard < shards; shard++) {
+            healthy[shard] = isHealthy(shard, now);
+            if (healthy[shard]) {
+                any = true;
+            } else {
+                all = false;
+                final long retry = retryAt.get(shard);
+                if (retry - expiresAt < 0) {
+                    expiresAt = retry;
+                }
+            }
+        }
+        final Health health = new Health(current, all ? null : healthy, any, expiresAt);
+        this.health = health;
+        return health;
+    }
+
+    boolean isHealthy(final int shard) {
+        return isHealthy(shard, System.nanoTime());
+    }
+
+    private boolean isHealthy(final int shard, final long now) {
+        return failures.get(shard) < failureThreshold || now - retryAt.get(shard) >= 0;
+    }
+
+    /** Record a successful write to a shard. */
+    void onSuccess(final int shard) {
+        if (failures.get(shard) != 0 && failures.getAndSet(shard, 0) >= failureThreshold) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /** Record a failed write to a shard, skipping it for a while once it fails repeatedly. */
+    void onFailure(final int shard) {
+        final long now = System.nanoTime();
+        final boolean healthy = isHealthy(shard, now);
+        if (failures.incrementAndGet(shard) >= failureThreshold && healthy) {
+            retryAt.set(shard, now + retryIntervalNanos);
+            generation.incrementAndGet();
+        }
+    }
+
+    // FNV-1a over the UTF-16 chars of the value, avoids encoding it on the hot path.
+    private static long hash(long hash, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // finalizer of MurmurHash3, spreads FNV hashes over the whole ring.
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
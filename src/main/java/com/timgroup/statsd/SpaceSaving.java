@@ -0,0 +1,118 @@
+package com.timgroup.statsd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the heaviest keys of a stream with a fixed number of counters, using the Space-Saving
+ * algorithm.
+ *
+ * <p>A key that is not tracked takes over the counter with the lowest count once all the counters
+ * are in use, and inherits that count as its error. A key whose weight exceeds the total weight
+ * divided by the number of counters is always tracked, and the count of every tracked key
+ * overestimates its weight by at most its error.
+ *
+ * <p>Not thread-safe.
+ *
+ * @param <K> the type of the keys, which must implement hashCode and equals.
+ */
+final class SpaceSaving<K> {
+
+    static final class Counter<K> {
+        final K key;
+        long count;
+        long error;
+
+        Counter(final K key, final long count, final long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private static final Comparator<Counter<?>> HEAVIEST_FIRST =
+            new Comparator<Counter<?>>() {
+                @Override
+                public int compare(final Counter<?> a, final Counter<?> b) {
+                    return Long.compare(b.count, a.count);
+                }
+            };
+
+    private final int capacity;
+    private final Map<K, Counter<K>> counters;
+
+    /**
+     * SpaceSaving constructor.
+     *
+     * @param capacity number of keys tracked at once.
+     */
+    SpaceSaving(final int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>(this.capacity * 2);
+    }
+
+    /**
+     * Count a key.
+     *
+     * @param key the key.
+     * @param weight the weight to add to its count.
+     */
+    void add(final K key, final long weight) {
+        add(key, weight, 0);
+    }
+
+    /**
+     * Add the counters of another sketch, their errors adding up to the errors of this one.
+     *
+     * @param other the sketch, left unchanged.
+     */
+    void merge(final SpaceSaving<K> other) {
+        for (final Counter<K> counter : other.counters.values()) {
+            add(counter.key, counter.count, counter.error);
+        }
+    }
+
+    private void add(final K key, final long weight, final long error) {
+        final Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            counter.count += weight;
+            counter.error += error;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter<>(key, weight, error));
+            return;
+        }
+        // only a miss with all the counters in use pays for the scan, which is bounded by the
+        // capacity.
+        Counter<K> min = null;
+        for (final Counter<K> candidate : counters.values()) {
+            if (min == null || candidate.count < min.count) {
+                min = candidate;
+            }
+        }
+        counters.remove(min.key);
+        counters.put(key, new Counter<>(key, min.count + weight, min.count + error));
+    }
+
+    /**
+     * Return the heaviest keys.
+     *
+     * @param limit maximum number of keys returned.
+     * @return the counters of the heaviest keys, heaviest first.
+     */
+    List<Counter<K>> top(final int limit) {
+        final List<Counter<K>> top = new ArrayList<>(counters.values());
+        Collections.sort(top, HEAVIEST_FIRST);
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    /** Forget all the keys. */
+    void clear() {
+        counters.clear();
+    }
+}
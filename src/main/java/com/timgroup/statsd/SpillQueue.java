@@ -0,0 +1,194 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO of packets kept in a memory-mapped ring file.
+ *
+ * <p>The sender spills the packets it fails to write here, and replays them once writes succeed
+ * again. Each record holds the packet and the time it was spilled: records older than the maximum
+ * age are discarded when read, and the oldest records are discarded when a new packet does not fit.
+ * The content of the file does not survive the client, it is truncated when the queue is created.
+ *
+ * <p>Record layout: {@code int length, long timestamp (ms), byte[length] packet}. A record never
+ * wraps around the end of the file; a negative length marks the rest of the file as unused.
+ */
+final class SpillQueue {
+    private static final int HEADER_SIZE = (Integer.SIZE + Long.SIZE) / Byte.SIZE;
+    private static final int WRAP_MARKER = -1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer ring;
+    private final int capacity;
+    private final long maxAge;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int head; // offset of the oldest record
+    private int tail; // offset the next record is written to
+    private int used; // bytes between head and tail, including skipped space at the end
+    private int count; // number of records
+
+    /**
+     * SpillQueue constructor.
+     *
+     * @param path location of the ring file, created if needed.
+     * @param capacity size of the ring file, in bytes.
+     * @param maxAge maximum age of a spilled packet, in milliseconds.
+     * @throws IOException if the file can not be created or mapped.
+     */
+    SpillQueue(final Path path, final int capacity, final long maxAge) throws IOException {
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        this.channel =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return count == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a packet to the queue, discarding the oldest packets to make room if needed.
+     *
+     * @param packet the packet, between its position and limit. The position is not modified.
+     * @param telemetry telemetry to report discarded packets to, may be null.
+     * @return false if the packet is larger than the queue and was not spilled.
+     */
+    boolean offer(final ByteBuffer packet, final Telemetry telemetry) {
+        lock.lock();
+        try {
+            final int length = packet.remaining();
+            final int size = HEADER_SIZE + length;
+            if (size > capacity) {
+                return false;
+            }
+
+            // Records are contiguous: skip the end of the file if the record does not fit there.
+            int offset = tail;
+            int skipped = 0;
+            if (capacity - offset < size) {
+                skipped = capacity - offset;
+                offset = 0;
+            }
+            while (count > 0 && used + skipped + size > capacity) {
+                discardHead(telemetry);
+            }
+            if (count == 0) {
+                head = tail = offset = 0;
+                used = skipped = 0;
+            }
+            if (skipped > 0) {
+                if (skipped >= Integer.SIZE / Byte.SIZE) {
+                    ring.putInt(tail, WRAP_MARKER);
+                }
+                used += skipped;
+            }
+
+            ring.putInt(offset, length);
+            ring.putLong(offset + Integer.SIZE / Byte.SIZE, System.currentTimeMillis());
+            final ByteBuffer dst = ring.duplicate();
+            dst.position(offset + HEADER_SIZE);
+            dst.put(packet.duplicate());
+
+            tail = offset + size;
+            used += size;
+            count++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the oldest packet that is not expired from the queue.
+     *
+     * @param dst buffer the packet is written to, it is cleared first and left ready to be written
+     *     to a channel.
+     * @param telemetry telemetry to report discarded packets to, may be null.
+     * @return false if the queue is empty.
+     */
+    boolean poll(final ByteBuffer dst, final Telemetry telemetry) {
+        lock.lock();
+        try {
+            final long oldest = System.currentTimeMillis() - maxAge;
+            while (count > 0) {
+                skipWrapMarker();
+                final int length = ring.getInt(head);
+                final long timestamp = ring.getLong(head + Integer.SIZE / Byte.SIZE);
+                if (timestamp < oldest || length > dst.capacity()) {
+                    discardHead(telemetry);
+                    continue;
+                }
+
+                final ByteBuffer src = ring.duplicate();
+                src.position(head + HEADER_SIZE);
+                src.limit(head + HEADER_SIZE + length);
+                dst.clear();
+                dst.put(src);
+                dst.flip();
+                removeHead(HEADER_SIZE + length);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private void discardHead(final Telemetry telemetry) {
+        skipWrapMarker();
+        final int length = ring.getInt(head);
+        removeHead(HEADER_SIZE + length);
+        if (telemetry != null) {
+            telemetry.incrBytesDropped(length);
+            telemetry.incrPacketDropped(1);
+        }
+    }
+
+    private void skipWrapMarker() {
+        final int remaining = capacity - head;
+        if (remaining < HEADER_SIZE || ring.getInt(head) == WRAP_MARKER) {
+            used -= remaining;
+            head = 0;
+        }
+    }
+
+    private void removeHead(final int size) {
+        head += size;
+        used -= size;
+        count--;
+        if (count == 0) {
+            head = tail = used = 0;
+        }
+    }
+}
@@ -6,6 +6,11 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class StatsDAggregator {
     public static int DEFAULT_FLUSH_INTERVAL = 2000; // 2s
@@ -14,15 +19,54 @@ public class StatsDAggregator {
     protected final String AGGREGATOR_THREAD_NAME = "statsd-aggregator-thread";
     protected final ArrayList<Map<Message, Message>> aggregateMetrics;
 
+    /**
+     * Guards the shard of the same index in {@link #aggregateMetrics} in virtual thread mode, null
+     * otherwise. In that mode the maps are not guarded by their own monitor, which would pin the
+     * carrier thread of virtual threads, and subclasses must hold the lock to access a shard.
+     */
+    protected final ReentrantLock[] locks;
+
     protected final int shardGranularity;
     protected final long flushInterval;
 
     private final StatsDProcessor processor;
 
+    /**
+     * Flushing timer. Created by the constructor, except in virtual thread mode where {@link
+     * #start()} creates it only if the flushes do not run on a shared executor.
+     */
     protected Timer scheduler = null;
 
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> flushTask;
+
     private Telemetry telemetry;
 
+    private volatile long lastFlushNanos;
+
+    // last flushed gauge values, null unless gauge deduplication is enabled.
+    private volatile GaugeDeduplicator gaugeDeduplicator;
+
+    // gauges sampled at each flush, see NonBlockingStatsDClient#registerGauge.
+    private final CopyOnWriteArrayList<RegisteredGauge> gauges = new CopyOnWriteArrayList<>();
+
+    /**
+     * A gauge sampled when it is written. The same message is queued at each flush, unless its
+     * previous sample is still waiting for the processor.
+     */
+    abstract static class RegisteredGauge extends Message {
+        volatile boolean queued;
+
+        RegisteredGauge(
+                final String aspect, final TagsCardinality cardinality, final String[] tags) {
+            super(aspect, Message.Type.GAUGE, cardinality, tags);
+            this.done = true;
+        }
+
+        @Override
+        public final void aggregate(final Message message) {}
+    }
+
     private class FlushTask extends TimerTask {
         @Override
         public void run() {
@@ -40,33 +84,97 @@ public class StatsDAggregator {
      */
     public StatsDAggregator(
             final StatsDProcessor processor, final int shards, final long flushInterval) {
+        this(processor, shards, flushInterval, false);
+    }
+
+    /**
+     * StatsDAggregtor constructor.
+     *
+     * @param processor the message processor, aggregated messages will be queued in the high
+     *     priority queue.
+     * @param shards number of shards for the aggregation map.
+     * @param flushInterval flush interval in miliseconds, 0 disables message aggregation.
+     * @param virtualThreads guard the shards with {@link #locks} instead of the monitors of their
+     *     maps, and only create the flushing timer when it is needed.
+     */
+    StatsDAggregator(
+            final StatsDProcessor processor,
+            final int shards,
+            final long flushInterval,
+            final boolean virtualThreads) {
         this.processor = processor;
         this.flushInterval = flushInterval;
         this.shardGranularity = shards;
         this.aggregateMetrics = new ArrayList<>(shards);
+        this.locks = virtualThreads ? new ReentrantLock[shards] : null;
 
-        if (flushInterval > 0) {
+        if (flushInterval > 0 && !virtualThreads) {
             this.scheduler = new Timer(AGGREGATOR_THREAD_NAME, true);
         }
 
         for (int i = 0; i < this.shardGranularity; i++) {
             this.aggregateMetrics.add(i, new HashMap<Message, Message>());
+            if (locks != null) {
+                this.locks[i] = new ReentrantLock();
+            }
         }
     }
 
+    /**
+     * Run the flushes on an executor shared with other components, instead of a dedicated timer
+     * thread. Must be called before {@link #start()}.
+     */
+    void setExecutor(final ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Suppress the gauges whose value did not change since they were last flushed.
+     *
+     * @param heartbeat number of flush intervals after which an unchanged gauge is emitted again, 0
+     *     disables the deduplication.
+     */
+    void setGaugeDeduplication(final int heartbeat) {
+        this.gaugeDeduplicator =
+                heartbeat > 0 ? new GaugeDeduplicator(heartbeat, flushInterval) : null;
+    }
+
+    /**
+     * Set the telemetry without starting the flushing scheduler, for aggregators whose flushes are
+     * triggered explicitly.
+     */
+    void setTelemetry(final Telemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
     /** Start the aggregator flushing scheduler. */
     public void start() {
         if (flushInterval > 0) {
             // snapshot of processor telemetry - avoid volatile reference to harness CPU cache
             // caller responsible of setting telemetry before starting
             telemetry = processor.getTelemetry();
-            scheduler.scheduleAtFixedRate(new FlushTask(), flushInterval, flushInterval);
+            if (executor != null) {
+                flushTask =
+                        executor.scheduleAtFixedRate(
+                                new FlushTask(),
+                                flushInterval,
+                                flushInterval,
+                                TimeUnit.MILLISECONDS);
+            } else {
+                if (scheduler == null) {
+                    scheduler = new Timer(AGGREGATOR_THREAD_NAME, true);
+                }
+                scheduler.scheduleAtFixedRate(new FlushTask(), flushInterval, flushInterval);
+            }
         }
     }
 
     /** Stop the aggregator flushing scheduler. */
     public void stop() {
-        if (flushInterval > 0) {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        if (scheduler != null) {
             scheduler.cancel();
         }
     }
@@ -86,35 +194,71 @@ public class StatsDAggregator {
         int bucket = Math.abs(hash % this.shardGranularity);
         Map<Message, Message> map = aggregateMetrics.get(bucket);
 
-        synchronized (map) {
-            // For now let's just put the message in the map
-            Message msg = MapUtils.putIfAbsent(map, message);
-            if (msg != null) {
-                msg.aggregate(message);
-                if (telemetry != null) {
-                    telemetry.incrAggregatedContexts(1);
-
-                    // developer metrics
-                    switch (message.getType()) {
-                        case GAUGE:
-                            telemetry.incrAggregatedGaugeContexts(1);
-                            break;
-                        case COUNT:
-                            telemetry.incrAggregatedCountContexts(1);
-                            break;
-                        case SET:
-                            telemetry.incrAggregatedSetContexts(1);
-                            break;
-                        default:
-                            break;
-                    }
-                }
+        if (locks == null) {
+            synchronized (map) {
+                aggregate(map, message);
+            }
+        } else {
+            final ReentrantLock lock = locks[bucket];
+            lock.lock();
+            try {
+                aggregate(map, message);
+            } finally {
+                lock.unlock();
             }
         }
 
         return true;
     }
 
+    private void aggregate(final Map<Message, Message> map, final Message message) {
+        // For now let's just put the message in the map
+        Message msg = MapUtils.putIfAbsent(map, message);
+        if (msg != null) {
+            msg.aggregate(message);
+            if (telemetry != null) {
+                telemetry.incrAggregatedContexts(1);
+
+                // developer metrics
+                switch (message.getType()) {
+                    case GAUGE:
+                        telemetry.incrAggregatedGaugeContexts(1);
+                        break;
+                    case COUNT:
+                        telemetry.incrAggregatedCountContexts(1);
+                        break;
+                    case SET:
+                        telemetry.incrAggregatedSetContexts(1);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Register a gauge sampled at each flush, replacing the gauge of the same context.
+     *
+     * @param gauge the gauge.
+     */
+    void register(final RegisteredGauge gauge) {
+        synchronized (gauges) {
+            gauges.remove(gauge);
+            gauges.add(gauge);
+        }
+    }
+
+    /**
+     * Unregister a gauge.
+     *
+     * @param gauge a gauge of the same context.
+     * @return true if a gauge was registered.
+     */
+    boolean unregister(final RegisteredGauge gauge) {
+        return gauges.remove(gauge);
+    }
+
     public final long getFlushInterval() {
         return this.flushInterval;
     }
@@ -123,23 +267,115 @@ public class StatsDAggregator {
         return this.shardGranularity;
     }
 
+    /**
+     * Return the number of contexts currently aggregated.
+     *
+     * @return the number of contexts waiting for the next flush.
+     */
+    public int getContextCount() {
+        int count = 0;
+        for (int i = 0; i < shardGranularity; i++) {
+            Map<Message, Message> map = aggregateMetrics.get(i);
+            if (locks == null) {
+                synchronized (map) {
+                    count += map.size();
+                }
+            } else {
+                locks[i].lock();
+                try {
+                    count += map.size();
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return how long the last flush took.
+     *
+     * @return the duration of the last flush in nanoseconds, 0 before the first flush.
+     */
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
     protected void flush() {
+        final Object event = ClientEvents.beginFlush();
+        final long start = System.nanoTime();
+        // flushed contexts, and suppressed gauges.
+        final int[] counts = new int[2];
+        final GaugeDeduplicator deduplicator = gaugeDeduplicator;
+        if (deduplicator != null) {
+            deduplicator.startFlush(start);
+        }
         for (int i = 0; i < shardGranularity; i++) {
             Map<Message, Message> map = aggregateMetrics.get(i);
 
-            synchronized (map) {
-                Iterator<Map.Entry<Message, Message>> iter = map.entrySet().iterator();
-                while (iter.hasNext()) {
-                    Message msg = iter.next().getValue();
-                    msg.setDone(true);
+            if (locks == null) {
+                synchronized (map) {
+                    flushShard(map, deduplicator, counts);
+                }
+            } else {
+                locks[i].lock();
+                try {
+                    flushShard(map, deduplicator, counts);
+                } finally {
+                    locks[i].unlock();
+                }
+            }
+        }
 
-                    if (!processor.sendHighPrio(msg) && (telemetry != null)) {
-                        telemetry.incrPacketDroppedQueue(1);
-                    }
+        for (final RegisteredGauge gauge : gauges) {
+            if (gauge.queued) {
+                continue;
+            }
+            gauge.queued = true;
+            if (processor.sendHighPrio(gauge)) {
+                if (telemetry != null) {
+                    telemetry.incrMetricsSent(1, Message.Type.GAUGE);
+                }
+            } else {
+                gauge.queued = false;
+            }
+        }
+
+        if (counts[1] > 0 && telemetry != null) {
+            telemetry.incrGaugesSuppressed(counts[1]);
+        }
+
+        lastFlushNanos = System.nanoTime() - start;
+        ClientEvents.endFlush(event, counts[0]);
+    }
+
+    private void flushShard(
+            final Map<Message, Message> map,
+            final GaugeDeduplicator deduplicator,
+            final int[] counts) {
+        Iterator<Map.Entry<Message, Message>> iter = map.entrySet().iterator();
+        while (iter.hasNext()) {
+            Message msg = iter.next().getValue();
+            msg.setDone(true);
+            counts[0]++;
+
+            if (deduplicator != null
+                    && msg.getType() == Message.Type.GAUGE
+                    && msg instanceof NumericMessage
+                    && deduplicator.suppress((NumericMessage<?>) msg)) {
+                counts[1]++;
+                iter.remove();
+                continue;
+            }
 
-                    iter.remove();
+            if (!processor.sendHighPrio(msg)) {
+                if (telemetry != null) {
+                    telemetry.incrPacketDroppedQueue(1);
                 }
+                ClientEvents.queueFull(msg.getAspect());
             }
+
+            iter.remove();
         }
     }
 }
@@ -32,6 +32,29 @@ public class StatsDBlockingProcessor extends StatsDProcessor {
             final int aggregatorShards,
             final ThreadFactory threadFactory)
             throws Exception {
+        this(
+                queueSize,
+                handler,
+                maxPacketSizeBytes,
+                poolSize,
+                workers,
+                aggregatorFlushInterval,
+                aggregatorShards,
+                threadFactory,
+                false);
+    }
+
+    StatsDBlockingProcessor(
+            final int queueSize,
+            final StatsDClientErrorHandler handler,
+            final int maxPacketSizeBytes,
+            final int poolSize,
+            final int workers,
+            final int aggregatorFlushInterval,
+            final int aggregatorShards,
+            final ThreadFactory threadFactory,
+            final boolean virtualThreads)
+            throws Exception {
 
         super(
                 queueSize,
@@ -41,15 +64,27 @@ public class StatsDBlockingProcessor extends StatsDProcessor {
                 workers,
                 aggregatorFlushInterval,
                 aggregatorShards,
-                threadFactory);
+                threadFactory,
+                virtualThreads);
         this.messages = new ArrayBlockingQueue<>(queueSize);
     }
 
+    @Override
+    int queueDrainMarker(final Message marker, final long timeoutNanos)
+            throws InterruptedException {
+        return messages.offer(marker, timeoutNanos, TimeUnit.NANOSECONDS) ? 1 : -1;
+    }
+
     @Override
     protected ProcessingTask createProcessingTask() {
         return new ProcessingTask();
     }
 
+    @Override
+    int getQueueSize() {
+        return messages.size() + super.getQueueSize();
+    }
+
     @Override
     protected boolean send(final Message message) {
         try {
@@ -1,6 +1,7 @@
 package com.timgroup.statsd;
 
 import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describes a client connection to a StatsD server, which may be used to post metrics in the form
@@ -34,6 +35,19 @@ public interface StatsDClient extends Closeable {
     @Override
     void close();
 
+    /**
+     * Flush the messages buffered by the client, and wait until those sent before the call have
+     * been written to the transport.
+     *
+     * <p>Meant to be called before the process terminates, or at the end of a batch of work, as it
+     * bounds the time spent waiting for the messages to be delivered.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit unit of the timeout.
+     * @return true if all the messages were written before the timeout elapsed.
+     */
+    boolean flush(long timeout, TimeUnit unit);
+
     /**
      * Adjusts the specified counter by a given delta.
      *
@@ -997,4 +1011,45 @@ public interface StatsDClient extends Closeable {
      *     href="http://docs.datadoghq.com/guides/dogstatsd/#sets">http://docs.datadoghq.com/guides/dogstatsd/#sets</a>
      */
     void recordSetValue(String aspect, String value, TagsCardinality cardinality, String... tags);
+
+    /**
+     * Register a gauge whose value is sampled by the client once per aggregation flush interval.
+     *
+     * <p>Samples are written straight to the outbound buffers, without going through the client
+     * queue, nor a thread of the caller. Registering a gauge of the same aspect and tags again
+     * replaces its supplier.
+     *
+     * <p>Samples are taken by the aggregator flushes, which require client-side aggregation.
+     *
+     * @param aspect the name of the gauge
+     * @param supplier the supplier of the gauge values
+     * @param tags array of tags to be added to the data
+     * @throws IllegalStateException if client-side aggregation is disabled
+     */
+    void registerGauge(String aspect, GaugeSupplier supplier, String... tags);
+
+    /**
+     * Unregister a gauge registered by {@link #registerGauge}.
+     *
+     * @param aspect the name of the gauge
+     * @param tags the tags the gauge was registered with
+     * @return true if the gauge was registered
+     */
+    boolean unregisterGauge(String aspect, String... tags);
+
+    /**
+     * Report the current value of a cumulative counter, like a JMX or OS counter, as a count of its
+     * increase since the previous call.
+     *
+     * <p>The client keeps the last value of each aspect and tags. Nothing is sent the first time a
+     * counter is reported, nor when it did not change. A value lower than the previous one is taken
+     * as a reset of the counter, and sent as the increase since the reset.
+     *
+     * <p>This method is non-blocking and is guaranteed not to throw an exception.
+     *
+     * @param aspect the name of the counter
+     * @param value the cumulative value of the counter
+     * @param tags array of tags to be added to the data
+     */
+    void monotonicCount(String aspect, long value, String... tags);
 }
@@ -0,0 +1,77 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processor dropping messages when its queue is full, like {@link StatsDNonBlockingProcessor}, but
+ * whose idle workers block on the queue instead of sleeping between polls.
+ *
+ * <p>Used when the client runs on virtual threads: a parked worker is woken up as soon as a message
+ * arrives, and the queue and the aggregator rely on {@code java.util.concurrent} locks, which do
+ * not pin the carrier thread.
+ */
+public class StatsDHandOffProcessor extends StatsDProcessor {
+
+    private final BlockingQueue<Message> messages;
+
+    private class ProcessingTask extends StatsDProcessor.ProcessingTask {
+
+        @Override
+        protected Message getMessage() throws InterruptedException {
+            return messages.poll(WAIT_SLEEP_MS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected boolean haveMessages() {
+            return !messages.isEmpty();
+        }
+    }
+
+    StatsDHandOffProcessor(
+            final int queueSize,
+            final StatsDClientErrorHandler handler,
+            final int maxPacketSizeBytes,
+            final int poolSize,
+            final int workers,
+            final int aggregatorFlushInterval,
+            final int aggregatorShards,
+            final ThreadFactory threadFactory)
+            throws Exception {
+
+        super(
+                queueSize,
+                handler,
+                maxPacketSizeBytes,
+                poolSize,
+                workers,
+                aggregatorFlushInterval,
+                aggregatorShards,
+                threadFactory,
+                true);
+        this.messages = new LinkedBlockingQueue<>(queueSize);
+    }
+
+    @Override
+    int queueDrainMarker(final Message marker, final long timeoutNanos)
+            throws InterruptedException {
+        return messages.offer(marker, timeoutNanos, TimeUnit.NANOSECONDS) ? 1 : -1;
+    }
+
+    @Override
+    protected ProcessingTask createProcessingTask() {
+        return new ProcessingTask();
+    }
+
+    @Override
+    int getQueueSize() {
+        return messages.size() + super.getQueueSize();
+    }
+
+    @Override
+    protected boolean send(final Message message) {
+        return !shutdown && messages.offer(message);
+    }
+}
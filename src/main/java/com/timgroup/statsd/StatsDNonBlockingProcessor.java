@@ -1,21 +1,23 @@
 package com.timgroup.statsd;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class StatsDNonBlockingProcessor extends StatsDProcessor {
 
-    private final Queue<Message> messages;
-    private final AtomicInteger qsize; // qSize will not reflect actual size, but a close estimate.
+    final MessageLanes messages; // one queue per priority, or a single one.
 
     private class ProcessingTask extends StatsDProcessor.ProcessingTask {
+        private int turn;
+
         @Override
         protected Message getMessage() throws InterruptedException {
-            final Message message = messages.poll();
+            Message message = messages.poll(turn++);
+            // spin briefly before sleeping, where the JVM supports spin-wait hints.
+            for (int i = Platform.spinTries(); message == null && i > 0; i--) {
+                Platform.onSpinWait();
+                message = messages.poll(turn);
+            }
             if (message != null) {
-                qsize.decrementAndGet();
                 return message;
             }
 
@@ -40,6 +42,29 @@ public class StatsDNonBlockingProcessor extends StatsDProcessor {
             final int aggregatorShards,
             final ThreadFactory threadFactory)
             throws Exception {
+        this(
+                queueSize,
+                handler,
+                maxPacketSizeBytes,
+                poolSize,
+                workers,
+                aggregatorFlushInterval,
+                aggregatorShards,
+                threadFactory,
+                false);
+    }
+
+    StatsDNonBlockingProcessor(
+            final int queueSize,
+            final StatsDClientErrorHandler handler,
+            final int maxPacketSizeBytes,
+            final int poolSize,
+            final int workers,
+            final int aggregatorFlushInterval,
+            final int aggregatorShards,
+            final ThreadFactory threadFactory,
+            final boolean priorities)
+            throws Exception {
 
         super(
                 queueSize,
@@ -50,8 +75,12 @@ public class StatsDNonBlockingProcessor extends StatsDProcessor {
                 aggregatorFlushInterval,
                 aggregatorShards,
                 threadFactory);
-        this.qsize = new AtomicInteger(0);
-        this.messages = new ConcurrentLinkedQueue<>();
+        this.messages = new MessageLanes(queueSize, priorities);
+    }
+
+    @Override
+    int queueDrainMarker(final Message marker, final long timeoutNanos) {
+        return messages.offerAll(marker);
     }
 
     @Override
@@ -60,15 +89,12 @@ public class StatsDNonBlockingProcessor extends StatsDProcessor {
     }
 
     @Override
-    protected boolean send(final Message message) {
-        if (!shutdown) {
-            if (qsize.get() < qcapacity) {
-                messages.offer(message);
-                qsize.incrementAndGet();
-                return true;
-            }
-        }
+    int getQueueSize() {
+        return messages.size() + super.getQueueSize();
+    }
 
-        return false;
+    @Override
+    protected boolean send(final Message message) {
+        return !shutdown && messages.offer(message);
     }
 }
@@ -7,7 +7,9 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class StatsDProcessor {
     protected static final String MESSAGE_TOO_LONG = "Message longer than size of sendBuffer";
@@ -28,15 +30,29 @@ public abstract class StatsDProcessor {
 
     protected StatsDAggregator aggregator;
     protected volatile Telemetry telemetry;
+    protected volatile AdaptivePacketSize packetSize;
+    protected volatile LatencyTracker latency;
+    volatile HeavyHitters heavyHitters;
+    volatile CardinalityTracker cardinality;
 
     protected volatile boolean shutdown;
     volatile boolean shutdownAgg;
+    // latest drain request, see requestDrain().
+    private volatile CountDownLatch drainRequest;
 
     protected abstract class ProcessingTask implements Runnable {
         protected StringBuilder builder = new StringBuilder();
         char[] charBuffer = new char[maxPacketSizeBytes];
         // + 4 so that we can check for buffer overflow without computing encoded length first
         final byte[] byteBuffer = new byte[maxPacketSizeBytes + 4];
+        // stamp of the oldest sampled message in the send buffer, 0 if there is none.
+        long bufferStamp;
+        ByteBuffer sendBuffer;
+        // sketches of this worker, see track().
+        private HeavyHitters heavyHitters;
+        private HeavyHitters.Recorder hitters;
+        private CardinalityTracker cardinality;
+        private CardinalityTracker.Recorder contexts;
 
         public final void run() {
             try {
@@ -47,15 +63,14 @@ public abstract class StatsDProcessor {
         }
 
         protected void processLoop() {
-            ByteBuffer sendBuffer;
-
             try {
-                sendBuffer = bufferPool.borrow();
+                sendBuffer = borrowBuffer();
             } catch (final InterruptedException e) {
                 return;
             }
 
             boolean clientClosed = false;
+            CountDownLatch drained = null;
             while (!Thread.interrupted()) {
                 try {
                     // Read flags before polling for messages. We can continue shutdown only when
@@ -63,6 +78,17 @@ public abstract class StatsDProcessor {
                     // the names, so we can't check the non-local copy by accident.
                     boolean shutdown = StatsDProcessor.this.shutdown;
                     boolean shutdownAgg = StatsDProcessor.this.shutdownAgg;
+                    CountDownLatch drain = drainRequest;
+                    if (drain != drained) {
+                        // every message queued before the request was picked up, and the one
+                        // this worker was processing is written.
+                        if (sendBuffer.position() > 0) {
+                            handOff(sendBuffer);
+                            sendBuffer = borrowBuffer();
+                        }
+                        drained = drain;
+                        drain.countDown();
+                    }
 
                     Message message = highPrioMessages.poll();
                     if (message == null && shutdownAgg) {
@@ -72,6 +98,7 @@ public abstract class StatsDProcessor {
                         message = getMessage();
                     }
                     if (message == null) {
+                        idle();
                         if (shutdown && !clientClosed) {
                             closeSignal.countDown();
                             clientClosed = true;
@@ -85,37 +112,25 @@ public abstract class StatsDProcessor {
                         continue;
                     }
 
-                    if (aggregator.aggregateMessage(message)) {
+                    if (message instanceof DrainMarker) {
+                        ((DrainMarker) message).reached(-1);
+                        if (!haveMessages() && sendBuffer.position() > 0) {
+                            handOff(sendBuffer);
+                            sendBuffer = borrowBuffer();
+                        }
                         continue;
                     }
 
-                    boolean partialWrite;
-                    do {
-                        builder.setLength(0);
-                        partialWrite = message.writeTo(builder, sendBuffer.capacity());
-                        int lowerBoundSize = builder.length();
-
-                        if (sendBuffer.capacity() < lowerBoundSize) {
-                            throw new InvalidMessageException(MESSAGE_TOO_LONG, builder.toString());
-                        }
+                    track(message);
+                    if (aggregator.aggregateMessage(message)) {
+                        continue;
+                    }
 
-                        if (sendBuffer.remaining() < (lowerBoundSize + 1)) {
-                            outboundQueue.put(sendBuffer);
-                            sendBuffer = bufferPool.borrow();
-                        }
-
-                        try {
-                            writeBuilderToSendBuffer(sendBuffer);
-                        } catch (BufferOverflowException boe) {
-                            outboundQueue.put(sendBuffer);
-                            sendBuffer = bufferPool.borrow();
-                            writeBuilderToSendBuffer(sendBuffer);
-                        }
-                    } while (partialWrite);
+                    write(message);
 
                     if (!haveMessages()) {
-                        outboundQueue.put(sendBuffer);
-                        sendBuffer = bufferPool.borrow();
+                        handOff(sendBuffer);
+                        sendBuffer = borrowBuffer();
                     }
                 } catch (final InterruptedException e) {
                     break;
@@ -128,6 +143,126 @@ public abstract class StatsDProcessor {
             builder.trimToSize();
         }
 
+        // serialize a message into the send buffer, handing the buffer off whenever it fills up.
+        void write(final Message message) throws InterruptedException {
+            // aggregated messages are done, their stamp measures the aggregation.
+            final long enqueueNanos = message.getDone() ? 0 : message.enqueueNanos;
+            if (enqueueNanos != 0 && latency != null) {
+                latency.onPickup(enqueueNanos);
+            }
+
+            int length = 0;
+            boolean partialWrite;
+            do {
+                builder.setLength(0);
+                partialWrite = message.writeTo(builder, sendBuffer.limit());
+                int lowerBoundSize = builder.length();
+
+                if (sendBuffer.limit() < lowerBoundSize) {
+                    if (sendBuffer.capacity() < lowerBoundSize) {
+                        throw new InvalidMessageException(MESSAGE_TOO_LONG, builder.toString());
+                    }
+                    // the packet size was lowered below the size of the message, send it in a
+                    // packet of its own up to the configured maximum.
+                    writeAlone(enqueueNanos);
+                    continue;
+                }
+
+                if (sendBuffer.remaining() < (lowerBoundSize + 1)) {
+                    handOff(sendBuffer);
+                    sendBuffer = borrowBuffer();
+                }
+
+                int start = sendBuffer.position();
+                try {
+                    writeBuilderToSendBuffer(sendBuffer);
+                } catch (BufferOverflowException boe) {
+                    handOff(sendBuffer);
+                    sendBuffer = borrowBuffer();
+                    start = sendBuffer.position();
+                    writeBuilderToSendBuffer(sendBuffer);
+                }
+                length += sendBuffer.position() - start;
+                if (bufferStamp == 0) {
+                    bufferStamp = enqueueNanos;
+                }
+            } while (partialWrite);
+
+            final HeavyHitters.Recorder hitters = hitters();
+            if (hitters != null) {
+                hitters.onBytes(message, length);
+            }
+        }
+
+        // count a message picked up by the processor, aggregated and telemetry messages are done.
+        void track(final Message message) {
+            if (message.getDone()) {
+                return;
+            }
+            final HeavyHitters.Recorder hitters = hitters();
+            if (hitters != null) {
+                hitters.onMessage(message);
+            }
+            final CardinalityTracker cardinality = StatsDProcessor.this.cardinality;
+            if (cardinality != this.cardinality) {
+                this.cardinality = cardinality;
+                contexts = cardinality == null ? null : cardinality.recorder();
+            }
+            if (contexts != null) {
+                contexts.onMessage(message);
+            }
+        }
+
+        // roll the windows of the sketches that are due, when the worker finds no message.
+        void idle() {
+            final HeavyHitters heavyHitters = StatsDProcessor.this.heavyHitters;
+            if (heavyHitters != null) {
+                heavyHitters.rollIfDue();
+            }
+            final CardinalityTracker cardinality = StatsDProcessor.this.cardinality;
+            if (cardinality != null) {
+                cardinality.rollIfDue();
+            }
+        }
+
+        private HeavyHitters.Recorder hitters() {
+            final HeavyHitters heavyHitters = StatsDProcessor.this.heavyHitters;
+            if (heavyHitters != this.heavyHitters) {
+                this.heavyHitters = heavyHitters;
+                hitters = heavyHitters == null ? null : heavyHitters.recorder();
+            }
+            return hitters;
+        }
+
+        // write the builder in a send buffer of its own, without the packet size limit.
+        private void writeAlone(final long enqueueNanos) throws InterruptedException {
+            if (sendBuffer.position() > 0) {
+                handOff(sendBuffer);
+                sendBuffer = borrowBuffer();
+            }
+            sendBuffer.limit(sendBuffer.capacity());
+            try {
+                writeBuilderToSendBuffer(sendBuffer);
+            } catch (BufferOverflowException boe) {
+                sendBuffer.clear();
+                throw new InvalidMessageException(MESSAGE_TOO_LONG, builder.toString());
+            }
+            if (bufferStamp == 0) {
+                bufferStamp = enqueueNanos;
+            }
+            handOff(sendBuffer);
+            sendBuffer = borrowBuffer();
+        }
+
+        // queue a full buffer for the sender, along with the stamp of its oldest sampled message.
+        void handOff(final ByteBuffer sendBuffer) throws InterruptedException {
+            if (bufferStamp != 0 && latency != null) {
+                latency.onHandOff(sendBuffer, bufferStamp);
+            }
+            bufferStamp = 0;
+            outboundQueue.put(sendBuffer);
+        }
+
         abstract boolean haveMessages();
 
         abstract Message getMessage() throws InterruptedException;
@@ -184,6 +319,29 @@ public abstract class StatsDProcessor {
             final int aggregatorShards,
             final ThreadFactory threadFactory)
             throws Exception {
+        this(
+                queueSize,
+                handler,
+                maxPacketSizeBytes,
+                poolSize,
+                workers,
+                aggregatorFlushInterval,
+                aggregatorShards,
+                threadFactory,
+                false);
+    }
+
+    StatsDProcessor(
+            final int queueSize,
+            final StatsDClientErrorHandler handler,
+            final int maxPacketSizeBytes,
+            final int poolSize,
+            final int workers,
+            final int aggregatorFlushInterval,
+            final int aggregatorShards,
+            final ThreadFactory threadFactory,
+            final boolean virtualThreads)
+            throws Exception {
 
         this.handler = handler;
         this.threadFactory = threadFactory;
@@ -196,11 +354,26 @@ public abstract class StatsDProcessor {
         this.outboundQueue = new ArrayBlockingQueue<ByteBuffer>(poolSize);
         this.endSignal = new CountDownLatch(workers);
         this.closeSignal = new CountDownLatch(workers);
-        this.aggregator = new StatsDAggregator(this, aggregatorShards, aggregatorFlushInterval);
+        this.aggregator =
+                new StatsDAggregator(
+                        this, aggregatorShards, aggregatorFlushInterval, virtualThreads);
     }
 
     protected abstract ProcessingTask createProcessingTask();
 
+    /**
+     * Borrow a send buffer from the pool, limited to the current packet size when packet size
+     * discovery is enabled.
+     */
+    ByteBuffer borrowBuffer() throws InterruptedException {
+        final ByteBuffer buffer = bufferPool.borrow();
+        final AdaptivePacketSize packetSize = this.packetSize;
+        if (packetSize != null) {
+            buffer.limit(Math.min(buffer.capacity(), packetSize.get()));
+        }
+        return buffer;
+    }
+
     protected abstract boolean send(final Message message);
 
     protected boolean sendHighPrio(final Message message) {
@@ -220,6 +393,85 @@ public abstract class StatsDProcessor {
         return this.qcapacity;
     }
 
+    /**
+     * Return the number of messages waiting to be processed.
+     *
+     * @return an estimate of the number of queued messages.
+     */
+    int getQueueSize() {
+        return highPrioMessages.size();
+    }
+
+    /**
+     * Ask the workers to hand off their send buffers, once the messages queued so far have been
+     * processed. Pending aggregates must be flushed before the request to be included.
+     *
+     * <p>A marker is queued behind the messages of each queue, and the workers are asked to hand
+     * off their buffers once all the markers have been picked up, so that the drain completes under
+     * sustained traffic as well.
+     *
+     * @param deadline {@link System#nanoTime()} after which to give up on queueing the markers.
+     * @return a latch released when all the workers are done, which never happens if they are
+     *     stopped, or null if a queue stayed full until the deadline. Drains must not be requested
+     *     concurrently.
+     * @throws InterruptedException if interrupted while waiting for room in a queue.
+     */
+    CountDownLatch requestDrain(final long deadline) throws InterruptedException {
+        final DrainMarker marker = new DrainMarker(new CountDownLatch(workers.length));
+        highPrioMessages.offer(marker);
+        final int queued = queueDrainMarker(marker, deadline - System.nanoTime());
+        if (queued < 0) {
+            return null;
+        }
+        marker.reached(queued + 1);
+        return marker.latch;
+    }
+
+    /**
+     * Queue a drain marker behind the messages, in each of the queues of the processor.
+     *
+     * @param marker the marker.
+     * @param timeoutNanos how long to wait for room in a full queue.
+     * @return the number of markers queued, or -1 if a queue stayed full.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    int queueDrainMarker(final Message marker, final long timeoutNanos)
+            throws InterruptedException {
+        return 0;
+    }
+
+    // queued by requestDrain(), the drain is requested from the workers once all are picked up.
+    final class DrainMarker extends Message {
+        final CountDownLatch latch;
+        // markers queued minus markers picked up, the requester adds its count once queued.
+        private final AtomicInteger pending = new AtomicInteger();
+
+        DrainMarker(final CountDownLatch latch) {
+            super(Message.Type.COUNT, TagsCardinality.DEFAULT);
+            this.latch = latch;
+            this.done = true;
+        }
+
+        void reached(final int markers) {
+            if (pending.addAndGet(markers) == 0) {
+                drainRequest = latch;
+            }
+        }
+
+        @Override
+        boolean writeTo(final StringBuilder builder, final int capacity) {
+            return false;
+        }
+
+        @Override
+        public void aggregate(final Message message) {}
+    }
+
+    /** Run the aggregator flushes on a shared executor, see {@link StatsDAggregator}. */
+    void setExecutor(final ScheduledExecutorService executor) {
+        aggregator.setExecutor(executor);
+    }
+
     void startWorkers(final String namePrefix) {
         aggregator.start();
         // each task is a busy loop taking up one thread, so keep it simple and use an array of
@@ -243,6 +495,22 @@ public abstract class StatsDProcessor {
         return telemetry;
     }
 
+    void setLatencyTracker(final LatencyTracker latency) {
+        this.latency = latency;
+    }
+
+    void setHeavyHitters(final HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    void setCardinalityTracker(final CardinalityTracker cardinality) {
+        this.cardinality = cardinality;
+    }
+
+    void setPacketSize(final AdaptivePacketSize packetSize) {
+        this.packetSize = packetSize;
+    }
+
     void shutdown(boolean blocking) throws InterruptedException {
         shutdown = true;
         aggregator.stop();
@@ -0,0 +1,50 @@
+package com.timgroup.statsd;
+
+import java.io.Closeable;
+
+/**
+ * Processing and sending pipeline shared by several clients.
+ *
+ * <p>A runtime owns the transport, the buffer pool, the processor and sender threads, the
+ * aggregator and the telemetry of a destination. Clients built with {@link
+ * NonBlockingStatsDClientBuilder#runtime(StatsDRuntime)} only keep their own prefix, constant tags,
+ * origin detection and priority settings, and hand their messages to the runtime, so that the cost
+ * of each additional client stays flat. Pipeline settings of these clients, like the address or the
+ * number of workers, are ignored.
+ *
+ * <p>Stopping an attached client only unregisters the gauges it registered: the pipeline keeps
+ * running until the runtime is closed.
+ *
+ * <pre>
+ * StatsDRuntime runtime = new NonBlockingStatsDClientBuilder()
+ *     .hostname("localhost")
+ *     .port(8125)
+ *     .buildRuntime();
+ * StatsDClient billing = new NonBlockingStatsDClientBuilder()
+ *     .runtime(runtime)
+ *     .prefix("billing")
+ *     .build();
+ * </pre>
+ */
+public final class StatsDRuntime implements Closeable {
+    final NonBlockingStatsDClient pipeline;
+
+    StatsDRuntime(final NonBlockingStatsDClientBuilder builder) throws StatsDClientException {
+        this.pipeline = new NonBlockingStatsDClient(builder);
+    }
+
+    /**
+     * Capture the state of the shared pipeline, see {@link NonBlockingStatsDClient#snapshot()}.
+     *
+     * @return a telemetry snapshot covering all the clients attached to the runtime.
+     */
+    public Telemetry.Snapshot snapshot() {
+        return pipeline.snapshot();
+    }
+
+    /** Stop the pipeline, messages sent by attached clients afterwards are dropped. */
+    @Override
+    public void close() {
+        pipeline.stop();
+    }
+}
@@ -15,14 +15,29 @@ public class StatsDSender {
     private final BufferPool pool;
     private final BlockingQueue<ByteBuffer> buffers;
     private static final int WAIT_SLEEP_MS = 10; // 10 ms would be a 100HZ slice
+    private static final long REPLAY_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
 
     protected final ThreadFactory threadFactory;
     protected final Thread[] workers;
 
     private final CountDownLatch endSignal;
     private volatile boolean shutdown;
+    // latest drain request, see requestDrain().
+    private volatile CountDownLatch drainRequest;
+    // queued by requestDrain(), the request is published once it is picked up.
+    private volatile ByteBuffer drainMarker;
+    private CountDownLatch pendingDrain;
 
     private volatile Telemetry telemetry;
+    private volatile AdaptivePacketSize packetSize;
+    private volatile TokenBucket bytesBucket;
+    private volatile TokenBucket packetsBucket;
+    private volatile SpillQueue spill;
+    private volatile TokenBucket replayBucket;
+    private volatile ShardRing shardRing;
+    private volatile LatencyTracker latency;
+    private volatile LoadShedder shedder;
+    private volatile int shard;
 
     StatsDSender(
             final WritableByteChannel clientChannel,
@@ -51,6 +66,92 @@ public class StatsDSender {
         return telemetry;
     }
 
+    void setPacketSize(final AdaptivePacketSize packetSize) {
+        this.packetSize = packetSize;
+    }
+
+    /**
+     * Limit the rate at which buffers are written to the channel. Buffers waiting for the rate
+     * limit stay in the outbound queue.
+     *
+     * @param bytesPerSecond maximum number of bytes written per second, 0 for no limit.
+     * @param packetsPerSecond maximum number of packets written per second, 0 for no limit.
+     * @param burstInterval burst size, as the number of milliseconds worth of the configured rates
+     *     that may be written at once.
+     */
+    void setPacing(
+            final long bytesPerSecond, final long packetsPerSecond, final long burstInterval) {
+        if (bytesPerSecond > 0) {
+            bytesBucket = new TokenBucket(bytesPerSecond, bytesPerSecond * burstInterval / 1000);
+        }
+        if (packetsPerSecond > 0) {
+            packetsBucket =
+                    new TokenBucket(packetsPerSecond, packetsPerSecond * burstInterval / 1000);
+        }
+    }
+
+    /**
+     * Keep the packets that could not be written in a spill queue, and replay them once writes
+     * succeed again.
+     *
+     * @param spill the spill queue.
+     * @param replayRate maximum number of spilled packets replayed per second.
+     */
+    void setSpill(final SpillQueue spill, final long replayRate) {
+        this.replayBucket = new TokenBucket(replayRate, Math.max(1, replayRate / 10));
+        this.spill = spill;
+    }
+
+    /**
+     * Report the outcome of writes to the health of a shard.
+     *
+     * @param shardRing the ring the shard belongs to.
+     * @param shard the index of the shard this sender writes to.
+     */
+    void setShard(final ShardRing shardRing, final int shard) {
+        this.shard = shard;
+        this.shardRing = shardRing;
+    }
+
+    void setLatencyTracker(final LatencyTracker latency) {
+        this.latency = latency;
+    }
+
+    /** Update the load shedding rate as the sender polls for packets, and report the drops. */
+    void setLoadShedder(final LoadShedder shedder) {
+        this.shedder = shedder;
+    }
+
+    /**
+     * Ask the workers to signal once the buffers queued so far have been written.
+     *
+     * <p>A marker is queued behind the buffers, and the workers are asked to signal once it has
+     * been picked up, so that the drain completes under sustained traffic as well.
+     *
+     * @param deadline {@link System#nanoTime()} after which to give up on queueing the marker.
+     * @return a latch released when all the workers are done, which never happens if they are
+     *     stopped, or null if the queue stayed full until the deadline. Drains must not be
+     *     requested concurrently.
+     * @throws InterruptedException if interrupted while waiting for room in the queue.
+     */
+    CountDownLatch requestDrain(final long deadline) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(workers.length);
+        final ByteBuffer marker = ByteBuffer.allocate(0);
+        pendingDrain = done;
+        drainMarker = marker;
+        if (!buffers.offer(marker, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        return done;
+    }
+
+    // publish the drain request of a marker picked up by a worker.
+    private void reached(final ByteBuffer marker) {
+        if (marker == drainMarker) {
+            drainRequest = pendingDrain;
+        }
+    }
+
     void startWorkers(final String namePrefix) {
         // each task is a busy loop taking up one thread, so keep it simple and use an array of
         // threads
@@ -72,27 +173,107 @@ public class StatsDSender {
     }
 
     void sendLoop() {
+        sendLoop(false);
+    }
+
+    /**
+     * Write the buffers of the outbound queue on the calling thread, until the queue is empty. Used
+     * by senders without workers, callers must not drain concurrently.
+     */
+    void drain() {
+        sendLoop(true);
+    }
+
+    private void sendLoop(final boolean drain) {
         ByteBuffer buffer = null;
         Telemetry telemetry = getTelemetry(); // attribute snapshot to harness CPU cache
+        AdaptivePacketSize packetSize = this.packetSize;
+        TokenBucket bytesBucket = this.bytesBucket;
+        TokenBucket packetsBucket = this.packetsBucket;
+        SpillQueue spill = this.spill;
+        ShardRing shardRing = this.shardRing;
+        LatencyTracker latency = this.latency;
+        LoadShedder shedder = this.shedder;
+        ByteBuffer replayBuffer = null;
+        long replayAt = System.nanoTime();
+        CountDownLatch drained = null;
+        if (spill != null) {
+            replayBuffer = ByteBuffer.allocateDirect(pool.getBufferSize());
+        }
 
-        while (!(buffers.isEmpty() && shutdown)) {
+        while (!(buffers.isEmpty() && (shutdown || drain))) {
             int sizeOfBuffer = 0;
             try {
 
                 if (buffer != null) {
                     buffer.clear();
                     pool.put(buffer);
+                    buffer = null;
                 }
 
-                buffer = buffers.poll(WAIT_SLEEP_MS, TimeUnit.MILLISECONDS);
+                if (spill != null && System.nanoTime() - replayAt >= 0 && !spill.isEmpty()) {
+                    if (!replay(spill, replayBuffer, telemetry)) {
+                        replayAt = System.nanoTime() + REPLAY_RETRY_NANOS;
+                    }
+                }
+
+                if (shedder != null) {
+                    shedder.update();
+                }
+
+                final CountDownLatch request = drainRequest;
+                if (request != drained) {
+                    // every buffer queued before the request was picked up, and the one this
+                    // worker was writing is done.
+                    drained = request;
+                    request.countDown();
+                }
+
+                buffer =
+                        drain ? buffers.poll() : buffers.poll(WAIT_SLEEP_MS, TimeUnit.MILLISECONDS);
                 if (buffer == null) {
                     continue;
                 }
+                if (buffer.capacity() == 0) {
+                    reached(buffer);
+                    buffer = null;
+                    continue;
+                }
 
                 sizeOfBuffer = buffer.position();
 
+                if (bytesBucket != null || packetsBucket != null) {
+                    long waitNanos = 0;
+                    if (bytesBucket != null) {
+                        waitNanos = bytesBucket.reserve(sizeOfBuffer);
+                    }
+                    if (packetsBucket != null) {
+                        waitNanos = Math.max(waitNanos, packetsBucket.reserve(1));
+                    }
+                    if (waitNanos > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(waitNanos);
+                        } catch (final InterruptedException e) {
+                            // the buffer is given up on without being written.
+                            if (latency != null) {
+                                latency.discard(buffer);
+                            }
+                            if (telemetry != null) {
+                                telemetry.incrBytesDropped(sizeOfBuffer);
+                                telemetry.incrPacketDropped(1);
+                            }
+                            throw e;
+                        }
+                        if (telemetry != null) {
+                            telemetry.incrSenderThrottledTime(waitNanos);
+                        }
+                    }
+                }
+
                 buffer.flip();
+                final Object writeEvent = ClientEvents.beginWrite();
                 final int sentBytes = clientChannel.write(buffer);
+                ClientEvents.endWrite(writeEvent, sentBytes);
 
                 if (sizeOfBuffer != sentBytes) {
                     throw new IOException(
@@ -105,19 +286,193 @@ public class StatsDSender {
                     telemetry.incrBytesSent(sizeOfBuffer);
                     telemetry.incrPacketSent(1);
                 }
+                if (latency != null) {
+                    latency.onWrite(buffer);
+                }
+                if (packetSize != null) {
+                    packetSize.onSuccess();
+                }
+                if (spill != null) {
+                    replayAt = System.nanoTime();
+                }
+                if (shardRing != null) {
+                    shardRing.onSuccess(shard);
+                }
 
             } catch (final InterruptedException e) {
-                if (shutdown) {
+                if (shutdown || drain) {
                     break;
                 }
             } catch (final Exception e) {
-                if (telemetry != null) {
-                    telemetry.incrBytesDropped(sizeOfBuffer);
+                if (latency != null && buffer != null) {
+                    latency.discard(buffer);
+                }
+                ClientEvents.writeError(clientChannel, sizeOfBuffer, e);
+                Exception failure = e;
+                if (buffer != null && e instanceof IOException) {
+                    buffer.rewind();
+                    if (packetSize != null
+                            && AdaptivePacketSize.isSizeError(e)
+                            && packetSize.onFailure(sizeOfBuffer)) {
+                        // The packet was too large for the transport, retry its content in
+                        // smaller packets before giving up on it.
+                        failure = resend(buffer, packetSize, telemetry);
+                        if (failure == null) {
+                            continue;
+                        }
+                    }
+                }
+                if (failed(buffer, sizeOfBuffer, failure, telemetry)) {
+                    replayAt = System.nanoTime() + REPLAY_RETRY_NANOS;
+                }
+            }
+        }
+
+        if (drain && buffer != null) {
+            buffer.clear();
+            try {
+                pool.put(buffer);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replay spilled packets, as fast as the replay rate allows.
+     *
+     * @return false if a write failed, in which case the packet is spilled again.
+     */
+    private boolean replay(
+            final SpillQueue spill, final ByteBuffer replayBuffer, final Telemetry telemetry) {
+        while (replayBucket.tryAcquire(1) && spill.poll(replayBuffer, telemetry)) {
+            final int size = replayBuffer.remaining();
+            try {
+                if (clientChannel.write(replayBuffer) != size) {
+                    throw new IOException("Could not replay spilled stat to " + clientChannel);
+                }
+            } catch (final IOException e) {
+                replayBuffer.rewind();
+                if (!spill.offer(replayBuffer, telemetry) && telemetry != null) {
+                    telemetry.incrBytesDropped(size);
                     telemetry.incrPacketDropped(1);
                 }
+                return false;
+            }
+
+            if (telemetry != null) {
+                telemetry.incrBytesSent(size);
+                telemetry.incrPacketSent(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Handle a failed write: report it to the shard, and spill the unsent bytes, between the
+     * position and the limit of the buffer after I/O errors, or drop them.
+     *
+     * @return true if the bytes were spilled.
+     */
+    private boolean failed(
+            final ByteBuffer buffer, final int size, final Exception e, final Telemetry telemetry) {
+        if (e instanceof IOException) {
+            final ShardRing shardRing = this.shardRing;
+            if (shardRing != null) {
+                shardRing.onFailure(shard);
+            }
+            final SpillQueue spill = this.spill;
+            if (spill != null && buffer != null && spill.offer(buffer, telemetry)) {
                 handler.handle(e);
+                return true;
+            }
+        }
+        dropped(
+                buffer != null && e instanceof IOException ? buffer.remaining() : size,
+                telemetry,
+                e);
+        return false;
+    }
+
+    /**
+     * Re-send a buffer the transport rejected as too large, split on message boundaries into
+     * packets that fit the current packet size. The packet size keeps shrinking as long as writes
+     * fail with size errors. A message larger than the packet size is sent in a packet of its own,
+     * and dropped alone if the transport rejects it too.
+     *
+     * @return null once the buffer was written, or the failure of a write for another reason than
+     *     its size, with the buffer positioned on the bytes left to write.
+     */
+    private IOException resend(
+            final ByteBuffer buffer,
+            final AdaptivePacketSize packetSize,
+            final Telemetry telemetry) {
+        final int end = buffer.limit();
+        int start = 0;
+
+        while (start < end) {
+            buffer.limit(end);
+            int chunkEnd = Math.min(end, start + packetSize.get());
+            boolean single = false;
+            if (chunkEnd < end) {
+                while (chunkEnd > start && buffer.get(chunkEnd - 1) != '\n') {
+                    chunkEnd--;
+                }
+                if (chunkEnd == start) {
+                    chunkEnd = start + packetSize.get();
+                    while (chunkEnd < end && buffer.get(chunkEnd - 1) != '\n') {
+                        chunkEnd++;
+                    }
+                    single = true;
+                }
             }
+
+            buffer.limit(chunkEnd);
+            buffer.position(start);
+            try {
+                final int sentBytes = clientChannel.write(buffer);
+                if (sentBytes != chunkEnd - start) {
+                    throw new IOException(
+                            String.format(
+                                    "Could not send stat %s entirely to %s. Only sent %d out of %d bytes",
+                                    buffer, clientChannel, sentBytes, chunkEnd - start));
+                }
+            } catch (final IOException e) {
+                if (!AdaptivePacketSize.isSizeError(e)) {
+                    buffer.limit(end);
+                    buffer.position(start);
+                    return e;
+                }
+                if (!single && packetSize.onFailure(chunkEnd - start)) {
+                    continue;
+                }
+                // a message too large for the transport, or packets that can not shrink any
+                // further.
+                dropped(chunkEnd - start, telemetry, e);
+                start = chunkEnd;
+                continue;
+            }
+
+            if (telemetry != null) {
+                telemetry.incrBytesSent(chunkEnd - start);
+                telemetry.incrPacketSent(1);
+            }
+            start = chunkEnd;
+        }
+        buffer.limit(end);
+        return null;
+    }
+
+    private void dropped(final int bytes, final Telemetry telemetry, final Exception e) {
+        if (telemetry != null) {
+            telemetry.incrBytesDropped(bytes);
+            telemetry.incrPacketDropped(1);
+        }
+        final LoadShedder shedder = this.shedder;
+        if (shedder != null) {
+            shedder.onDrop();
         }
+        handler.handle(e);
     }
 
     void shutdown(boolean blocking) throws InterruptedException {
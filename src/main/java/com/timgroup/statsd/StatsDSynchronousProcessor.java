@@ -0,0 +1,151 @@
+package com.timgroup.statsd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Processor without workers: messages are aggregated and serialized on the calling thread, and full
+ * buffers are written by the sender on that same thread.
+ *
+ * <p>Partially filled buffers and pending aggregates are only written by {@link #flush()}. Callers
+ * are serialized by a lock, which also guards the sender, so that buffers are written in order.
+ */
+public class StatsDSynchronousProcessor extends StatsDProcessor {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ProcessingTask task;
+    private volatile StatsDSender sender;
+
+    private class ProcessingTask extends StatsDProcessor.ProcessingTask {
+
+        @Override
+        protected Message getMessage() {
+            return null;
+        }
+
+        @Override
+        protected boolean haveMessages() {
+            return false;
+        }
+
+        @Override
+        void handOff(final ByteBuffer sendBuffer) throws InterruptedException {
+            super.handOff(sendBuffer);
+            sender.drain();
+        }
+
+        void process(final Message message) throws InterruptedException {
+            if (sendBuffer == null) {
+                sendBuffer = borrowBuffer();
+            }
+            write(message);
+        }
+
+        void flush() throws InterruptedException {
+            if (sendBuffer != null && sendBuffer.position() > 0) {
+                final ByteBuffer buffer = sendBuffer;
+                sendBuffer = null;
+                handOff(buffer);
+            }
+        }
+    }
+
+    StatsDSynchronousProcessor(
+            final int queueSize,
+            final StatsDClientErrorHandler handler,
+            final int maxPacketSizeBytes,
+            final int poolSize,
+            final int aggregatorFlushInterval,
+            final int aggregatorShards,
+            final ThreadFactory threadFactory)
+            throws Exception {
+
+        super(
+                queueSize,
+                handler,
+                maxPacketSizeBytes,
+                poolSize,
+                0,
+                aggregatorFlushInterval,
+                aggregatorShards,
+                threadFactory,
+                // no flushing timer, aggregates are only written by flush().
+                true);
+        this.task = new ProcessingTask();
+    }
+
+    /** Set the sender writing the buffers of this processor, it must not have workers. */
+    void setSender(final StatsDSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    protected ProcessingTask createProcessingTask() {
+        return task;
+    }
+
+    @Override
+    void startWorkers(final String namePrefix) {
+        // no workers and no flushing scheduler, see flush().
+        aggregator.setTelemetry(getTelemetry());
+    }
+
+    @Override
+    protected boolean send(final Message message) {
+        if (shutdown) {
+            return false;
+        }
+        lock.lock();
+        try {
+            task.track(message);
+            if (!aggregator.aggregateMessage(message)) {
+                task.process(message);
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final Exception e) {
+            handler.handle(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected boolean sendHighPrio(final Message message) {
+        // only called by the aggregator flush, with the lock held.
+        try {
+            task.process(message);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final Exception e) {
+            handler.handle(e);
+        }
+        return true;
+    }
+
+    /** Write the pending aggregates and the partially filled buffer. */
+    void flush() {
+        lock.lock();
+        try {
+            aggregator.flush();
+            task.flush();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            handler.handle(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void shutdown(boolean blocking) throws InterruptedException {
+        flush();
+        shutdown = true;
+    }
+}
@@ -0,0 +1,111 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A 64-bit counter spreading concurrent updates over several cache lines, in the manner of JDK8's
+ * {@code LongAdder} which is not available at JDK7 language level.
+ *
+ * <p>Updates go to a single base value until two threads contend on it, the counter then switches
+ * to an array of cells padded to their own cache line, and each thread updates the cell picked by
+ * its id. Reading the counter sums the cells, so it is not an atomic snapshot of concurrent
+ * updates, but no update is ever lost: cells are never reset, readers keep track of the total they
+ * last read instead.
+ */
+final class StripedCounter {
+    // longs per cell, so that each cell sits on its own 128 bytes (a pair of cache lines, as
+    // adjacent lines are prefetched together).
+    private static final int PADDING = 16;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+    // totals at the last reset and snapshot.
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong snapshotted = new AtomicLong();
+
+    void add(final long value) {
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            final long current = base.get();
+            if (base.compareAndSet(current, current + value)) {
+                return;
+            }
+            cells = inflate();
+        }
+        cells.addAndGet(index(), value);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    /** Return the updates since the last reset. */
+    long get() {
+        return total() - flushed.get();
+    }
+
+    /** Return the updates since the last reset and reset the counter. */
+    long getAndReset() {
+        final long total = total();
+        return total - flushed.getAndSet(total);
+    }
+
+    /**
+     * Return the updates since the previous call, independently of {@link #getAndReset()}.
+     *
+     * @return the updates since the previous snapshot.
+     */
+    long getSinceSnapshot() {
+        final long total = total();
+        return total - snapshotted.getAndSet(total);
+    }
+
+    /** Set the counter back to zero, this is not safe against concurrent updates. */
+    void reset() {
+        base.set(0);
+        final AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PADDING, 0);
+            }
+        }
+        flushed.set(0);
+        snapshotted.set(0);
+    }
+
+    // sum of all the updates, never reset so that readers do not lose concurrent updates.
+    private long total() {
+        long sum = base.get();
+        final AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        // thread ids are sequential, spread them over the stripes.
+        id *= 0x9e3779b97f4a7c15L;
+        return (int) (id >>> 58) % STRIPES * PADDING;
+    }
+
+    private static int stripes(final int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,91 @@
+package com.timgroup.statsd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies the {@link TagRule}s to the tags of the messages, before they reach the aggregator.
+ *
+ * <p>The rules matching an aspect are looked up once per aspect, and the tags are rewritten for
+ * each message. Tag arrays that no rule changes are returned as they are, without a copy.
+ */
+final class TagRewriter {
+    private static final TagRule[] NO_RULES = new TagRule[0];
+
+    private final TagRule[] rules;
+    private final int maxAspects;
+    private final ConcurrentHashMap<String, TagRule[]> aspectRules = new ConcurrentHashMap<>();
+
+    /**
+     * TagRewriter constructor.
+     *
+     * @param rules the rules, applied in order to each tag.
+     * @param cacheSize number of aspects whose matching rules are cached.
+     */
+    TagRewriter(final List<TagRule> rules, final int cacheSize) {
+        this.rules = rules.toArray(new TagRule[rules.size()]);
+        this.maxAspects = cacheSize;
+    }
+
+    /**
+     * Rewrite the tags of a message.
+     *
+     * @param aspect the aspect of the message, without the client prefix.
+     * @param tags the tags of the message, left untouched.
+     * @return the rewritten tags, or the same array when no rule applies.
+     */
+    String[] rewrite(final String aspect, final String[] tags) {
+        if (tags == null || tags.length == 0) {
+            return tags;
+        }
+        return apply(rulesFor(aspect), tags);
+    }
+
+    private TagRule[] rulesFor(final String aspect) {
+        TagRule[] matching = aspectRules.get(aspect);
+        if (matching != null) {
+            return matching;
+        }
+        final List<TagRule> list = new ArrayList<>();
+        for (final TagRule rule : rules) {
+            if (rule.matches(aspect)) {
+                list.add(rule);
+            }
+        }
+        matching = list.isEmpty() ? NO_RULES : list.toArray(new TagRule[list.size()]);
+        // aspects built at runtime could grow the map without bound.
+        if (aspectRules.size() < maxAspects) {
+            aspectRules.put(aspect, matching);
+        }
+        return matching;
+    }
+
+    private static String[] apply(final TagRule[] rules, final String[] tags) {
+        if (rules.length == 0) {
+            return tags;
+        }
+        List<String> rewritten = null;
+        for (int i = 0; i < tags.length; i++) {
+            String tag = tags[i];
+            for (int r = 0; r < rules.length && tag != null; r++) {
+                final TagRule rule = rules[r];
+                final int separator = tag.indexOf(':');
+                final int length = separator < 0 ? tag.length() : separator;
+                if (length == rule.name.length() && tag.startsWith(rule.name)) {
+                    tag = rule.apply(tag, separator);
+                }
+            }
+            if (rewritten == null && tag != tags[i]) {
+                rewritten = new ArrayList<>(tags.length);
+                for (int j = 0; j < i; j++) {
+                    rewritten.add(tags[j]);
+                }
+            }
+            if (rewritten != null && tag != null) {
+                rewritten.add(tag);
+            }
+        }
+        return rewritten == null ? tags : rewritten.toArray(new String[rewritten.size()]);
+    }
+}
@@ -0,0 +1,140 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a tag of the metrics whose aspect matches a pattern, see {@link
+ * NonBlockingStatsDClientBuilder#tagRules}.
+ *
+ * <p>Patterns match the aspect without the client prefix, {@code *} matching any sequence of
+ * characters. Tags are matched by name, the part before the first {@code :}.
+ *
+ * <pre>
+ * new NonBlockingStatsDClientBuilder()
+ *     .tagRules(
+ *         TagRule.drop("*", "pod_hash"),
+ *         TagRule.rename("http.*", "status", "status_code"),
+ *         TagRule.bucket("http.*", "response_size", 1024, 65536))
+ *     .build();
+ * </pre>
+ */
+public final class TagRule {
+
+    enum Action {
+        DROP,
+        RENAME,
+        BUCKET
+    }
+
+    final Pattern pattern;
+    final Action action;
+    final String name;
+    final String newName;
+    final double[] bounds;
+
+    private TagRule(
+            final String pattern,
+            final Action action,
+            final String name,
+            final String newName,
+            final double[] bounds) {
+        this.pattern = compile(pattern);
+        this.action = action;
+        this.name = name;
+        this.newName = newName;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Drop a tag.
+     *
+     * @param pattern pattern of the aspects the rule applies to
+     * @param name name of the tag to drop
+     * @return the rule
+     */
+    public static TagRule drop(final String pattern, final String name) {
+        return new TagRule(pattern, Action.DROP, name, null, null);
+    }
+
+    /**
+     * Rename a tag, keeping its value.
+     *
+     * @param pattern pattern of the aspects the rule applies to
+     * @param name name of the tag to rename
+     * @param newName new name of the tag
+     * @return the rule
+     */
+    public static TagRule rename(final String pattern, final String name, final String newName) {
+        return new TagRule(pattern, Action.RENAME, name, newName, null);
+    }
+
+    /**
+     * Replace the numeric value of a tag by the bucket it falls in: {@code le_<bound>} for the
+     * lowest bound it does not exceed, or {@code gt_<bound>} beyond the highest bound. Tags with a
+     * value that is not a number are left as they are.
+     *
+     * @param pattern pattern of the aspects the rule applies to
+     * @param name name of the tag to bucket
+     * @param bounds upper bounds of the buckets
+     * @return the rule
+     */
+    public static TagRule bucket(final String pattern, final String name, final double... bounds) {
+        final double[] sorted = bounds.clone();
+        Arrays.sort(sorted);
+        return new TagRule(pattern, Action.BUCKET, name, null, sorted);
+    }
+
+    private static Pattern compile(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = glob.indexOf('*'); i >= 0; i = glob.indexOf('*', start)) {
+            if (i > start) {
+                regex.append(Pattern.quote(glob.substring(start, i)));
+            }
+            regex.append(".*");
+            start = i + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    boolean matches(final String aspect) {
+        return pattern.matcher(aspect).matches();
+    }
+
+    // apply the rule to a tag of its name, return the rewritten tag or null to drop it.
+    String apply(final String tag, final int separator) {
+        switch (action) {
+            case DROP:
+                return null;
+            case RENAME:
+                return separator < 0 ? newName : newName + tag.substring(separator);
+            default:
+                if (separator < 0 || bounds.length == 0) {
+                    return tag;
+                }
+                final double value;
+                try {
+                    value = Double.parseDouble(tag.substring(separator + 1));
+                } catch (final NumberFormatException e) {
+                    return tag;
+                }
+                for (final double bound : bounds) {
+                    if (value <= bound) {
+                        return name + ":le_" + format(bound);
+                    }
+                }
+                return name + ":gt_" + format(bounds[bounds.length - 1]);
+        }
+    }
+
+    private static String format(final double bound) {
+        if (bound == Math.rint(bound) && !Double.isInfinite(bound)) {
+            return Long.toString((long) bound);
+        }
+        return Double.toString(bound);
+    }
+}
@@ -0,0 +1,91 @@
+package com.timgroup.statsd;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, interned set of tags, in canonical order.
+ *
+ * <p>Tags are sorted and deduplicated, so that tag sets built from the same tags in any order yield
+ * the same context once passed to the client through {@link #asArray()}, and are aggregated
+ * together. Equal tag sets are interned, and their hash code is computed once, so that they are
+ * cheap to use as keys.
+ *
+ * <pre>
+ * static final TagSet CHECKOUT = TagSet.of("service:checkout", "env:prod");
+ *
+ * client.increment("orders", CHECKOUT.asArray());
+ * </pre>
+ *
+ * <p>Up to {@link #MAX_INTERNED} distinct tag sets are interned; beyond that, {@link
+ * #of(String...)} returns tag sets that are not shared.
+ */
+public final class TagSet {
+    static final int MAX_INTERNED = 4096;
+
+    private static final ConcurrentHashMap<List<String>, TagSet> interned =
+            new ConcurrentHashMap<>();
+
+    private final String[] tags;
+    final int hash;
+
+    private TagSet(final String[] tags) {
+        this.tags = tags;
+        this.hash = Arrays.hashCode(tags);
+    }
+
+    /**
+     * Return the tag set of the given tags.
+     *
+     * @param tags the tags, in any order, null tags are ignored
+     * @return the interned tag set
+     */
+    public static TagSet of(final String... tags) {
+        final TreeSet<String> sorted = new TreeSet<>();
+        for (final String tag : tags) {
+            if (tag != null) {
+                sorted.add(tag);
+            }
+        }
+        final String[] canonical = sorted.toArray(new String[sorted.size()]);
+        final List<String> key = Arrays.asList(canonical);
+        TagSet tagSet = interned.get(key);
+        if (tagSet == null) {
+            tagSet = new TagSet(canonical);
+            if (interned.size() < MAX_INTERNED) {
+                final TagSet previous = interned.putIfAbsent(key, tagSet);
+                if (previous != null) {
+                    tagSet = previous;
+                }
+            }
+        }
+        return tagSet;
+    }
+
+    /**
+     * Return the tags, to pass to the methods of the client.
+     *
+     * @return a copy of the sorted tags, which the caller may keep and pass on any number of times.
+     */
+    public String[] asArray() {
+        return tags.clone();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        return object == this
+                || (object instanceof TagSet && Arrays.equals(tags, ((TagSet) object).tags));
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(tags);
+    }
+}
@@ -1,30 +1,45 @@
 package com.timgroup.statsd;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client telemetry counters.
+ *
+ * <p>Counters are updated from every application thread, so they are striped to keep them out of
+ * each other's way, and 64-bit so that they can not overflow between flushes.
+ */
 public class Telemetry {
 
     public static int DEFAULT_FLUSH_INTERVAL = 10000; // 10s
 
-    protected final AtomicInteger metricsSent = new AtomicInteger(0);
-    protected final AtomicInteger gaugeSent = new AtomicInteger(0);
-    protected final AtomicInteger countSent = new AtomicInteger(0);
-    protected final AtomicInteger histogramSent = new AtomicInteger(0);
-    protected final AtomicInteger distributionSent = new AtomicInteger(0);
-    protected final AtomicInteger setSent = new AtomicInteger(0);
-    protected final AtomicInteger eventsSent = new AtomicInteger(0);
-    protected final AtomicInteger serviceChecksSent = new AtomicInteger(0);
-    protected final AtomicInteger bytesSent = new AtomicInteger(0);
-    protected final AtomicInteger bytesDropped = new AtomicInteger(0);
-    protected final AtomicInteger packetsSent = new AtomicInteger(0);
-    protected final AtomicInteger packetsDropped = new AtomicInteger(0);
-    protected final AtomicInteger packetsDroppedQueue = new AtomicInteger(0);
-    protected final AtomicInteger aggregatedContexts = new AtomicInteger(0);
-    protected final AtomicInteger aggregatedGaugeContexts = new AtomicInteger(0);
-    protected final AtomicInteger aggregatedCountContexts = new AtomicInteger(0);
-    protected final AtomicInteger aggregatedSetContexts = new AtomicInteger(0);
+    protected final StripedCounter metricsSent = new StripedCounter();
+    protected final StripedCounter gaugeSent = new StripedCounter();
+    protected final StripedCounter countSent = new StripedCounter();
+    protected final StripedCounter histogramSent = new StripedCounter();
+    protected final StripedCounter distributionSent = new StripedCounter();
+    protected final StripedCounter setSent = new StripedCounter();
+    protected final StripedCounter eventsSent = new StripedCounter();
+    protected final StripedCounter serviceChecksSent = new StripedCounter();
+    protected final StripedCounter bytesSent = new StripedCounter();
+    protected final StripedCounter bytesDropped = new StripedCounter();
+    protected final StripedCounter packetsSent = new StripedCounter();
+    protected final StripedCounter packetsDropped = new StripedCounter();
+    protected final StripedCounter packetsDroppedQueue = new StripedCounter();
+    protected final StripedCounter aggregatedContexts = new StripedCounter();
+    protected final StripedCounter aggregatedGaugeContexts = new StripedCounter();
+    protected final StripedCounter aggregatedCountContexts = new StripedCounter();
+    protected final StripedCounter aggregatedSetContexts = new StripedCounter();
+    protected final StripedCounter senderThrottledNanos = new StripedCounter();
+    protected final StripedCounter metricsShed = new StripedCounter();
+    protected final StripedCounter metricsThrottled = new StripedCounter();
+    protected final StripedCounter gaugesSuppressed = new StripedCounter();
 
     protected final String metricsSentMetric = "datadog.dogstatsd.client.metrics";
     protected final String metricsByTypeSentMetric = "datadog.dogstatsd.client.metrics_by_type";
@@ -39,10 +54,38 @@ public class Telemetry {
     protected final String aggregatedContextsMetric = "datadog.dogstatsd.client.aggregated_context";
     protected final String aggregatedContextsByTypeMetric =
             "datadog.dogstatsd.client.aggregated_context_by_type";
+    protected final String senderThrottledTimeMetric =
+            "datadog.dogstatsd.client.sender_throttled_ms";
+    protected final String latencyMetric = "datadog.dogstatsd.client.latency_us";
+    protected final String metricsShedMetric = "datadog.dogstatsd.client.metrics_shed";
+    protected final String metricsThrottledMetric = "datadog.dogstatsd.client.metrics_throttled";
+    protected final String gaugesSuppressedMetric = "datadog.dogstatsd.client.gauges_suppressed";
+    protected final String topContextMessagesMetric =
+            "datadog.dogstatsd.client.top_context_messages";
+    protected final String topContextBytesMetric = "datadog.dogstatsd.client.top_context_bytes";
+    protected final String distinctContextsMetric = "datadog.dogstatsd.client.distinct_contexts";
+    protected final String aspectContextsMetric = "datadog.dogstatsd.client.aspect_contexts";
 
     protected Timer timer;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> flushTask;
     NonBlockingStatsDClient client;
 
+    // Metrics of optional features are only reported when the feature is enabled.
+    volatile boolean senderPacing;
+    volatile boolean loadShedding;
+    volatile boolean aspectRateLimit;
+    volatile boolean gaugeDeduplication;
+    volatile LatencyTracker latency;
+    volatile HeavyHitters heavyHitters;
+    volatile CardinalityTracker cardinality;
+
+    private long snapshotStartMillis;
+    // start of the last heavy hitters window reported by flush().
+    private long heavyHittersReported;
+    // start of the last cardinality window reported by flush().
+    private long cardinalityReported;
+
     protected class TelemetryTask extends TimerTask {
         private Telemetry telemetry;
 
@@ -56,8 +99,201 @@ public class Telemetry {
         }
     }
 
+    /**
+     * A context among the heaviest ones, see {@link NonBlockingStatsDClientBuilder#heavyHitters}.
+     */
+    public static final class TopContext {
+        /** Aspect of the context, without the client prefix. */
+        public final String aspect;
+
+        /** Tags of the context, without the constant tags, or {@code null} for none. */
+        public final String[] tags;
+
+        /** Number of messages, or of bytes, of the context. */
+        public final long count;
+
+        /** Upper bound of the overestimation of {@link #count}. */
+        public final long error;
+
+        TopContext(final String aspect, final String[] tags, final long count, final long error) {
+            this.aspect = aspect;
+            this.tags = tags;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /** Pipeline state at snapshot time, plus counters for the interval leading up to it. */
+    public static final class Snapshot {
+        /** Default metric name prefix used when none is supplied to {@link Snapshot#encodeTo}. */
+        static final String DEFAULT_PREFIX = "datadog.dogstatsd.client";
+
+        /**
+         * Wall-clock time (Unix epoch milliseconds) at the start of the interval covered by this
+         * snapshot, i.e. the moment of the previous snapshot, or telemetry construction if this is
+         * the first snapshot.
+         */
+        public long intervalStartMillis;
+
+        /** Number of metrics sent in this interval. */
+        public long metricsSent;
+
+        /** Number of events sent in this interval. */
+        public long eventsSent;
+
+        /** Number of service checks sent in this interval. */
+        public long serviceChecksSent;
+
+        /** Number of bytes written to the transport in this interval. */
+        public long bytesSent;
+
+        /** Number of packets written to the transport in this interval. */
+        public long packetsSent;
+
+        /** Number of bytes dropped because the transport rejected them in this interval. */
+        public long bytesDropped;
+
+        /** Number of packets dropped because the transport rejected them in this interval. */
+        public long packetsDropped;
+
+        /** Number of messages dropped because the client queue was full in this interval. */
+        public long packetsDroppedQueue;
+
+        /** Number of messages merged into an existing aggregation context in this interval. */
+        public long aggregatedContexts;
+
+        /** Number of messages waiting to be processed. */
+        public long queueSize;
+
+        /** Maximum number of messages waiting to be processed. */
+        public long queueCapacity;
+
+        /** Number of packets waiting for the sender. */
+        public long outboundQueueSize;
+
+        /** Number of packet buffers available to the processor. */
+        public long bufferPoolAvailable;
+
+        /** Total number of packet buffers. */
+        public long bufferPoolSize;
+
+        /** Number of contexts waiting for the next aggregator flush. */
+        public long aggregatorContexts;
+
+        /** Duration of the last aggregator flush, in nanoseconds. */
+        public long aggregatorFlushNanos;
+
+        /**
+         * Contexts with the most messages over the last complete telemetry flush interval, heaviest
+         * first, or {@code null} unless heavy hitters are tracked.
+         */
+        public List<TopContext> topContextsByMessages;
+
+        /**
+         * Contexts with the most serialized bytes over the last complete telemetry flush interval,
+         * heaviest first, or {@code null} unless heavy hitters are tracked.
+         */
+        public List<TopContext> topContextsByBytes;
+
+        /**
+         * Estimated number of distinct contexts over the last complete telemetry flush interval, 0
+         * unless heavy hitters are tracked.
+         */
+        public long distinctContexts;
+
+        /**
+         * Estimated number of distinct contexts of each tracked aspect over the last complete
+         * telemetry flush interval, largest first, or {@code null} unless cardinality is tracked.
+         */
+        public Map<String, Long> aspectContexts;
+
+        Snapshot(long intervalStartMillis) {
+            this.intervalStartMillis = intervalStartMillis;
+        }
+
+        /** Destination for the metrics of an encoded snapshot. */
+        public interface Encoder {
+            /**
+             * Emits a gauge.
+             *
+             * @param name Full metric name.
+             * @param value Metric value.
+             */
+            void gauge(String name, double value);
+
+            /**
+             * Emits a count.
+             *
+             * @param name Full metric name.
+             * @param value Metric value.
+             * @param tags Tags to attach, or {@code null} for none.
+             */
+            void count(String name, double value, String[] tags);
+        }
+
+        /**
+         * Encodes this snapshot into {@code enc} using the default metric name prefix.
+         *
+         * @param enc Encoder to emit metrics to.
+         */
+        public void encodeTo(Encoder enc) {
+            encodeTo(DEFAULT_PREFIX, enc);
+        }
+
+        /**
+         * Encodes this snapshot into {@code enc}.
+         *
+         * <p>Metrics carry no timestamp, the encoder decides how to timestamp them.
+         *
+         * @param prefix Metric name prefix.
+         * @param enc Encoder to emit metrics to.
+         */
+        public void encodeTo(String prefix, Encoder enc) {
+            enc.count(prefix + ".metrics", (double) metricsSent, null);
+            enc.count(prefix + ".events", (double) eventsSent, null);
+            enc.count(prefix + ".service_checks", (double) serviceChecksSent, null);
+            enc.count(prefix + ".bytes_sent", (double) bytesSent, null);
+            enc.count(prefix + ".packets_sent", (double) packetsSent, null);
+            enc.count(prefix + ".aggregated_context", (double) aggregatedContexts, null);
+
+            enc.count(prefix + ".bytes_dropped", (double) bytesDropped, null);
+            enc.count(prefix + ".packets_dropped", (double) packetsDropped, null);
+            enc.count(prefix + ".packets_dropped_queue", (double) packetsDroppedQueue, null);
+
+            enc.gauge(prefix + ".queue_size", (double) queueSize);
+            enc.gauge(prefix + ".queue_capacity", (double) queueCapacity);
+            enc.gauge(prefix + ".outbound_queue_size", (double) outboundQueueSize);
+            enc.gauge(prefix + ".buffer_pool_available", (double) bufferPoolAvailable);
+            enc.gauge(prefix + ".buffer_pool_size", (double) bufferPoolSize);
+            enc.gauge(prefix + ".aggregator_contexts", (double) aggregatorContexts);
+            enc.gauge(prefix + ".aggregator_flush_seconds", aggregatorFlushNanos / 1e9);
+
+            if (topContextsByMessages != null) {
+                enc.gauge(prefix + ".distinct_contexts", (double) distinctContexts);
+                encodeTo(prefix + ".top_context_messages", topContextsByMessages, enc);
+                encodeTo(prefix + ".top_context_bytes", topContextsByBytes, enc);
+            }
+            if (aspectContexts != null) {
+                for (final Map.Entry<String, Long> entry : aspectContexts.entrySet()) {
+                    enc.count(
+                            prefix + ".aspect_contexts",
+                            (double) entry.getValue(),
+                            new String[] {"aspect:" + entry.getKey()});
+                }
+            }
+        }
+
+        private static void encodeTo(
+                final String name, final List<TopContext> contexts, final Encoder enc) {
+            for (final TopContext context : contexts) {
+                enc.count(name, (double) context.count, new String[] {"aspect:" + context.aspect});
+            }
+        }
+    }
+
     Telemetry(final NonBlockingStatsDClient client) {
         this.client = client;
+        this.snapshotStartMillis = System.currentTimeMillis();
     }
 
     /**
@@ -67,12 +303,32 @@ public class Telemetry {
      */
     public void start(final long flushInterval) {
         // flush the telemetry at regualar interval
+        if (executor != null) {
+            flushTask =
+                    executor.scheduleAtFixedRate(
+                            new TelemetryTask(this),
+                            flushInterval,
+                            flushInterval,
+                            TimeUnit.MILLISECONDS);
+            return;
+        }
         timer = new Timer(true);
         timer.scheduleAtFixedRate(new TelemetryTask(this), flushInterval, flushInterval);
     }
 
+    /**
+     * Run the flushes on an executor shared with other components, instead of a dedicated timer
+     * thread. Must be called before {@link #start(long)}.
+     */
+    void setExecutor(final ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
     /** Stops the flush timer for the telemetry. */
     public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
         if (timer != null) {
             timer.cancel();
         }
@@ -80,55 +336,170 @@ public class Telemetry {
 
     /** Sends Telemetry metrics to the processor. This function also reset the internal counters. */
     public void flush() {
-        // all getAndSet will not be synchronous but it's ok since metrics will
+        // all getAndReset will not be synchronous but it's ok since metrics will
         // be spread out among processor worker and we flush every 5s by
         // default
 
-        client.sendTelemetryMetric(metricsSentMetric, metricsSent.getAndSet(0));
-        client.sendTelemetryMetric(eventsSentMetric, eventsSent.getAndSet(0));
-        client.sendTelemetryMetric(serviceChecksSentMetric, serviceChecksSent.getAndSet(0));
-        client.sendTelemetryMetric(bytesSentMetric, bytesSent.getAndSet(0));
-        client.sendTelemetryMetric(bytesDroppedMetric, bytesDropped.getAndSet(0));
-        client.sendTelemetryMetric(packetsSentMetric, packetsSent.getAndSet(0));
-        client.sendTelemetryMetric(packetsDroppedMetric, packetsDropped.getAndSet(0));
-        client.sendTelemetryMetric(packetsDroppedQueueMetric, packetsDroppedQueue.getAndSet(0));
-        client.sendTelemetryMetric(aggregatedContextsMetric, aggregatedContexts.getAndSet(0));
+        client.sendTelemetryMetric(metricsSentMetric, metricsSent.getAndReset());
+        client.sendTelemetryMetric(eventsSentMetric, eventsSent.getAndReset());
+        client.sendTelemetryMetric(serviceChecksSentMetric, serviceChecksSent.getAndReset());
+        client.sendTelemetryMetric(bytesSentMetric, bytesSent.getAndReset());
+        client.sendTelemetryMetric(bytesDroppedMetric, bytesDropped.getAndReset());
+        client.sendTelemetryMetric(packetsSentMetric, packetsSent.getAndReset());
+        client.sendTelemetryMetric(packetsDroppedMetric, packetsDropped.getAndReset());
+        client.sendTelemetryMetric(packetsDroppedQueueMetric, packetsDroppedQueue.getAndReset());
+        client.sendTelemetryMetric(aggregatedContextsMetric, aggregatedContexts.getAndReset());
+        if (senderPacing) {
+            client.sendTelemetryMetric(
+                    senderThrottledTimeMetric,
+                    TimeUnit.NANOSECONDS.toMillis(senderThrottledNanos.getAndReset()));
+        }
+        if (loadShedding) {
+            client.sendTelemetryMetric(metricsShedMetric, metricsShed.getAndReset());
+        }
+        if (aspectRateLimit) {
+            client.sendTelemetryMetric(metricsThrottledMetric, metricsThrottled.getAndReset());
+        }
+        if (gaugeDeduplication) {
+            client.sendTelemetryMetric(gaugesSuppressedMetric, gaugesSuppressed.getAndReset());
+        }
+
+        final HeavyHitters heavyHitters = this.heavyHitters;
+        if (heavyHitters != null) {
+            final HeavyHitters.Window window = heavyHitters.last();
+            if (window.startMillis != heavyHittersReported) {
+                heavyHittersReported = window.startMillis;
+                client.sendTelemetryMetric(
+                        distinctContextsMetric, Message.Type.GAUGE, window.distinctContexts);
+                sendTopContexts(topContextMessagesMetric, window.byMessages);
+                sendTopContexts(topContextBytesMetric, window.byBytes);
+            }
+        }
+
+        final CardinalityTracker cardinality = this.cardinality;
+        if (cardinality != null) {
+            final CardinalityTracker.Window window = cardinality.last();
+            if (window.startMillis != cardinalityReported) {
+                cardinalityReported = window.startMillis;
+                final Iterator<Map.Entry<String, Long>> it = window.contexts.entrySet().iterator();
+                for (int i = 0; i < CardinalityTracker.REPORTED_ASPECTS && it.hasNext(); i++) {
+                    final Map.Entry<String, Long> entry = it.next();
+                    client.sendTelemetryMetric(
+                            aspectContextsMetric,
+                            Message.Type.GAUGE,
+                            entry.getValue(),
+                            "aspect:" + entry.getKey());
+                }
+            }
+        }
+
+        final LatencyTracker latency = this.latency;
+        if (latency != null) {
+            for (int stage = 0; stage < LatencyTracker.STAGES.length; stage++) {
+                final long[] counts = latency.getHistogram(stage).getAndReset();
+                final String tags = "stage:" + LatencyTracker.STAGES[stage];
+                sendLatency(counts, tags + ",quantile:p50", 0.5);
+                sendLatency(counts, tags + ",quantile:p99", 0.99);
+                sendLatency(counts, tags + ",quantile:max", 1);
+            }
+        }
 
         // developer metrics
         client.sendTelemetryMetric(
-                metricsByTypeSentMetric, gaugeSent.getAndSet(0), "metrics_type:gauge");
+                metricsByTypeSentMetric, gaugeSent.getAndReset(), "metrics_type:gauge");
         client.sendTelemetryMetric(
-                metricsByTypeSentMetric, countSent.getAndSet(0), "metrics_type:count");
+                metricsByTypeSentMetric, countSent.getAndReset(), "metrics_type:count");
         client.sendTelemetryMetric(
-                metricsByTypeSentMetric, setSent.getAndSet(0), "metrics_type:set");
+                metricsByTypeSentMetric, setSent.getAndReset(), "metrics_type:set");
         client.sendTelemetryMetric(
-                metricsByTypeSentMetric, histogramSent.getAndSet(0), "metrics_type:histogram");
+                metricsByTypeSentMetric, histogramSent.getAndReset(), "metrics_type:histogram");
         client.sendTelemetryMetric(
                 metricsByTypeSentMetric,
-                distributionSent.getAndSet(0),
+                distributionSent.getAndReset(),
                 "metrics_type:distribution");
 
         client.sendTelemetryMetric(
                 aggregatedContextsByTypeMetric,
-                aggregatedGaugeContexts.getAndSet(0),
+                aggregatedGaugeContexts.getAndReset(),
                 "metrics_type:gauge");
         client.sendTelemetryMetric(
                 aggregatedContextsByTypeMetric,
-                aggregatedCountContexts.getAndSet(0),
+                aggregatedCountContexts.getAndReset(),
                 "metrics_type:count");
         client.sendTelemetryMetric(
                 aggregatedContextsByTypeMetric,
-                aggregatedSetContexts.getAndSet(0),
+                aggregatedSetContexts.getAndReset(),
                 "metrics_type:set");
     }
 
+    /**
+     * Capture the counters accumulated since the previous snapshot, and the state of the given
+     * processors. Snapshots are independent from {@link #flush()}: both report every update.
+     *
+     * @param processors processors to report the queues, buffers and aggregators of.
+     * @return a telemetry snapshot.
+     */
+    synchronized Snapshot snapshot(final StatsDProcessor... processors) {
+        final long now = System.currentTimeMillis();
+        final Snapshot s = new Snapshot(snapshotStartMillis);
+        snapshotStartMillis = now;
+
+        s.metricsSent = metricsSent.getSinceSnapshot();
+        s.eventsSent = eventsSent.getSinceSnapshot();
+        s.serviceChecksSent = serviceChecksSent.getSinceSnapshot();
+        s.bytesSent = bytesSent.getSinceSnapshot();
+        s.packetsSent = packetsSent.getSinceSnapshot();
+        s.bytesDropped = bytesDropped.getSinceSnapshot();
+        s.packetsDropped = packetsDropped.getSinceSnapshot();
+        s.packetsDroppedQueue = packetsDroppedQueue.getSinceSnapshot();
+        s.aggregatedContexts = aggregatedContexts.getSinceSnapshot();
+
+        for (final StatsDProcessor processor : processors) {
+            s.queueSize += processor.getQueueSize();
+            s.queueCapacity += processor.getQcapacity();
+            s.outboundQueueSize += processor.getOutboundQueue().size();
+            s.bufferPoolAvailable += processor.getBufferPool().available();
+            s.bufferPoolSize += processor.getBufferPool().getSize();
+            s.aggregatorContexts += processor.getAggregator().getContextCount();
+            s.aggregatorFlushNanos =
+                    Math.max(s.aggregatorFlushNanos, processor.getAggregator().getLastFlushNanos());
+        }
+
+        final HeavyHitters heavyHitters = this.heavyHitters;
+        if (heavyHitters != null) {
+            final HeavyHitters.Window window = heavyHitters.last();
+            s.topContextsByMessages = window.byMessages;
+            s.topContextsByBytes = window.byBytes;
+            s.distinctContexts = window.distinctContexts;
+        }
+        final CardinalityTracker cardinality = this.cardinality;
+        if (cardinality != null) {
+            s.aspectContexts = cardinality.last().contexts;
+        }
+        return s;
+    }
+
+    private void sendTopContexts(final String metric, final List<TopContext> contexts) {
+        for (final TopContext context : contexts) {
+            client.sendTelemetryMetric(metric, context.count, "aspect:" + context.aspect);
+        }
+    }
+
+    private void sendLatency(final long[] counts, final String tags, final double quantile) {
+        final long nanos = LatencyHistogram.quantile(counts, quantile);
+        if (nanos > 0) {
+            client.sendTelemetryMetric(
+                    latencyMetric, Message.Type.GAUGE, TimeUnit.NANOSECONDS.toMicros(nanos), tags);
+        }
+    }
+
     /**
      * Increase Metrics Sent telemetry metric.
      *
      * @param value Value to increase metric with
      */
     public void incrMetricsSent(final int value) {
-        metricsSent.addAndGet(value);
+        metricsSent.add(value);
     }
 
     /**
@@ -161,89 +532,129 @@ public class Telemetry {
     }
 
     public void incrGaugeSent(final int value) {
-        gaugeSent.addAndGet(value);
+        gaugeSent.add(value);
     }
 
     public void incrCountSent(final int value) {
-        countSent.addAndGet(value);
+        countSent.add(value);
     }
 
     public void incrHistogramSent(final int value) {
-        histogramSent.addAndGet(value);
+        histogramSent.add(value);
     }
 
     public void incrDistributionSent(final int value) {
-        distributionSent.addAndGet(value);
+        distributionSent.add(value);
     }
 
     public void incrSetSent(final int value) {
-        setSent.addAndGet(value);
+        setSent.add(value);
     }
 
     public void incrEventsSent(final int value) {
-        eventsSent.addAndGet(value);
+        eventsSent.add(value);
     }
 
     public void incrServiceChecksSent(final int value) {
-        serviceChecksSent.addAndGet(value);
+        serviceChecksSent.add(value);
     }
 
     public void incrBytesSent(final int value) {
-        bytesSent.addAndGet(value);
+        bytesSent.add(value);
     }
 
     public void incrBytesDropped(final int value) {
-        bytesDropped.addAndGet(value);
+        bytesDropped.add(value);
     }
 
     public void incrPacketSent(final int value) {
-        packetsSent.addAndGet(value);
+        packetsSent.add(value);
     }
 
     public void incrPacketDropped(final int value) {
-        packetsDropped.addAndGet(value);
+        packetsDropped.add(value);
     }
 
     public void incrPacketDroppedQueue(final int value) {
-        packetsDroppedQueue.addAndGet(value);
+        packetsDroppedQueue.add(value);
     }
 
     public void incrAggregatedContexts(final int value) {
-        aggregatedContexts.addAndGet(value);
+        aggregatedContexts.add(value);
     }
 
     public void incrAggregatedGaugeContexts(final int value) {
-        aggregatedGaugeContexts.addAndGet(value);
+        aggregatedGaugeContexts.add(value);
     }
 
     public void incrAggregatedCountContexts(final int value) {
-        aggregatedCountContexts.addAndGet(value);
+        aggregatedCountContexts.add(value);
     }
 
     public void incrAggregatedSetContexts(final int value) {
-        aggregatedSetContexts.addAndGet(value);
+        aggregatedSetContexts.add(value);
+    }
+
+    /**
+     * Increase the time the sender waited for its rate limit.
+     *
+     * @param nanos Time waited, in nanoseconds
+     */
+    public void incrSenderThrottledTime(final long nanos) {
+        senderThrottledNanos.add(nanos);
+    }
+
+    /**
+     * Increase the number of metrics sampled out by the load shedder.
+     *
+     * @param value Value to increase metric with
+     */
+    public void incrMetricsShed(final int value) {
+        metricsShed.add(value);
+    }
+
+    /**
+     * Increase the number of metrics sampled out by the per-aspect rate limit.
+     *
+     * @param value Value to increase metric with
+     */
+    public void incrMetricsThrottled(final int value) {
+        metricsThrottled.add(value);
+    }
+
+    /**
+     * Increase the number of aggregated gauges suppressed because their value did not change.
+     *
+     * @param value Value to increase metric with
+     */
+    public void incrGaugesSuppressed(final int value) {
+        gaugesSuppressed.add(value);
     }
 
     /** Resets all counter in the telemetry (this is useful for tests purposes). */
     public void reset() {
-        metricsSent.set(0);
-        eventsSent.set(0);
-        serviceChecksSent.set(0);
-        bytesSent.set(0);
-        bytesDropped.set(0);
-        packetsSent.set(0);
-        packetsDropped.set(0);
-        packetsDroppedQueue.set(0);
-        aggregatedContexts.set(0);
-
-        gaugeSent.set(0);
-        countSent.set(0);
-        histogramSent.set(0);
-        distributionSent.set(0);
-        setSent.set(0);
-
-        aggregatedGaugeContexts.set(0);
-        aggregatedCountContexts.set(0);
-        aggregatedSetContexts.set(0);
+        metricsSent.reset();
+        eventsSent.reset();
+        serviceChecksSent.reset();
+        bytesSent.reset();
+        bytesDropped.reset();
+        packetsSent.reset();
+        packetsDropped.reset();
+        packetsDroppedQueue.reset();
+        aggregatedContexts.reset();
+        senderThrottledNanos.reset();
+        metricsShed.reset();
+        metricsThrottled.reset();
+        gaugesSuppressed.reset();
+
+        gaugeSent.reset();
+        countSent.reset();
+        histogramSent.reset();
+        distributionSent.reset();
+        setSent.reset();
+
+        aggregatedGaugeContexts.reset();
+        aggregatedCountContexts.reset();
+        aggregatedSetContexts.reset();
     }
 }
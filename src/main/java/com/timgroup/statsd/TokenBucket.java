@@ -0,0 +1,76 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket refilled at a constant rate, holding at most {@code capacity} tokens.
+ *
+ * <p>Tokens are reserved rather than waited for: a reservation always succeeds, possibly leaving
+ * the bucket in debt, and returns how long the caller has to wait before the tokens are actually
+ * available. Concurrent callers are therefore spaced out in the order they reserved.
+ */
+final class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    // taken by every sender write when pacing is enabled, a monitor would pin virtual threads.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * TokenBucket constructor. The bucket starts full.
+     *
+     * @param ratePerSecond number of tokens added to the bucket every second.
+     * @param capacity maximum number of tokens the bucket holds, i.e. the burst size.
+     */
+    TokenBucket(final long ratePerSecond, final long capacity) {
+        this.tokensPerNano = (double) ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Reserve tokens from the bucket.
+     *
+     * @param count number of tokens to reserve.
+     * @return the time to wait until the reserved tokens are available, in nanoseconds.
+     */
+    long reserve(final long count) {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take tokens from the bucket if they are available right away.
+     *
+     * @param count number of tokens to take.
+     * @return true if the tokens were taken.
+     */
+    boolean tryAcquire(final long count) {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            if (tokens < count) {
+                return false;
+            }
+            tokens -= count;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -5,6 +5,7 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 import jnr.unixsocket.UnixSocketAddress;
 import jnr.unixsocket.UnixSocketChannel;
 import jnr.unixsocket.UnixSocketOptions;
@@ -16,7 +17,11 @@ public class UnixStreamClientChannel implements ClientChannel {
     private final int connectionTimeout;
     private final int bufferSize;
 
+    // j.u.c lock rather than a monitor, which would pin the carrier of virtual threads.
+    private final ReentrantLock lock = new ReentrantLock();
     private SocketChannel delegate;
+    // whether a connection was established before, later connections are reconnects.
+    private boolean connected;
     private final ByteBuffer delimiterBuffer =
             ByteBuffer.allocateDirect(Integer.SIZE / Byte.SIZE).order(ByteOrder.LITTLE_ENDIAN);
 
@@ -41,7 +46,16 @@ public class UnixStreamClientChannel implements ClientChannel {
     }
 
     @Override
-    public synchronized int write(ByteBuffer src) throws IOException {
+    public int write(ByteBuffer src) throws IOException {
+        lock.lock();
+        try {
+            return writeLocked(src);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int writeLocked(ByteBuffer src) throws IOException {
         connectIfNeeded();
 
         int size = src.remaining();
@@ -107,7 +121,20 @@ public class UnixStreamClientChannel implements ClientChannel {
 
     private void connectIfNeeded() throws IOException {
         if (delegate == null) {
-            connect();
+            if (!connected) {
+                connect();
+                connected = true;
+                return;
+            }
+
+            final Object event = ClientEvents.beginReconnect();
+            try {
+                connect();
+            } catch (IOException e) {
+                ClientEvents.endReconnect(event, address, e);
+                throw e;
+            }
+            ClientEvents.endReconnect(event, address, null);
         }
     }
 
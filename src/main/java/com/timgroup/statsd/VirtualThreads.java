@@ -0,0 +1,67 @@
+package com.timgroup.statsd;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * MethodHandle based bridge for creating JDK21+ virtual threads at JDK7 language level.
+ *
+ * <p>Equivalent to {@code Thread.ofVirtual().name(prefix, 0).factory()}.
+ */
+final class VirtualThreads {
+    private static final MethodHandle OF_VIRTUAL;
+    private static final MethodHandle NAME;
+    private static final MethodHandle FACTORY;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual =
+                    lookup.findStatic(
+                            Thread.class,
+                            "ofVirtual",
+                            MethodType.methodType(
+                                    Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            name =
+                    lookup.findVirtual(
+                            builder,
+                            "name",
+                            MethodType.methodType(builder, String.class, long.class));
+            factory =
+                    lookup.findVirtual(
+                            builder, "factory", MethodType.methodType(ThreadFactory.class));
+        } catch (Throwable ignore) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {}
+
+    /**
+     * Create a factory of virtual threads.
+     *
+     * @param prefix prefix of the thread names, followed by a counter.
+     * @return the factory, or null if the JVM does not support virtual threads.
+     */
+    static ThreadFactory newFactory(final String prefix) {
+        if (OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            final Object builder = NAME.invoke(OF_VIRTUAL.invoke(), prefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Throwable ignore) {
+            // preview feature before JDK21.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+
+/**
+ * Diagnostic events of the client hot path, emitted as JDK Flight Recorder events.
+ *
+ * <p>Java 11 layer of the multi-release jar. Runtimes without the {@code jdk.jfr} module, like
+ * trimmed jlink images, get the no-op behaviour of the base layer: the events are implemented by
+ * {@link FlightRecorderEvents}, which is only loaded when the module is present.
+ */
+final class ClientEvents {
+    private static final boolean ENABLED = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private ClientEvents() {}
+
+    static Object beginFlush() {
+        return ENABLED ? FlightRecorderEvents.beginFlush() : null;
+    }
+
+    static void endFlush(final Object event, final int contexts) {
+        if (event != null) {
+            FlightRecorderEvents.endFlush(event, contexts);
+        }
+    }
+
+    static Object beginBufferWait() {
+        return ENABLED ? FlightRecorderEvents.beginBufferWait() : null;
+    }
+
+    static void endBufferWait(final Object event, final int poolSize) {
+        if (event != null) {
+            FlightRecorderEvents.endBufferWait(event, poolSize);
+        }
+    }
+
+    static Object beginWrite() {
+        return ENABLED ? FlightRecorderEvents.beginWrite() : null;
+    }
+
+    static void endWrite(final Object event, final int bytes) {
+        if (event != null) {
+            FlightRecorderEvents.endWrite(event, bytes);
+        }
+    }
+
+    static void writeError(final Object channel, final int bytes, final Exception error) {
+        if (ENABLED) {
+            FlightRecorderEvents.writeError(channel, bytes, error);
+        }
+    }
+
+    static void queueFull(final String aspect) {
+        if (ENABLED) {
+            FlightRecorderEvents.queueFull(aspect);
+        }
+    }
+
+    static Object beginReconnect() {
+        return ENABLED ? FlightRecorderEvents.beginReconnect() : null;
+    }
+
+    static void endReconnect(final Object event, final Object address, final IOException error) {
+        if (event != null) {
+            FlightRecorderEvents.endReconnect(event, address, error);
+        }
+    }
+}
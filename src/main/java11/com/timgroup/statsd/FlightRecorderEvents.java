@@ -0,0 +1,174 @@
+package com.timgroup.statsd;
+
+import java.io.IOException;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events of the client hot path, see {@link ClientEvents}.
+ *
+ * <p>The events are only allocated and timed while a recording has them enabled, the {@code begin}
+ * methods return null otherwise. This class must only be loaded when the {@code jdk.jfr} module is
+ * present.
+ */
+final class FlightRecorderEvents {
+    private static final String CATEGORY = "DogStatsD Client";
+
+    private FlightRecorderEvents() {}
+
+    @Name("com.datadoghq.dogstatsd.AggregatorFlush")
+    @Label("Aggregator Flush")
+    @Category(CATEGORY)
+    @Description("Aggregated metrics handed over to the processor")
+    @StackTrace(false)
+    static final class FlushEvent extends Event {
+        @Label("Contexts")
+        int contexts;
+    }
+
+    @Name("com.datadoghq.dogstatsd.BufferPoolWait")
+    @Label("Buffer Pool Wait")
+    @Category(CATEGORY)
+    @Description("Processor waiting for a buffer of the exhausted buffer pool")
+    @StackTrace(false)
+    static final class BufferWaitEvent extends Event {
+        @Label("Pool Size")
+        int poolSize;
+    }
+
+    @Name("com.datadoghq.dogstatsd.WriteStall")
+    @Label("Write Stall")
+    @Category(CATEGORY)
+    @Description("Sender write to the transport taking longer than the threshold")
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static final class WriteStallEvent extends Event {
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("com.datadoghq.dogstatsd.WriteError")
+    @Label("Write Error")
+    @Category(CATEGORY)
+    @Description("Sender write to the transport failing")
+    @StackTrace(false)
+    static final class WriteErrorEvent extends Event {
+        @Label("Channel")
+        String channel;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.datadoghq.dogstatsd.QueueFull")
+    @Label("Queue Full")
+    @Category(CATEGORY)
+    @Description("Message dropped because the processor queue is full")
+    @StackTrace(false)
+    static final class QueueFullEvent extends Event {
+        @Label("Aspect")
+        String aspect;
+    }
+
+    @Name("com.datadoghq.dogstatsd.Reconnect")
+    @Label("Reconnect")
+    @Category(CATEGORY)
+    @Description("Reconnection to a unix domain socket")
+    @StackTrace(false)
+    static final class ReconnectEvent extends Event {
+        @Label("Address")
+        String address;
+
+        @Label("Error")
+        String error;
+    }
+
+    static Object beginFlush() {
+        return begin(new FlushEvent());
+    }
+
+    static void endFlush(final Object event, final int contexts) {
+        if (event != null) {
+            final FlushEvent flush = (FlushEvent) event;
+            flush.contexts = contexts;
+            flush.commit();
+        }
+    }
+
+    static Object beginBufferWait() {
+        return begin(new BufferWaitEvent());
+    }
+
+    static void endBufferWait(final Object event, final int poolSize) {
+        if (event != null) {
+            final BufferWaitEvent wait = (BufferWaitEvent) event;
+            wait.poolSize = poolSize;
+            wait.commit();
+        }
+    }
+
+    static Object beginWrite() {
+        return begin(new WriteStallEvent());
+    }
+
+    static void endWrite(final Object event, final int bytes) {
+        if (event != null) {
+            final WriteStallEvent write = (WriteStallEvent) event;
+            write.end();
+            if (write.shouldCommit()) {
+                write.bytes = bytes;
+                write.commit();
+            }
+        }
+    }
+
+    static void writeError(final Object channel, final int bytes, final Exception error) {
+        final WriteErrorEvent event = new WriteErrorEvent();
+        if (event.isEnabled()) {
+            event.channel = String.valueOf(channel);
+            event.bytes = bytes;
+            event.error = String.valueOf(error);
+            event.commit();
+        }
+    }
+
+    static void queueFull(final String aspect) {
+        final QueueFullEvent event = new QueueFullEvent();
+        if (event.isEnabled()) {
+            event.aspect = aspect;
+            event.commit();
+        }
+    }
+
+    static Object beginReconnect() {
+        return begin(new ReconnectEvent());
+    }
+
+    static void endReconnect(final Object event, final Object address, final IOException error) {
+        if (event != null) {
+            final ReconnectEvent reconnect = (ReconnectEvent) event;
+            reconnect.address = String.valueOf(address);
+            reconnect.error = error == null ? null : error.toString();
+            reconnect.commit();
+        }
+    }
+
+    private static Event begin(final Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,16 @@
+package com.timgroup.statsd;
+
+/** Java 11 layer of the multi-release jar: idle workers spin briefly before sleeping. */
+final class Platform {
+    private static final int SPIN_TRIES = 64;
+
+    private Platform() {}
+
+    static int spinTries() {
+        return SPIN_TRIES;
+    }
+
+    static void onSpinWait() {
+        Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,20 @@
+package com.timgroup.statsd;
+
+import java.util.Map;
+
+/**
+ * Java 8 layer of the multi-release jar: {@code Map.putIfAbsent} is called directly instead of
+ * through a {@code MethodHandle}.
+ */
+public class MapUtils {
+
+    /**
+     * Delegates to {@code Map.putIfAbsent}.
+     *
+     * @return the previous value associated with the message, or null if the value was not seen
+     *     before
+     */
+    static Message putIfAbsent(Map<Message, Message> map, Message message) {
+        return map.putIfAbsent(message, message);
+    }
+}
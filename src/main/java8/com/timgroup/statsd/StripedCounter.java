@@ -0,0 +1,54 @@
+package com.timgroup.statsd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A 64-bit counter spreading concurrent updates over several cache lines.
+ *
+ * <p>Java 8 layer of the multi-release jar, backed by {@code LongAdder}, which adapts its number of
+ * cells to the contention and probes a free cell on collisions. As in the base implementation, the
+ * adder is never reset by readers, who keep track of the total they last read instead.
+ */
+final class StripedCounter {
+    private final LongAdder total = new LongAdder();
+    // totals at the last reset and snapshot.
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong snapshotted = new AtomicLong();
+
+    void add(final long value) {
+        total.add(value);
+    }
+
+    void increment() {
+        total.increment();
+    }
+
+    /** Return the updates since the last reset. */
+    long get() {
+        return total.sum() - flushed.get();
+    }
+
+    /** Return the updates since the last reset and reset the counter. */
+    long getAndReset() {
+        final long sum = total.sum();
+        return sum - flushed.getAndSet(sum);
+    }
+
+    /**
+     * Return the updates since the previous call, independently of {@link #getAndReset()}.
+     *
+     * @return the updates since the previous snapshot.
+     */
+    long getSinceSnapshot() {
+        final long sum = total.sum();
+        return sum - snapshotted.getAndSet(sum);
+    }
+
+    /** Set the counter back to zero, this is not safe against concurrent updates. */
+    void reset() {
+        total.reset();
+        flushed.set(0);
+        snapshotted.set(0);
+    }
+}
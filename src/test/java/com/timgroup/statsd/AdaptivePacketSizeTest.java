@@ -0,0 +1,236 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.junit.Test;
+
+public class AdaptivePacketSizeTest {
+
+    // Rejects packets larger than the limit, like a transport returning EMSGSIZE.
+    static class LimitedChannel implements WritableByteChannel {
+        final int limit;
+        final List<String> packets = new ArrayList<>();
+
+        LimitedChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            if (src.remaining() > limit) {
+                throw new IOException("Message too long");
+            }
+            int size = src.remaining();
+            packets.add(StandardCharsets.UTF_8.decode(src).toString());
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+
+        synchronized List<String> getPackets() {
+            return new ArrayList<>(packets);
+        }
+    }
+
+    @Test
+    public void backs_off_and_probes() throws Exception {
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(8192, 0);
+        assertEquals(8192, packetSize.get());
+
+        assertTrue(packetSize.onFailure(8192));
+        assertEquals(4096, packetSize.get());
+        assertTrue(packetSize.onFailure(4096));
+        assertEquals(2048, packetSize.get());
+
+        // Probe interval of zero: the next success grows the size right away.
+        packetSize.onSuccess();
+        assertEquals(4096, packetSize.get());
+        packetSize.onSuccess();
+        packetSize.onSuccess();
+        assertEquals(8192, packetSize.get());
+    }
+
+    @Test
+    public void does_not_shrink_below_minimum() throws Exception {
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(1024, 60000);
+        assertTrue(packetSize.onFailure(1024));
+        assertEquals(AdaptivePacketSize.MIN_PACKET_SIZE_BYTES, packetSize.get());
+        assertFalse(packetSize.onFailure(AdaptivePacketSize.MIN_PACKET_SIZE_BYTES));
+        assertEquals(AdaptivePacketSize.MIN_PACKET_SIZE_BYTES, packetSize.get());
+
+        // Not grown before the probe interval elapsed.
+        packetSize.onSuccess();
+        assertEquals(AdaptivePacketSize.MIN_PACKET_SIZE_BYTES, packetSize.get());
+    }
+
+    @Test(timeout = 5000L)
+    public void sender_resends_rejected_packets_in_smaller_pieces() throws Exception {
+        LimitedChannel channel = new LimitedChannel(1000);
+        BufferPool pool = new BufferPool(2, 4096, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(2);
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(4096, 60000);
+        RecordingErrorHandler handler = new RecordingErrorHandler();
+
+        StatsDSender sender =
+                new StatsDSender(channel, handler, pool, buffers, 1, new StatsDThreadFactory());
+        sender.setPacketSize(packetSize);
+
+        StringBuilder expected = new StringBuilder();
+        ByteBuffer buffer = pool.borrow();
+        for (int i = 0; i < 100; i++) {
+            String line = "my.prefix.mycount" + i + ":1|c\n";
+            expected.append(line);
+            buffer.put(line.getBytes(StandardCharsets.UTF_8));
+        }
+        buffers.put(buffer);
+
+        sender.startWorkers("StatsD-Sender-");
+        sender.shutdown(true);
+
+        StringBuilder received = new StringBuilder();
+        for (String packet : channel.getPackets()) {
+            assertThat(packet.length(), lessThanOrEqualTo(1000));
+            assertTrue(packet.endsWith("\n"));
+            received.append(packet);
+        }
+        assertEquals(expected.toString(), received.toString());
+        assertThat(packetSize.get(), lessThanOrEqualTo(1000));
+        assertTrue(handler.getExceptions().isEmpty());
+    }
+
+    @Test
+    public void only_size_errors_are_recognized() {
+        assertTrue(AdaptivePacketSize.isSizeError(new IOException("Message too long")));
+        assertTrue(AdaptivePacketSize.isSizeError(new SocketException("Message too long")));
+        assertFalse(AdaptivePacketSize.isSizeError(new IOException("Connection refused")));
+        assertFalse(AdaptivePacketSize.isSizeError(new IOException()));
+        assertFalse(AdaptivePacketSize.isSizeError(new IllegalStateException("too long")));
+    }
+
+    @Test(timeout = 5000L)
+    public void other_errors_keep_the_packet_size() throws Exception {
+        final WritableByteChannel channel =
+                new LimitedChannel(4096) {
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        throw new IOException("Connection refused");
+                    }
+                };
+        BufferPool pool = new BufferPool(2, 4096, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(2);
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(4096, 60000);
+        RecordingErrorHandler handler = new RecordingErrorHandler();
+
+        StatsDSender sender =
+                new StatsDSender(channel, handler, pool, buffers, 1, new StatsDThreadFactory());
+        sender.setPacketSize(packetSize);
+        ByteBuffer buffer = pool.borrow();
+        buffer.put("my.prefix.mycount:1|c\n".getBytes(StandardCharsets.UTF_8));
+        buffers.put(buffer);
+
+        sender.startWorkers("StatsD-Sender-");
+        sender.shutdown(true);
+
+        assertEquals(4096, packetSize.get());
+        assertEquals(1, handler.getExceptions().size());
+    }
+
+    @Test(timeout = 5000L)
+    public void messages_larger_than_the_packet_size_are_sent_alone() throws Exception {
+        LimitedChannel channel = new LimitedChannel(4096);
+        RecordingErrorHandler handler = new RecordingErrorHandler();
+        StatsDProcessor processor =
+                new StatsDNonBlockingProcessor(
+                        16, handler, 4096, 2, 1, 0, 1, new StatsDThreadFactory());
+        StatsDSender sender =
+                new StatsDSender(
+                        channel,
+                        handler,
+                        processor.getBufferPool(),
+                        processor.getOutboundQueue(),
+                        1,
+                        new StatsDThreadFactory());
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(4096, 60000);
+        assertTrue(packetSize.onFailure(2048));
+        processor.setPacketSize(packetSize);
+        sender.setPacketSize(packetSize);
+
+        StringBuilder aspect = new StringBuilder();
+        while (aspect.length() < 1500) {
+            aspect.append("long.aspect.");
+        }
+        // queued before the workers start, so that they are written in a row.
+        processor.send(new StatsDTestMessage<>("small", Message.Type.COUNT, 1, Double.NaN, null));
+        processor.send(
+                new StatsDTestMessage<>(
+                        aspect.toString(), Message.Type.COUNT, 1, Double.NaN, null));
+        processor.send(new StatsDTestMessage<>("small", Message.Type.COUNT, 2, Double.NaN, null));
+        processor.startWorkers("StatsD-Processor-");
+        sender.startWorkers("StatsD-Sender-");
+        processor.shutdown(true);
+        sender.shutdown(true);
+
+        assertTrue(handler.getExceptions().isEmpty());
+        assertEquals(
+                Arrays.asList("test.small:1|c\n", "test." + aspect + ":1|c\n", "test.small:2|c\n"),
+                channel.getPackets());
+    }
+
+    @Test(timeout = 5000L)
+    public void resend_failures_are_reported_to_the_shard() throws Exception {
+        // rejects large packets as too long, and refuses the smaller ones.
+        final WritableByteChannel channel =
+                new LimitedChannel(1000) {
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        super.write(src);
+                        throw new IOException("Connection refused");
+                    }
+                };
+        BufferPool pool = new BufferPool(2, 4096, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(2);
+        AdaptivePacketSize packetSize = new AdaptivePacketSize(4096, 60000);
+        ShardRing ring = new ShardRing(2, 1, 60000);
+
+        StatsDSender sender =
+                new StatsDSender(
+                        channel,
+                        new RecordingErrorHandler(),
+                        pool,
+                        buffers,
+                        1,
+                        new StatsDThreadFactory());
+        sender.setPacketSize(packetSize);
+        sender.setShard(ring, 0);
+        ByteBuffer buffer = pool.borrow();
+        for (int i = 0; i < 100; i++) {
+            buffer.put(("my.prefix.mycount" + i + ":1|c\n").getBytes(StandardCharsets.UTF_8));
+        }
+        buffers.put(buffer);
+        sender.startWorkers("StatsD-Sender-");
+        sender.shutdown(true);
+
+        assertThat(packetSize.get(), lessThanOrEqualTo(1000));
+        assertFalse(ring.isHealthy(0));
+    }
+}
@@ -0,0 +1,87 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AspectLimiterTest {
+
+    @Test
+    public void aspects_under_the_limit_are_not_sampled() {
+        // 10 messages per window.
+        AspectLimiter limiter = new AspectLimiter(100, 16);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, limiter.rate("foo"), 0);
+        }
+        assertEquals(10.0 / 11, limiter.rate("foo"), 1e-9);
+        assertEquals(10.0 / 12, limiter.rate("foo"), 1e-9);
+        // other aspects have their own bucket.
+        assertEquals(1, limiter.rate("bar"), 0);
+    }
+
+    @Test
+    public void rate_carries_over_to_the_next_window() throws Exception {
+        AspectLimiter limiter = new AspectLimiter(100, 16);
+        for (int i = 0; i < 1000; i++) {
+            limiter.rate("foo");
+        }
+        Thread.sleep(AspectLimiter.WINDOW_NANOS / 1_000_000L);
+        double rate = limiter.rate("foo");
+        // the previous window saw about 100 times the limit, less if the sleep overshot.
+        assertTrue(rate < 0.1);
+        assertTrue(rate > 0);
+    }
+
+    @Test
+    public void least_recently_active_aspect_is_evicted() throws Exception {
+        // a single set of two buckets.
+        AspectLimiter limiter = new AspectLimiter(10, 2);
+        assertEquals(1, limiter.rate("foo"), 0);
+        assertEquals(0.5, limiter.rate("foo"), 0);
+        Thread.sleep(1);
+        assertEquals(1, limiter.rate("bar"), 0);
+        // evicts foo, whose window started first.
+        assertEquals(1, limiter.rate("baz"), 0);
+        assertEquals(0.5, limiter.rate("bar"), 0);
+        assertEquals(1, limiter.rate("foo"), 0);
+    }
+
+    @Test
+    public void client_annotates_throttled_messages() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClientBuilder builder =
+                new NonBlockingStatsDClientBuilder() {
+                    @Override
+                    public NonBlockingStatsDClient build() {
+                        return new NonBlockingStatsDClient(resolve()) {
+                            @Override
+                            protected boolean isInvalidSample(double sampleRate) {
+                                return false;
+                            }
+                        };
+                    }
+                };
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(builder, address)
+                        .synchronous(true)
+                        // a single message per window.
+                        .aspectRateLimit(10)
+                        .build();
+        try {
+            client.histogram("myhistogram", 1);
+            client.histogram("myhistogram", 2);
+            client.histogram("myhistogram", 3, 0.5);
+            // aggregated by the client.
+            client.count("mycount", 1);
+            client.count("mycount", 1);
+            client.flush();
+            assertEquals(
+                    "myhistogram:1|h\nmyhistogram:2|h|@0.500000\nmyhistogram:3|h|@0.166667\n"
+                            + "mycount:2|c\n",
+                    TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+}
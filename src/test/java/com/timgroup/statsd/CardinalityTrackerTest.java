@@ -0,0 +1,165 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class CardinalityTrackerTest {
+
+    private static Message count(String aspect, String... tags) {
+        return new NumericMessage<Integer>(
+                aspect, Message.Type.COUNT, 1, TagsCardinality.DEFAULT, tags) {
+            @Override
+            boolean writeTo(StringBuilder builder, int capacity) {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void estimates_the_contexts_of_each_aspect() throws Exception {
+        CardinalityTracker tracker = new CardinalityTracker(2, 0, null, 50);
+        CardinalityTracker.Recorder recorder = tracker.recorder();
+        for (int i = 0; i < 100; i++) {
+            recorder.onMessage(count("wide", "id:" + i));
+            recorder.onMessage(count("narrow", "env:prod"));
+        }
+        // not tracked, both slots are taken.
+        recorder.onMessage(count("late"));
+        assertTrue(tracker.last().contexts.isEmpty());
+
+        Thread.sleep(60);
+        Map<String, Long> contexts = tracker.last().contexts;
+        assertEquals(2, contexts.size());
+        Iterator<Map.Entry<String, Long>> it = contexts.entrySet().iterator();
+        Map.Entry<String, Long> first = it.next();
+        assertEquals("wide", first.getKey());
+        assertEquals(100, first.getValue(), 5);
+        assertEquals(Long.valueOf(1), contexts.get("narrow"));
+
+        // narrow stays idle over the window, and makes room for late.
+        recorder.onMessage(count("wide", "id:0"));
+        Thread.sleep(60);
+        tracker.last();
+        recorder.onMessage(count("late"));
+        Thread.sleep(60);
+        contexts = tracker.last().contexts;
+        assertEquals(Long.valueOf(1), contexts.get("late"));
+        assertNull(contexts.get("narrow"));
+    }
+
+    @Test
+    public void alerts_once_per_window_when_crossing_the_threshold() {
+        final List<Exception> alerts = new ArrayList<>();
+        CardinalityTracker tracker =
+                new CardinalityTracker(
+                        16,
+                        10,
+                        new StatsDClientErrorHandler() {
+                            @Override
+                            public void handle(Exception exception) {
+                                alerts.add(exception);
+                            }
+                        },
+                        60000);
+        CardinalityTracker.Recorder recorder = tracker.recorder();
+        for (int i = 0; i < 9; i++) {
+            recorder.onMessage(count("foo", "id:" + i));
+        }
+        assertTrue(alerts.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            recorder.onMessage(count("foo", "id:" + i));
+        }
+        assertEquals(1, alerts.size());
+        CardinalityExceededException alert = (CardinalityExceededException) alerts.get(0);
+        assertEquals("foo", alert.getAspect());
+        assertTrue(alert.getContexts() >= 10);
+    }
+
+    @Test
+    public void merges_the_workers_when_the_window_rolls() throws Exception {
+        final List<Exception> alerts = new ArrayList<>();
+        CardinalityTracker tracker =
+                new CardinalityTracker(
+                        16,
+                        10,
+                        new StatsDClientErrorHandler() {
+                            @Override
+                            public void handle(Exception exception) {
+                                alerts.add(exception);
+                            }
+                        },
+                        50);
+        CardinalityTracker.Recorder first = tracker.recorder();
+        CardinalityTracker.Recorder second = tracker.recorder();
+        for (int i = 0; i < 6; i++) {
+            first.onMessage(count("foo", "id:" + i));
+            second.onMessage(count("foo", "id:" + (i + 6)));
+        }
+        // neither worker crossed the threshold alone.
+        assertTrue(alerts.isEmpty());
+
+        Thread.sleep(60);
+        assertEquals(12, tracker.last().contexts.get("foo"), 1);
+        assertEquals(1, alerts.size());
+        assertEquals("foo", ((CardinalityExceededException) alerts.get(0)).getAspect());
+    }
+
+    @Test
+    public void due_windows_roll_without_readers() throws Exception {
+        final List<Exception> alerts = new ArrayList<>();
+        CardinalityTracker tracker =
+                new CardinalityTracker(
+                        16,
+                        10,
+                        new StatsDClientErrorHandler() {
+                            @Override
+                            public void handle(Exception exception) {
+                                alerts.add(exception);
+                            }
+                        },
+                        50);
+        CardinalityTracker.Recorder first = tracker.recorder();
+        CardinalityTracker.Recorder second = tracker.recorder();
+        for (int i = 0; i < 6; i++) {
+            first.onMessage(count("foo", "id:" + i));
+            second.onMessage(count("foo", "id:" + (i + 6)));
+        }
+        tracker.rollIfDue();
+        assertTrue(alerts.isEmpty());
+
+        // as called by an idle worker.
+        Thread.sleep(60);
+        tracker.rollIfDue();
+        assertEquals(1, alerts.size());
+    }
+
+    @Test(timeout = 10000L)
+    public void idle_workers_roll_the_window_without_telemetry() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .enableAggregation(false)
+                        .telemetryFlushInterval(200)
+                        .cardinalityAspects(4)
+                        .build();
+        try {
+            client.count("before", 1);
+            // the window rolls at 200ms, while the workers wait for messages.
+            Thread.sleep(300);
+            client.count("after", 1);
+
+            Map<String, Long> contexts = client.snapshot().aspectContexts;
+            assertEquals(Long.valueOf(1), contexts.get("before"));
+            assertNull(contexts.get("after"));
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class ClientFlushTest {
+
+    private static NonBlockingStatsDClientBuilder builder(final MemorySocketAddress address) {
+        return TestHelpers.memoryClient(address);
+    }
+
+    @Test(timeout = 10000L)
+    public void flush_waits_for_messages_to_be_written() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                builder(address)
+                        .aggregationFlushInterval((int) TimeUnit.HOURS.toMillis(1))
+                        .processorWorkers(2)
+                        .senderWorkers(2)
+                        .build();
+        try {
+            client.count("mycount", 1);
+            client.count("mycount", 2);
+            client.histogram("myhistogram", 3);
+
+            assertTrue(client.flush(5, TimeUnit.SECONDS));
+            String written = TestHelpers.written(address);
+            assertTrue(written, written.contains("mycount:3|c\n"));
+            assertTrue(written, written.contains("myhistogram:3|h\n"));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void flush_gives_up_at_the_deadline() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                builder(address)
+                        .enableAggregation(false)
+                        .senderPacketsPerSecond(1)
+                        .senderBurstInterval(1000)
+                        .build();
+        try {
+            client.gauge("mygauge", 1);
+            assertTrue(client.flush(5, TimeUnit.SECONDS));
+
+            // held back by the pacing for about a second.
+            client.gauge("mygauge", 2);
+            assertFalse(client.flush(50, TimeUnit.MILLISECONDS));
+            assertTrue(client.flush(5, TimeUnit.SECONDS));
+            assertEquals("mygauge:1|g\nmygauge:2|g\n", TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void flush_completes_under_sustained_traffic() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        final NonBlockingStatsDClient client =
+                builder(address)
+                        .enableAggregation(false)
+                        .blocking(true)
+                        .queueSize(64)
+                        .processorWorkers(2)
+                        .senderWorkers(2)
+                        .build();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        // more producers than workers, so that the queues are never empty.
+        final Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] =
+                    new Thread(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    while (running.get()) {
+                                        client.gauge("mygauge", 1);
+                                    }
+                                }
+                            });
+            producers[i].start();
+        }
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(client.flush(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            running.set(false);
+            for (final Thread producer : producers) {
+                producer.join();
+            }
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void flush_fails_once_stopped() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = builder(address).build();
+        client.stop();
+        assertFalse(client.flush(5, TimeUnit.SECONDS));
+    }
+}
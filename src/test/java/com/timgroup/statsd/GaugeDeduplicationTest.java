@@ -0,0 +1,133 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GaugeDeduplicationTest {
+
+    // flush interval of the deduplicators, in milliseconds.
+    private static final long INTERVAL = 1000;
+
+    private static NumericMessage<Double> gauge(String aspect, double value, String... tags) {
+        return new NumericMessage<Double>(
+                aspect, Message.Type.GAUGE, value, TagsCardinality.DEFAULT, tags) {
+            @Override
+            boolean writeTo(StringBuilder builder, int capacity) {
+                return false;
+            }
+        };
+    }
+
+    // time of the given flush, in nanoseconds.
+    private static long at(double flush) {
+        return 42 + (long) (flush * INTERVAL * 1000000L);
+    }
+
+    @Test
+    public void unchanged_gauges_are_suppressed_until_the_heartbeat() {
+        GaugeDeduplicator deduplicator = new GaugeDeduplicator(3, INTERVAL);
+        boolean[] suppressed = new boolean[7];
+        for (int i = 0; i < suppressed.length; i++) {
+            deduplicator.startFlush(at(i));
+            suppressed[i] = deduplicator.suppress(gauge("foo", 1));
+        }
+        // emitted at the first flush, then every third one.
+        assertFalse(suppressed[0]);
+        assertTrue(suppressed[1]);
+        assertTrue(suppressed[2]);
+        assertFalse(suppressed[3]);
+        assertTrue(suppressed[4]);
+        assertTrue(suppressed[5]);
+        assertFalse(suppressed[6]);
+
+        deduplicator.startFlush(at(7));
+        assertFalse(deduplicator.suppress(gauge("foo", 2)));
+        // contexts are tracked separately.
+        assertFalse(deduplicator.suppress(gauge("foo", 2, "env:prod")));
+        deduplicator.startFlush(at(8));
+        assertTrue(deduplicator.suppress(gauge("foo", 2)));
+        assertTrue(deduplicator.suppress(gauge("foo", 2, "env:prod")));
+    }
+
+    @Test
+    public void heartbeat_follows_the_elapsed_intervals() {
+        GaugeDeduplicator deduplicator = new GaugeDeduplicator(2, INTERVAL);
+        deduplicator.startFlush(at(0));
+        assertFalse(deduplicator.suppress(gauge("foo", 1)));
+        // explicit flushes within the same interval are no heartbeat.
+        for (int i = 0; i < 5; i++) {
+            deduplicator.startFlush(at(0.1 * i));
+            assertTrue(deduplicator.suppress(gauge("foo", 1)));
+        }
+        deduplicator.startFlush(at(1.3));
+        assertTrue(deduplicator.suppress(gauge("foo", 1)));
+        // a late flush is rounded to the interval it was scheduled for.
+        deduplicator.startFlush(at(2.4));
+        assertFalse(deduplicator.suppress(gauge("foo", 1)));
+        deduplicator.startFlush(at(3));
+        assertTrue(deduplicator.suppress(gauge("foo", 1)));
+        // skipped flushes count too.
+        deduplicator.startFlush(at(7));
+        assertFalse(deduplicator.suppress(gauge("foo", 1)));
+    }
+
+    @Test
+    public void colliding_contexts_are_kept_apart() {
+        // "Aa" and "BB" share their String hash code, and so the hash of their contexts.
+        GaugeDeduplicator deduplicator = new GaugeDeduplicator(3, INTERVAL);
+        deduplicator.startFlush(at(0));
+        assertFalse(deduplicator.suppress(gauge("foo", 1, "host:Aa")));
+        assertFalse(deduplicator.suppress(gauge("foo", 1, "host:BB")));
+        deduplicator.startFlush(at(1));
+        assertTrue(deduplicator.suppress(gauge("foo", 1, "host:Aa")));
+        assertTrue(deduplicator.suppress(gauge("foo", 1, "host:BB")));
+        assertFalse(deduplicator.suppress(gauge("foo", 2, "host:BB")));
+        assertTrue(deduplicator.suppress(gauge("foo", 1, "host:Aa")));
+    }
+
+    @Test
+    public void idle_contexts_are_purged() {
+        GaugeDeduplicator deduplicator = new GaugeDeduplicator(2, INTERVAL);
+        for (int i = 0; i < 10000; i++) {
+            deduplicator.startFlush(at(i));
+            assertFalse(deduplicator.suppress(gauge("foo", 1, "id:" + i)));
+            assertTrue(deduplicator.suppress(gauge("foo", 1, "id:" + i)));
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void client_suppresses_unchanged_gauges() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .synchronous(true)
+                        .aggregationFlushInterval(400)
+                        .gaugeDeduplication(2)
+                        .build();
+        try {
+            client.gauge("pool.size", 1);
+            client.flush();
+            // flushed again within the same interval.
+            client.gauge("pool.size", 1);
+            client.flush();
+            Thread.sleep(400);
+            client.gauge("pool.size", 1);
+            client.flush();
+            Thread.sleep(400);
+            // two intervals after the first flush, a heartbeat.
+            client.gauge("pool.size", 1);
+            client.flush();
+            client.gauge("pool.size", 2);
+            client.flush();
+
+            assertEquals(
+                    "pool.size:1|g\npool.size:1|g\npool.size:2|g\n", TestHelpers.written(address));
+            assertEquals(2, client.telemetry.gaugesSuppressed.get());
+        } finally {
+            client.stop();
+        }
+    }
+}
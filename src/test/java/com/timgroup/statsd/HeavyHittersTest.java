@@ -0,0 +1,182 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+    private static Message count(String aspect) {
+        return new NumericMessage<Integer>(
+                aspect, Message.Type.COUNT, 1, TagsCardinality.DEFAULT, new String[0]) {
+            @Override
+            boolean writeTo(StringBuilder builder, int capacity) {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void space_saving_keeps_the_heaviest_keys() {
+        SpaceSaving<String> sketch = new SpaceSaving<>(2);
+        sketch.add("foo", 10);
+        sketch.add("bar", 3);
+        // evicts bar, and inherits its count as error.
+        sketch.add("baz", 1);
+        sketch.add("foo", 1);
+
+        List<SpaceSaving.Counter<String>> top = sketch.top(2);
+        assertEquals(2, top.size());
+        assertEquals("foo", top.get(0).key);
+        assertEquals(11, top.get(0).count);
+        assertEquals(0, top.get(0).error);
+        assertEquals("baz", top.get(1).key);
+        assertEquals(4, top.get(1).count);
+        assertEquals(3, top.get(1).error);
+        assertEquals(1, sketch.top(1).size());
+    }
+
+    @Test
+    public void hyperloglog_estimates_distinct_values() {
+        HyperLogLog hll = new HyperLogLog(12);
+        assertEquals(0, hll.estimate());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10000; i++) {
+                hll.add(HyperLogLog.mix(i));
+            }
+        }
+        // standard error of 1.6% at this precision.
+        assertEquals(10000, hll.estimate(), 500);
+
+        hll.clear();
+        for (int i = 0; i < 100; i++) {
+            hll.add(HyperLogLog.mix(i));
+        }
+        assertEquals(100, hll.estimate(), 5);
+    }
+
+    @Test
+    public void merges_the_workers_when_the_window_rolls() throws Exception {
+        HeavyHitters heavyHitters = new HeavyHitters(1, 50);
+        HeavyHitters.Recorder first = heavyHitters.recorder();
+        HeavyHitters.Recorder second = heavyHitters.recorder();
+        Message chatty = count("chatty");
+        for (int i = 0; i < 3; i++) {
+            first.onMessage(chatty);
+            second.onMessage(chatty);
+        }
+        first.onMessage(count("quiet"));
+        second.onBytes(count("quiet"), 100);
+        second.onBytes(chatty, 10);
+        assertTrue(heavyHitters.last().byMessages.isEmpty());
+
+        Thread.sleep(60);
+        HeavyHitters.Window window = heavyHitters.last();
+        assertEquals(2, window.distinctContexts);
+        assertEquals("chatty", window.byMessages.get(0).aspect);
+        assertEquals(6, window.byMessages.get(0).count);
+        assertEquals("quiet", window.byBytes.get(0).aspect);
+        assertEquals(100, window.byBytes.get(0).count);
+    }
+
+    @Test
+    public void workers_roll_the_window_every_check_interval() throws Exception {
+        HeavyHitters heavyHitters = new HeavyHitters(1, 50);
+        HeavyHitters.Recorder recorder = heavyHitters.recorder();
+        Message chatty = count("chatty");
+        for (int i = 1; i < HeavyHitters.CHECK_INTERVAL; i++) {
+            recorder.onMessage(chatty);
+        }
+        Thread.sleep(60);
+        // the window is due, the next message rolls it.
+        recorder.onMessage(chatty);
+        recorder.onMessage(count("quiet"));
+
+        HeavyHitters.Window window = heavyHitters.last();
+        assertEquals(1, window.distinctContexts);
+        assertEquals(HeavyHitters.CHECK_INTERVAL, window.byMessages.get(0).count);
+    }
+
+    @Test(timeout = 10000L)
+    public void idle_workers_roll_the_window_without_telemetry() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .enableAggregation(false)
+                        .telemetryFlushInterval(200)
+                        .heavyHitters(1)
+                        .build();
+        try {
+            client.count("before", 1);
+            // the window rolls at 200ms, while the workers wait for messages.
+            Thread.sleep(300);
+            client.count("after", 1);
+
+            Telemetry.Snapshot snapshot = client.snapshot();
+            assertEquals(1, snapshot.distinctContexts);
+            assertEquals("before", snapshot.topContextsByMessages.get(0).aspect);
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void snapshot_reports_the_heaviest_contexts() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .synchronous(true)
+                        .enableAggregation(false)
+                        .telemetryFlushInterval(100)
+                        .heavyHitters(1)
+                        .build();
+        try {
+            for (int i = 0; i < 10; i++) {
+                client.count("chatty", 1, "env:prod");
+            }
+            client.gauge("quiet", 1);
+            client.histogram(
+                    "long", 1, "a-long-tag:" + new String(new char[100]).replace('\0', 'x'));
+
+            // the first window is not complete yet.
+            Telemetry.Snapshot snapshot = client.snapshot();
+            assertTrue(snapshot.topContextsByMessages.isEmpty());
+
+            Thread.sleep(150);
+            snapshot = client.snapshot();
+            assertEquals(3, snapshot.distinctContexts);
+            assertEquals(1, snapshot.topContextsByMessages.size());
+            Telemetry.TopContext top = snapshot.topContextsByMessages.get(0);
+            assertEquals("chatty", top.aspect);
+            assertArrayEquals(new String[] {"env:prod"}, top.tags);
+            assertEquals(10, top.count);
+            // "chatty:1|c|#env:prod\n" is 21 bytes, 210 in total.
+            top = snapshot.topContextsByBytes.get(0);
+            assertEquals("chatty", top.aspect);
+            assertEquals(210, top.count);
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void snapshot_omits_contexts_unless_tracked() throws Exception {
+        NonBlockingStatsDClient client =
+                new NonBlockingStatsDClientBuilder()
+                        .address("mem://")
+                        .synchronous(true)
+                        .enableTelemetry(false)
+                        .originDetectionEnabled(false)
+                        .build();
+        try {
+            client.count("foo", 1);
+            assertNull(client.snapshot().topContextsByMessages);
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Test
+    public void histogram_quantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1000); // bucket [512, 1024)
+        }
+        histogram.record(100000); // bucket [65536, 131072)
+        histogram.record(3000000); // bucket [2097152, 4194304)
+
+        long[] counts = histogram.getAndReset();
+        assertEquals(100, total(counts));
+        assertEquals(1024, LatencyHistogram.quantile(counts, 0.5));
+        assertEquals(131072, LatencyHistogram.quantile(counts, 0.99));
+        assertEquals(4194304, LatencyHistogram.quantile(counts, 1));
+
+        assertEquals(0, total(histogram.getAndReset()));
+        assertEquals(0, LatencyHistogram.quantile(histogram.getAndReset(), 0.5));
+    }
+
+    @Test(timeout = 10000L)
+    public void client_measures_each_stage() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .enableAggregation(false)
+                        .latencySampleRate(1)
+                        .build();
+        LatencyTracker latency = client.telemetry.latency;
+        assertNotNull(latency);
+        try {
+            for (int i = 0; i < 10; i++) {
+                client.histogram("myhistogram", i);
+            }
+            while (address.getBytesWritten() < 10 * "myhistogram:0|h\n".length()) {
+                Thread.sleep(10);
+            }
+            client.stop();
+
+            assertEquals(10, total(latency.getHistogram(LatencyTracker.QUEUE).getAndReset()));
+            long buffers = total(latency.getHistogram(LatencyTracker.BUFFER).getAndReset());
+            long writes = total(latency.getHistogram(LatencyTracker.WRITE).getAndReset());
+            assertEquals(buffers, writes);
+            assertTrue(writes >= 1);
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LoadShedderTest {
+
+    private static LoadShedder shedder(double minRate) {
+        return new LoadShedder(new StatsDProcessor[0], minRate);
+    }
+
+    @Test
+    public void sheds_sampling_tolerant_types() {
+        assertTrue(LoadShedder.canShed(Message.Type.HISTOGRAM));
+        assertTrue(LoadShedder.canShed(Message.Type.DISTRIBUTION));
+        assertTrue(LoadShedder.canShed(Message.Type.TIME));
+        assertFalse(LoadShedder.canShed(Message.Type.COUNT));
+        assertFalse(LoadShedder.canShed(Message.Type.GAUGE));
+        assertFalse(LoadShedder.canShed(Message.Type.SET));
+    }
+
+    @Test
+    public void halves_the_rate_under_pressure() {
+        LoadShedder shedder = shedder(0.1);
+        assertEquals(1, shedder.rate(), 0);
+        shedder.update(0.9);
+        assertEquals(0.5, shedder.rate(), 0);
+        shedder.update(0.8);
+        assertEquals(0.25, shedder.rate(), 0);
+        // between the watermarks, the rate holds.
+        shedder.update(0.6);
+        assertEquals(0.25, shedder.rate(), 0);
+        shedder.update(1);
+        shedder.update(1);
+        assertEquals(0.1, shedder.rate(), 0);
+    }
+
+    @Test
+    public void halves_the_rate_on_drops() {
+        LoadShedder shedder = shedder(0.1);
+        shedder.onDrop();
+        shedder.update(0);
+        assertEquals(0.5, shedder.rate(), 0);
+        // the drop is only counted once.
+        shedder.update(0.6);
+        assertEquals(0.5, shedder.rate(), 0);
+    }
+
+    @Test
+    public void raises_the_rate_back_once_relieved() {
+        LoadShedder shedder = shedder(0.1);
+        shedder.update(1);
+        shedder.update(0.4);
+        assertEquals(0.6, shedder.rate(), 1e-9);
+        for (int i = 0; i < 10; i++) {
+            shedder.update(0);
+        }
+        assertEquals(1, shedder.rate(), 0);
+    }
+
+    @Test
+    public void client_annotates_the_combined_rate() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClientBuilder builder =
+                new NonBlockingStatsDClientBuilder() {
+                    @Override
+                    public NonBlockingStatsDClient build() {
+                        return new NonBlockingStatsDClient(resolve()) {
+                            @Override
+                            protected boolean isInvalidSample(double sampleRate) {
+                                return false;
+                            }
+                        };
+                    }
+                };
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(builder, address)
+                        .synchronous(true)
+                        .loadShedding(true)
+                        .build();
+        try {
+            client.shedder.update(1);
+            client.shedder.update(1);
+
+            client.histogram("myhistogram", 1);
+            client.distribution("mydistribution", 2, 0.5);
+            client.gauge("mygauge", 3);
+            client.flush();
+            assertEquals(
+                    "myhistogram:1|h|@0.250000\nmydistribution:2|d|@0.125000\nmygauge:3|g\n",
+                    TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+}
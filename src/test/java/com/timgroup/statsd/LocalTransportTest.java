@@ -0,0 +1,126 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalTransportTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dsd-file");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path path : Files.newDirectoryStream(dir)) {
+            Files.delete(path);
+        }
+        Files.delete(dir);
+    }
+
+    private static ByteBuffer packet(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path path) throws Exception {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void memory_channel_counts_and_copies_packets() throws Exception {
+        MemorySocketAddress address = new MemorySocketAddress(16);
+        MemoryClientChannel channel = new MemoryClientChannel(address);
+        ByteBuffer first = packet("foo:1|c\n");
+        assertEquals(8, channel.write(first));
+        assertFalse(first.hasRemaining());
+        assertEquals(12, channel.write(packet("barbaz:22|c\n")));
+
+        assertEquals(20, address.getBytesWritten());
+        assertEquals(2, address.getPacketsWritten());
+        // only the latest 16 bytes are kept.
+        assertEquals("1|c\nbarbaz:22|c\n", TestHelpers.written(address));
+
+        channel.close();
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void file_channel_rolls_segments() throws Exception {
+        Path path = dir.resolve("metrics.dsd");
+        MappedFileClientChannel channel =
+                new MappedFileClientChannel(new FileSocketAddress(path, 20));
+        channel.write(packet("foo:1|c\n"));
+        channel.write(packet("bar:2|c\n"));
+        // does not fit in the 4 bytes left, goes to the next segment.
+        channel.write(packet("baz:3|c\n"));
+        channel.close();
+
+        assertEquals("foo:1|c\nbar:2|c\n", read(MappedFileClientChannel.segmentPath(path, 1)));
+        assertEquals("baz:3|c\n", read(MappedFileClientChannel.segmentPath(path, 2)));
+        assertFalse(Files.exists(MappedFileClientChannel.segmentPath(path, 3)));
+    }
+
+    @Test
+    public void file_channel_does_not_overwrite_segments() throws Exception {
+        Path path = dir.resolve("metrics.dsd");
+        Files.write(MappedFileClientChannel.segmentPath(path, 1), new byte[] {'x'});
+
+        MappedFileClientChannel channel =
+                new MappedFileClientChannel(new FileSocketAddress(path, 1024));
+        channel.write(packet("foo:1|c\n"));
+        channel.close();
+
+        assertEquals("x", read(MappedFileClientChannel.segmentPath(path, 1)));
+        assertEquals("foo:1|c\n", read(MappedFileClientChannel.segmentPath(path, 2)));
+    }
+
+    @Test
+    public void builder_parses_local_addresses() throws Exception {
+        NonBlockingStatsDClientBuilder builder =
+                new NonBlockingStatsDClientBuilder().address("mem://?ring=128");
+        SocketAddress mem = builder.addressLookup.call();
+        assertThat(mem, instanceOf(MemorySocketAddress.class));
+
+        Callable<SocketAddress> lookup =
+                new NonBlockingStatsDClientBuilder()
+                        .address("file://" + dir.resolve("metrics.dsd") + "?segment=4096")
+                        .addressLookup;
+        assertEquals(new FileSocketAddress(dir.resolve("metrics.dsd"), 4096), lookup.call());
+    }
+
+    @Test(timeout = 10000L)
+    public void client_writes_to_memory() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .prefix("my.prefix")
+                        .enableAggregation(false)
+                        .build();
+        try {
+            client.count("mycount", 1);
+            client.gauge("mygauge", 2);
+            // "my.prefix.mycount:1|c\n" and "my.prefix.mygauge:2|g\n"
+            while (address.getBytesWritten() < 44) {
+                Thread.sleep(10);
+            }
+        } finally {
+            client.stop();
+        }
+        assertEquals(44, address.getBytesWritten());
+        assertTrue(address.getPacketsWritten() >= 1);
+    }
+}
@@ -0,0 +1,180 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import org.junit.Test;
+
+public class MessageLanesTest {
+
+    private static Message message(String aspect, MessagePriority priority) {
+        Message message =
+                new NumericMessage<Integer>(
+                        aspect, Message.Type.COUNT, 1, TagsCardinality.DEFAULT, null) {
+                    @Override
+                    boolean writeTo(StringBuilder builder, int capacity) {
+                        return false;
+                    }
+                };
+        message.priority = priority;
+        return message;
+    }
+
+    @Test
+    public void low_priority_flood_leaves_room_for_others() {
+        MessageLanes lanes = new MessageLanes(8, true);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (lanes.offer(message("debug", MessagePriority.LOW))) {
+                accepted++;
+            }
+        }
+        assertEquals(2, accepted);
+        assertTrue(lanes.offer(message("critical", MessagePriority.HIGH)));
+        assertTrue(lanes.offer(message("regular", null)));
+        assertEquals(4, lanes.size());
+        assertEquals(1, lanes.size(MessagePriority.NORMAL));
+    }
+
+    @Test
+    public void lanes_share_the_queue_size() {
+        MessageLanes lanes = new MessageLanes(10, true);
+        for (MessagePriority priority : MessagePriority.values()) {
+            while (lanes.offer(message("flood", priority))) {}
+        }
+        assertEquals(10, lanes.size());
+        assertEquals(2, lanes.size(MessagePriority.HIGH));
+        assertEquals(6, lanes.size(MessagePriority.NORMAL));
+        assertEquals(2, lanes.size(MessagePriority.LOW));
+    }
+
+    @Test
+    public void single_queue_ignores_priorities() {
+        MessageLanes lanes = new MessageLanes(4, false);
+        assertEquals(1, lanes.lanes());
+        Message low = message("low", MessagePriority.LOW);
+        assertTrue(lanes.offer(low));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(lanes.offer(message("high", MessagePriority.HIGH)));
+        }
+        assertFalse(lanes.offer(message("high", MessagePriority.HIGH)));
+        assertEquals(4, lanes.size());
+        // first in, first out.
+        assertSame(low, lanes.poll(0));
+    }
+
+    @Test
+    public void lanes_are_drained_by_weight() {
+        MessageLanes lanes = new MessageLanes(64, true);
+        for (int i = 0; i < 14; i++) {
+            lanes.offer(message("high", MessagePriority.HIGH));
+            lanes.offer(message("normal", MessagePriority.NORMAL));
+            lanes.offer(message("low", MessagePriority.LOW));
+        }
+
+        Map<String, Integer> taken = new HashMap<>();
+        for (int turn = 0; turn < 14; turn++) {
+            String aspect = lanes.poll(turn).getAspect();
+            Integer count = taken.get(aspect);
+            taken.put(aspect, count == null ? 1 : count + 1);
+        }
+        assertEquals(Integer.valueOf(8), taken.get("high"));
+        assertEquals(Integer.valueOf(4), taken.get("normal"));
+        assertEquals(Integer.valueOf(2), taken.get("low"));
+    }
+
+    @Test
+    public void empty_lanes_are_skipped() {
+        MessageLanes lanes = new MessageLanes(8, true);
+        Message low = message("low", MessagePriority.LOW);
+        lanes.offer(low);
+        // the turn starts from the high lane.
+        assertSame(low, lanes.poll(0));
+        assertNull(lanes.poll(0));
+        assertTrue(lanes.isEmpty());
+    }
+
+    @Test
+    public void client_assigns_priorities_by_aspect_prefix() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        Map<String, MessagePriority> priorities = new HashMap<>();
+        priorities.put("debug.", MessagePriority.LOW);
+        priorities.put("debug.slo.", MessagePriority.HIGH);
+        NonBlockingStatsDClientBuilder builder =
+                new NonBlockingStatsDClientBuilder() {
+                    @Override
+                    public NonBlockingStatsDClient build() {
+                        return new NonBlockingStatsDClient(resolve()) {
+                            @Override
+                            protected StatsDProcessor createProcessor(
+                                    int queueSize,
+                                    StatsDClientErrorHandler handler,
+                                    int maxPacketSizeBytes,
+                                    int bufferPoolSize,
+                                    int workers,
+                                    boolean blocking,
+                                    int aggregationFlushInterval,
+                                    int aggregationShards,
+                                    ThreadFactory threadFactory)
+                                    throws Exception {
+                                // no workers, so that the messages stay queued.
+                                return new StatsDNonBlockingProcessor(
+                                        queueSize,
+                                        handler,
+                                        maxPacketSizeBytes,
+                                        bufferPoolSize,
+                                        0,
+                                        aggregationFlushInterval,
+                                        aggregationShards,
+                                        threadFactory,
+                                        true);
+                            }
+                        };
+                    }
+                };
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(builder, address)
+                        .prefix("app")
+                        .priorities(priorities)
+                        .enableAggregation(false)
+                        .build();
+        try {
+            client.count("debug.requests", 1);
+            client.count("debug.slo.errors", 1);
+            client.count("requests", 1);
+            client.count("app.debug.other", 1);
+
+            MessageLanes lanes = ((StatsDNonBlockingProcessor) client.statsDProcessor).messages;
+            assertEquals(1, lanes.size(MessagePriority.HIGH));
+            assertEquals(2, lanes.size(MessagePriority.NORMAL));
+            assertEquals(1, lanes.size(MessagePriority.LOW));
+            assertFalse(lanes.isEmpty());
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void clients_without_priorities_use_a_single_queue() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client = TestHelpers.memoryClient(address).build();
+        StatsDRuntime runtime = TestHelpers.memoryClient(address).buildRuntime();
+        try {
+            assertEquals(1, ((StatsDNonBlockingProcessor) client.statsDProcessor).messages.lanes());
+            // clients attached later may have priorities.
+            assertEquals(
+                    MessagePriority.values().length,
+                    ((StatsDNonBlockingProcessor) runtime.pipeline.statsDProcessor)
+                            .messages.lanes());
+        } finally {
+            client.stop();
+            runtime.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MonotonicCountersTest {
+
+    @Test
+    public void deltas_handle_resets() {
+        MonotonicCounters counters = new MonotonicCounters(MonotonicCounters.IDLE_MILLIS);
+        assertEquals(0, counters.delta("foo", null, null, 100));
+        assertEquals(0, counters.delta("foo", null, null, 100));
+        assertEquals(50, counters.delta("foo", null, null, 150));
+        // reset, the counter restarted from 0.
+        assertEquals(20, counters.delta("foo", null, null, 20));
+        assertEquals(5, counters.delta("foo", null, null, 25));
+    }
+
+    @Test
+    public void contexts_are_tracked_separately() {
+        MonotonicCounters counters = new MonotonicCounters(MonotonicCounters.IDLE_MILLIS);
+        assertEquals(0, counters.delta("foo", new String[] {"env:prod"}, null, 10));
+        assertEquals(0, counters.delta("foo", new String[] {"env:prod"}, "tenant:a", 20));
+        assertEquals(1, counters.delta("foo", new String[] {"env:prod"}, null, 11));
+        for (int i = 0; i < 10000; i++) {
+            counters.delta("foo", new String[] {"id:" + i}, null, i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(1, counters.delta("foo", new String[] {"id:" + i}, null, i + 1));
+        }
+    }
+
+    @Test
+    public void colliding_contexts_are_kept_apart() {
+        // "Aa" and "BB" share their String hash code, and so the hash of their contexts.
+        assertEquals(
+                Message.contextKey("foo", new String[] {"host:Aa"}, null),
+                Message.contextKey("foo", new String[] {"host:BB"}, null));
+        MonotonicCounters counters = new MonotonicCounters(MonotonicCounters.IDLE_MILLIS);
+        assertEquals(0, counters.delta("foo", new String[] {"host:Aa"}, null, 100));
+        assertEquals(0, counters.delta("foo", new String[] {"host:BB"}, null, 5));
+        assertEquals(10, counters.delta("foo", new String[] {"host:Aa"}, null, 110));
+        assertEquals(1, counters.delta("foo", new String[] {"host:BB"}, null, 6));
+    }
+
+    @Test
+    public void idle_contexts_are_purged() throws Exception {
+        MonotonicCounters counters = new MonotonicCounters(50);
+        assertEquals(0, counters.delta("foo", null, null, 0));
+        assertEquals(0, counters.delta("foo", new String[] {"id:0"}, null, 0));
+        Thread.sleep(60);
+        assertEquals(1, counters.delta("foo", null, null, 1));
+        // enough new contexts for every segment to purge.
+        for (int i = 1; i < 10000; i++) {
+            counters.delta("foo", new String[] {"id:" + i}, null, 1);
+        }
+        assertEquals(1, counters.delta("foo", null, null, 2));
+        // seen again after it was purged, it starts over.
+        assertEquals(0, counters.delta("foo", new String[] {"id:0"}, null, 1));
+    }
+
+    @Test(timeout = 10000L)
+    public void client_sends_deltas_as_counts() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .synchronous(true)
+                        .enableAggregation(false)
+                        .build();
+        try {
+            client.monotonicCount("gc.count", 10, "gc:young");
+            client.monotonicCount("gc.count", 10, "gc:young");
+            client.monotonicCount("gc.count", 13, "gc:young");
+            client.monotonicCount("gc.count", 1, "gc:old");
+            client.flush();
+            assertEquals("gc.count:3|c|#gc:young\n", TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+}
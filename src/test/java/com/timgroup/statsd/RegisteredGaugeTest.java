@@ -0,0 +1,93 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RegisteredGaugeTest {
+
+    private static NonBlockingStatsDClientBuilder builder(final MemorySocketAddress address) {
+        return TestHelpers.memoryClient(address).synchronous(true);
+    }
+
+    @Test(timeout = 10000L)
+    public void gauges_are_sampled_at_each_flush() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        final double[] value = {1};
+        NonBlockingStatsDClient client = builder(address).prefix("app").build();
+        try {
+            client.registerGauge(
+                    "pool.size",
+                    new GaugeSupplier() {
+                        @Override
+                        public double get() {
+                            return value[0];
+                        }
+                    },
+                    "pool:db");
+            client.flush();
+            value[0] = 2;
+            client.flush();
+            value[0] = Double.NaN;
+            client.flush();
+            assertTrue(client.unregisterGauge("pool.size", "pool:db"));
+            assertFalse(client.unregisterGauge("pool.size", "pool:db"));
+            value[0] = 3;
+            client.flush();
+
+            assertEquals(
+                    "app.pool.size:1|g|#pool:db\napp.pool.size:2|g|#pool:db\n",
+                    TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void failing_suppliers_are_reported_and_sampled_again() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        final RecordingErrorHandler handler = new RecordingErrorHandler();
+        final boolean[] fail = {true};
+        NonBlockingStatsDClient client = builder(address).errorHandler(handler).build();
+        try {
+            client.registerGauge(
+                    "flaky",
+                    new GaugeSupplier() {
+                        @Override
+                        public double get() {
+                            if (fail[0]) {
+                                throw new IllegalStateException("not ready");
+                            }
+                            return 1;
+                        }
+                    });
+            client.flush();
+            assertEquals(1, handler.getExceptions().size());
+            fail[0] = false;
+            client.flush();
+            assertEquals("flaky:1|g\n", TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registration_requires_aggregation() throws Exception {
+        NonBlockingStatsDClient client =
+                builder(new MemorySocketAddress()).enableAggregation(false).build();
+        try {
+            client.registerGauge(
+                    "foo",
+                    new GaugeSupplier() {
+                        @Override
+                        public double get() {
+                            return 1;
+                        }
+                    });
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScopedTagsTest {
+
+    private static NonBlockingStatsDClient client(
+            final MemorySocketAddress address, String... constantTags) {
+        return TestHelpers.memoryClient(address)
+                .synchronous(true)
+                .constantTags(constantTags)
+                .build();
+    }
+
+    @Test
+    public void scopes_nest_and_restore() {
+        assertNull(ScopedTags.current());
+        try (ScopedTags.Scope outer = ScopedTags.open("tenant:a")) {
+            assertEquals("tenant:a", ScopedTags.current());
+            try (ScopedTags.Scope inner = ScopedTags.open("region:eu", "zone:1")) {
+                assertEquals("tenant:a,region:eu,zone:1", ScopedTags.current());
+            }
+            assertEquals("tenant:a", ScopedTags.current());
+        }
+        assertNull(ScopedTags.current());
+    }
+
+    @Test(timeout = 10000L)
+    public void messages_carry_the_tags_of_their_scope() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = client(address, "service:web");
+        try {
+            try (ScopedTags.Scope scope = ScopedTags.open("tenant:a")) {
+                client.gauge("temperature", 20, "room:1");
+                client.histogram("latency", 5);
+            }
+            client.histogram("latency", 6);
+            client.flush();
+            assertEquals(
+                    "latency:5|h|#service:web,tenant:a\n"
+                            + "latency:6|h|#service:web\n"
+                            + "temperature:20|g|#service:web,tenant:a,room:1\n",
+                    TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void scopes_are_aggregated_separately() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = client(address);
+        try {
+            try (ScopedTags.Scope scope = ScopedTags.open("tenant:a")) {
+                client.count("requests", 1);
+                client.count("requests", 1);
+            }
+            try (ScopedTags.Scope scope = ScopedTags.open("tenant:b")) {
+                client.count("requests", 1);
+            }
+            client.flush();
+            String written = TestHelpers.written(address);
+            assertEquals(2, written.split("\n").length);
+            assertTrue(written.contains("requests:2|c|#tenant:a\n"));
+            assertTrue(written.contains("requests:1|c|#tenant:b\n"));
+        } finally {
+            client.stop();
+        }
+    }
+}
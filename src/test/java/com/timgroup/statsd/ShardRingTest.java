@@ -0,0 +1,146 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class ShardRingTest {
+
+    @Test
+    public void routes_contexts_consistently() {
+        ShardRing ring = new ShardRing(3, 3, 10000);
+        ShardRing other = new ShardRing(3, 3, 10000);
+        for (int i = 0; i < 100; i++) {
+            String[] tags = new String[] {"env:prod", "host:" + i};
+            assertEquals(ring.select("my.metric", tags), ring.select("my.metric", tags));
+            assertEquals(ring.select("my.metric", tags), other.select("my.metric", tags));
+        }
+    }
+
+    @Test
+    public void spreads_contexts_over_shards() {
+        ShardRing ring = new ShardRing(4, 3, 10000);
+        int[] counts = new int[4];
+        for (int i = 0; i < 10000; i++) {
+            counts[ring.select("metric." + i, null)]++;
+        }
+        for (int count : counts) {
+            assertThat(count, greaterThan(1500));
+            assertThat(count, lessThan(3500));
+        }
+    }
+
+    @Test
+    public void adding_a_shard_only_moves_its_contexts() {
+        ShardRing three = new ShardRing(3, 3, 10000);
+        ShardRing four = new ShardRing(4, 3, 10000);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            int before = three.select("metric." + i, null);
+            int after = four.select("metric." + i, null);
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+        assertThat(moved, greaterThan(1500));
+        assertThat(moved, lessThan(3500));
+    }
+
+    @Test
+    public void skips_failing_shards() throws Exception {
+        ShardRing ring = new ShardRing(2, 2, 100);
+        int[] shards = new int[100];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = ring.select("metric." + i, null);
+        }
+
+        ring.onFailure(0);
+        assertTrue(ring.isHealthy(0));
+        ring.onFailure(0);
+        assertFalse(ring.isHealthy(0));
+        for (int i = 0; i < shards.length; i++) {
+            assertEquals(1, ring.select("metric." + i, null));
+        }
+
+        Thread.sleep(150);
+        assertTrue(ring.isHealthy(0));
+        ring.onSuccess(0);
+        for (int i = 0; i < shards.length; i++) {
+            assertEquals(shards[i], ring.select("metric." + i, null));
+        }
+    }
+
+    @Test
+    public void routes_to_the_owner_when_no_shard_is_healthy() {
+        ShardRing ring = new ShardRing(2, 1, 10000);
+        int[] shards = new int[100];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = ring.select("metric." + i, null);
+        }
+
+        ring.onFailure(0);
+        ring.onFailure(1);
+        for (int i = 0; i < shards.length; i++) {
+            assertEquals(shards[i], ring.select("metric." + i, null));
+        }
+
+        ring.onSuccess(1);
+        for (int i = 0; i < shards.length; i++) {
+            assertEquals(1, ring.select("metric." + i, null));
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void client_sends_each_context_to_a_single_destination() throws Exception {
+        UDPDummyStatsDServer first = new UDPDummyStatsDServer(0);
+        UDPDummyStatsDServer second = new UDPDummyStatsDServer(0);
+        NonBlockingStatsDClient client =
+                new NonBlockingStatsDClientBuilder()
+                        .prefix("my.prefix")
+                        .hostname("localhost")
+                        .port(first.getPort())
+                        .shardAddresses("udp://localhost:" + second.getPort())
+                        .enableTelemetry(false)
+                        .enableAggregation(false)
+                        .originDetectionEnabled(false)
+                        .build();
+        try {
+            for (int i = 0; i < 20; i++) {
+                client.count("mycount." + i, 1);
+                client.count("mycount." + i, 2);
+            }
+            while (first.messagesReceived().size() + second.messagesReceived().size() < 40) {
+                Thread.sleep(10);
+            }
+
+            List<String> firstMessages = first.messagesReceived();
+            List<String> secondMessages = second.messagesReceived();
+            assertThat(firstMessages.size(), greaterThan(0));
+            assertThat(secondMessages.size(), greaterThan(0));
+            for (int i = 0; i < 20; i++) {
+                String one = "my.prefix.mycount." + i + ":1|c";
+                String two = "my.prefix.mycount." + i + ":2|c";
+                if (firstMessages.contains(one)) {
+                    assertThat(firstMessages, hasItem(two));
+                    assertThat(secondMessages, not(hasItem(one)));
+                } else {
+                    assertThat(secondMessages, hasItem(one));
+                    assertThat(secondMessages, hasItem(two));
+                }
+            }
+        } finally {
+            client.stop();
+            first.close();
+            second.close();
+        }
+    }
+}
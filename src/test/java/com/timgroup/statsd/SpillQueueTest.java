@@ -0,0 +1,107 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillQueueTest {
+    private File file;
+    private SpillQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("dsd-spill", ".ring").toFile();
+        file.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.close();
+        }
+        file.delete();
+    }
+
+    private static ByteBuffer packet(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String poll(Telemetry telemetry) {
+        ByteBuffer dst = ByteBuffer.allocate(1024);
+        if (!queue.poll(dst, telemetry)) {
+            return null;
+        }
+        return StandardCharsets.UTF_8.decode(dst).toString();
+    }
+
+    @Test
+    public void fifo() throws Exception {
+        queue = new SpillQueue(file.toPath(), 1024, 60000);
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.offer(packet("foo:1|c\n"), null));
+        assertTrue(queue.offer(packet("bar:2|c\n"), null));
+        assertEquals(2, queue.size());
+
+        assertEquals("foo:1|c\n", poll(null));
+        assertEquals("bar:2|c\n", poll(null));
+        assertEquals(null, poll(null));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void evicts_oldest_when_full() throws Exception {
+        Telemetry telemetry = new Telemetry(null);
+        // 12 bytes of header + 20 bytes of payload per record, 3 records fit.
+        queue = new SpillQueue(file.toPath(), 100, 60000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(packet(String.format("metric.%04d:1|c....\n", i)), telemetry));
+        }
+
+        assertEquals(3, queue.size());
+        assertEquals(7, telemetry.packetsDropped.get());
+        assertEquals("metric.0007:1|c....\n", poll(telemetry));
+        assertEquals("metric.0008:1|c....\n", poll(telemetry));
+        assertEquals("metric.0009:1|c....\n", poll(telemetry));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void wraps_around() throws Exception {
+        queue = new SpillQueue(file.toPath(), 100, 60000);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(queue.offer(packet("metric:" + i + "|c\n"), null));
+            assertTrue(queue.offer(packet("other:" + i + "|c\n"), null));
+            assertEquals("metric:" + i + "|c\n", poll(null));
+            assertEquals("other:" + i + "|c\n", poll(null));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void rejects_packets_larger_than_the_file() throws Exception {
+        queue = new SpillQueue(file.toPath(), 16, 60000);
+        assertFalse(queue.offer(packet("my.prefix.mycount:1|c\n"), null));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void drops_expired_packets() throws Exception {
+        Telemetry telemetry = new Telemetry(null);
+        queue = new SpillQueue(file.toPath(), 1024, 50);
+        assertTrue(queue.offer(packet("foo:1|c\n"), telemetry));
+        Thread.sleep(100);
+        assertTrue(queue.offer(packet("bar:2|c\n"), telemetry));
+
+        assertEquals("bar:2|c\n", poll(telemetry));
+        assertEquals(1, telemetry.packetsDropped.get());
+        assertEquals(8, telemetry.bytesDropped.get());
+    }
+}
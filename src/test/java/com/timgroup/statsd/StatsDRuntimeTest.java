@@ -0,0 +1,138 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StatsDRuntimeTest {
+
+    @Test(timeout = 10000L)
+    public void clients_share_the_runtime_pipeline() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        StatsDRuntime runtime =
+                TestHelpers.memoryClient(address).enableAggregation(false).buildRuntime();
+        try {
+            NonBlockingStatsDClient billing =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("billing")
+                            .constantTags("team:billing")
+                            .originDetectionEnabled(false)
+                            .build();
+            NonBlockingStatsDClient search =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("search")
+                            .originDetectionEnabled(false)
+                            .build();
+            assertSame(billing.statsDProcessor, search.statsDProcessor);
+            assertSame(runtime.pipeline.statsDSender, search.statsDSender);
+
+            billing.count("invoices", 1);
+            // stopping a client leaves the pipeline running.
+            billing.stop();
+            search.gauge("queries", 2);
+
+            // "billing.invoices:1|c|#team:billing\n" and "search.queries:2|g\n"
+            while (address.getBytesWritten() < 54) {
+                Thread.sleep(10);
+            }
+            assertEquals(
+                    "billing.invoices:1|c|#team:billing\nsearch.queries:2|g\n",
+                    TestHelpers.written(address));
+            assertEquals(2, runtime.snapshot().metricsSent);
+        } finally {
+            runtime.close();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void clients_keep_their_own_contexts() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        StatsDRuntime runtime =
+                TestHelpers.memoryClient(address).aggregationFlushInterval(100).buildRuntime();
+        try {
+            NonBlockingStatsDClient billing =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("billing")
+                            .constantTags("team:billing")
+                            .originDetectionEnabled(false)
+                            .build();
+            NonBlockingStatsDClient search =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("search")
+                            .originDetectionEnabled(false)
+                            .build();
+            billing.count("requests", 1);
+            search.count("requests", 10);
+            billing.count("requests", 2);
+
+            String written = TestHelpers.written(address);
+            while (written.split("\n").length < 2) {
+                Thread.sleep(10);
+                written = TestHelpers.written(address);
+            }
+            assertEquals(written, 2, written.split("\n").length);
+            assertTrue(written, written.contains("billing.requests:3|c|#team:billing\n"));
+            assertTrue(written, written.contains("search.requests:10|c\n"));
+        } finally {
+            runtime.close();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void clients_keep_their_own_gauges() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        StatsDRuntime runtime = TestHelpers.memoryClient(address).synchronous(true).buildRuntime();
+        try {
+            NonBlockingStatsDClient billing =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("billing")
+                            .constantTags("team:billing")
+                            .originDetectionEnabled(false)
+                            .build();
+            NonBlockingStatsDClient search =
+                    new NonBlockingStatsDClientBuilder()
+                            .runtime(runtime)
+                            .prefix("search")
+                            .originDetectionEnabled(false)
+                            .build();
+            GaugeSupplier one =
+                    new GaugeSupplier() {
+                        @Override
+                        public double get() {
+                            return 1;
+                        }
+                    };
+            billing.registerGauge("pool.size", one);
+            search.registerGauge("pool.size", one);
+            search.registerGauge("pool.idle", one);
+            runtime.pipeline.flush();
+
+            String written = TestHelpers.written(address);
+            assertEquals(written, 3, written.split("\n").length);
+            assertTrue(written, written.contains("billing.pool.size:1|g|#team:billing\n"));
+            assertTrue(written, written.contains("search.pool.size:1|g\n"));
+            assertTrue(written, written.contains("search.pool.idle:1|g\n"));
+
+            assertTrue(search.unregisterGauge("pool.idle"));
+            assertFalse(search.unregisterGauge("pool.idle"));
+            // stopping a client unregisters its remaining gauges only.
+            search.stop();
+            runtime.pipeline.flush();
+            assertEquals(
+                    written + "billing.pool.size:1|g|#team:billing\n",
+                    TestHelpers.written(address));
+            assertFalse(search.unregisterGauge("pool.size"));
+            assertTrue(billing.unregisterGauge("pool.size"));
+        } finally {
+            runtime.close();
+        }
+    }
+}
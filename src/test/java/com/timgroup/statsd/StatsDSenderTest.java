@@ -0,0 +1,177 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StatsDSenderTest {
+
+    // Fails every write while the agent is "down".
+    static class FlakyChannel extends AdaptivePacketSizeTest.LimitedChannel {
+        volatile boolean down;
+
+        FlakyChannel() {
+            super(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+            return super.write(src);
+        }
+    }
+
+    @Test
+    public void token_bucket_reserves_beyond_burst() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 10);
+        assertEquals(0, bucket.reserve(10));
+        // Bucket is now empty, the next token is available in ~10ms.
+        assertThat(bucket.reserve(1), greaterThan(TimeUnit.MILLISECONDS.toNanos(5)));
+        assertFalse(bucket.tryAcquire(1));
+
+        Thread.sleep(150);
+        assertTrue(bucket.tryAcquire(10));
+    }
+
+    @Test(timeout = 5000L)
+    public void sender_paces_packets() throws Exception {
+        AdaptivePacketSizeTest.LimitedChannel channel =
+                new AdaptivePacketSizeTest.LimitedChannel(1024);
+        BufferPool pool = new BufferPool(20, 1024, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(20);
+        Telemetry telemetry = new Telemetry(null);
+
+        StatsDSender sender =
+                new StatsDSender(
+                        channel,
+                        new RecordingErrorHandler(),
+                        pool,
+                        buffers,
+                        1,
+                        new StatsDThreadFactory());
+        sender.setTelemetry(telemetry);
+        // 100 packets per second, burst of a single packet.
+        sender.setPacing(0, 100, 10);
+
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer buffer = pool.borrow();
+            buffer.put(("my.prefix.mycount:" + i + "|c\n").getBytes(StandardCharsets.UTF_8));
+            buffers.put(buffer);
+        }
+
+        long start = System.nanoTime();
+        sender.startWorkers("StatsD-Sender-");
+        sender.shutdown(true);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(20, channel.getPackets().size());
+        assertThat(elapsed, greaterThanOrEqualTo(150L));
+        assertThat(telemetry.senderThrottledNanos.get(), greaterThan(0L));
+        assertEquals(20, telemetry.packetsSent.get());
+    }
+
+    @Test(timeout = 5000L)
+    public void interrupted_pacing_counts_the_packet_as_dropped() throws Exception {
+        AdaptivePacketSizeTest.LimitedChannel channel =
+                new AdaptivePacketSizeTest.LimitedChannel(1024);
+        BufferPool pool = new BufferPool(4, 1024, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(4);
+        Telemetry telemetry = new Telemetry(null);
+        StatsDSender sender =
+                new StatsDSender(
+                        channel,
+                        new RecordingErrorHandler(),
+                        pool,
+                        buffers,
+                        1,
+                        new StatsDThreadFactory());
+        sender.setTelemetry(telemetry);
+        // a packet per second, burst of a single packet.
+        sender.setPacing(0, 1, 1000);
+
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer buffer = pool.borrow();
+            buffer.put(("my.prefix.mycount:" + i + "|c\n").getBytes(StandardCharsets.UTF_8));
+            buffers.put(buffer);
+        }
+        sender.startWorkers("StatsD-Sender-");
+        while (channel.getPackets().size() < 1) {
+            Thread.sleep(10);
+        }
+        sender.shutdown(false);
+        while (telemetry.packetsDropped.get() < 1) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, channel.getPackets().size());
+        assertEquals(1, telemetry.packetsSent.get());
+    }
+
+    @Test(timeout = 10000L)
+    public void sender_replays_spilled_packets() throws Exception {
+        File file = Files.createTempFile("dsd-spill", ".ring").toFile();
+        file.deleteOnExit();
+        SpillQueue spill = new SpillQueue(file.toPath(), 64 * 1024, 60000);
+
+        FlakyChannel channel = new FlakyChannel();
+        BufferPool pool = new BufferPool(4, 1024, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(4);
+        RecordingErrorHandler handler = new RecordingErrorHandler();
+        Telemetry telemetry = new Telemetry(null);
+
+        StatsDSender sender =
+                new StatsDSender(channel, handler, pool, buffers, 1, new StatsDThreadFactory());
+        sender.setTelemetry(telemetry);
+        sender.setSpill(spill, 1000);
+        sender.startWorkers("StatsD-Sender-");
+
+        channel.down = true;
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            String line = "my.prefix.mycount:" + i + "|c\n";
+            expected.add(line);
+            ByteBuffer buffer = pool.borrow();
+            buffer.put(line.getBytes(StandardCharsets.UTF_8));
+            buffers.put(buffer);
+        }
+        while (spill.size() < 10) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, handler.getExceptions().size());
+        assertEquals(0, telemetry.packetsDropped.get());
+
+        channel.down = false;
+        ByteBuffer buffer = pool.borrow();
+        buffer.put("my.prefix.mycount:10|c\n".getBytes(StandardCharsets.UTF_8));
+        expected.add("my.prefix.mycount:10|c\n");
+        buffers.put(buffer);
+
+        while (channel.getPackets().size() < 11) {
+            Thread.sleep(10);
+        }
+        sender.shutdown(true);
+        spill.close();
+
+        assertEquals(expected, new HashSet<>(channel.getPackets()));
+        assertTrue(spill.isEmpty());
+        assertEquals(11, telemetry.packetsSent.get());
+        assertEquals(0, telemetry.packetsDropped.get());
+    }
+}
@@ -0,0 +1,55 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+    @Test
+    public void counts_beyond_32_bits() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(Integer.MAX_VALUE);
+        counter.add(Integer.MAX_VALUE);
+        counter.increment();
+        assertEquals(2L * Integer.MAX_VALUE + 1, counter.get());
+        assertEquals(2L * Integer.MAX_VALUE + 1, counter.getAndReset());
+        assertEquals(0, counter.get());
+    }
+
+    @Test(timeout = 10000L)
+    public void does_not_lose_concurrent_updates() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 16;
+        final int increments = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long reset = 0;
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < increments; j++) {
+                            counter.increment();
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        while (done.getCount() > 0) {
+            reset += counter.getAndReset();
+        }
+        reset += counter.getAndReset();
+        assertEquals((long) threads * increments, reset);
+    }
+}
@@ -0,0 +1,83 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SynchronousClientTest {
+
+    private static NonBlockingStatsDClientBuilder builder(final MemorySocketAddress address) {
+        return TestHelpers.memoryClient(address).synchronous(true);
+    }
+
+    @Test(timeout = 10000L)
+    public void messages_are_written_on_flush() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = builder(address).enableAggregation(false).build();
+        try {
+            assertThat(client.statsDProcessor, instanceOf(StatsDSynchronousProcessor.class));
+            assertEquals(0, client.statsDProcessor.workers.length);
+            assertEquals(0, client.statsDSender.workers.length);
+            assertNull(client.statsDProcessor.getAggregator().scheduler);
+            assertNull(client.telemetry.timer);
+
+            client.gauge("mygauge", 1);
+            client.histogram("myhistogram", 2);
+            assertEquals(0, address.getBytesWritten());
+
+            client.flush();
+            assertEquals("mygauge:1|g\nmyhistogram:2|h\n", TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void aggregates_are_written_on_flush() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = builder(address).aggregationFlushInterval(100).build();
+        try {
+            assertNull(client.statsDProcessor.getAggregator().scheduler);
+            client.count("mycount", 1);
+            client.count("mycount", 2);
+            client.flush();
+            assertEquals("mycount:3|c\n", TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void full_packets_are_written_right_away() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                builder(address).enableAggregation(false).maxPacketSizeBytes(32).build();
+        try {
+            // 14 bytes each, the third one does not fit in the first packet.
+            client.gauge("mygauge.a", 1);
+            client.gauge("mygauge.b", 2);
+            assertEquals(0, address.getBytesWritten());
+            client.gauge("mygauge.c", 3);
+            assertEquals(28, address.getBytesWritten());
+
+            client.flush();
+            assertEquals(42, address.getBytesWritten());
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void stop_writes_pending_messages() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client = builder(address).aggregationFlushInterval(100).build();
+        client.count("mycount", 1);
+        client.stop();
+        assertEquals("mycount:1|c\n", TestHelpers.written(address));
+        assertTrue(client.statsDProcessor.shutdown);
+    }
+}
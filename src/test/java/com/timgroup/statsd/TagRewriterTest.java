@@ -0,0 +1,79 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TagRewriterTest {
+
+    private static TagRewriter rewriter(TagRule... rules) {
+        return new TagRewriter(Arrays.asList(rules), 16);
+    }
+
+    @Test
+    public void rules_apply_to_matching_aspects() {
+        TagRewriter rewriter =
+                rewriter(
+                        TagRule.drop("*", "pod_hash"),
+                        TagRule.rename("http.*", "status", "status_code"),
+                        TagRule.bucket("http.*", "size", 1024, 65536));
+
+        assertArrayEquals(
+                new String[] {"env:prod", "status_code:200", "size:le_65536"},
+                rewriter.rewrite(
+                        "http.requests",
+                        new String[] {"env:prod", "pod_hash:abc", "status:200", "size:2000"}));
+        assertArrayEquals(
+                new String[] {"status:200", "size:2000"},
+                rewriter.rewrite(
+                        "db.queries", new String[] {"pod_hash:abc", "status:200", "size:2000"}));
+        assertArrayEquals(
+                new String[] {"size:gt_65536", "size:other"},
+                rewriter.rewrite("http.requests", new String[] {"size:1e6", "size:other"}));
+    }
+
+    @Test
+    public void tags_without_matching_rule_are_not_copied() {
+        TagRewriter rewriter = rewriter(TagRule.drop("http.*", "pod_hash"));
+        String[] tags = new String[] {"env:prod", "pod_hash_count:1"};
+        assertSame(tags, rewriter.rewrite("http.requests", tags));
+        assertSame(tags, rewriter.rewrite("db.queries", tags));
+    }
+
+    @Test
+    public void arrays_filled_again_are_rewritten_again() {
+        TagRewriter rewriter = rewriter(TagRule.drop("*", "pod_hash"));
+        String[] tags = new String[] {"pod_hash:abc", "env:prod"};
+        assertArrayEquals(new String[] {"env:prod"}, rewriter.rewrite("foo", tags));
+
+        tags[1] = "env:staging";
+        assertArrayEquals(new String[] {"env:staging"}, rewriter.rewrite("foo", tags));
+    }
+
+    @Test(timeout = 10000L)
+    public void client_aggregates_rewritten_tags() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .synchronous(true)
+                        .tagRules(TagRule.drop("*", "pod"))
+                        .build();
+        try {
+            client.count("requests", 1, "pod:a", "env:prod");
+            client.count("requests", 2, "pod:b", "env:prod");
+            client.recordSetValue("users", "bob", "pod:a");
+            client.flush();
+            // aggregates are flushed in no particular order.
+            String written = TestHelpers.written(address);
+            assertEquals(2, written.split("\n").length);
+            assertTrue(written.contains("users:bob|s\n"));
+            assertTrue(written.contains("requests:3|c|#env:prod\n"));
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.timgroup.statsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TagSetTest {
+
+    @Test
+    public void tag_sets_are_canonical_and_interned() {
+        TagSet tagSet = TagSet.of("env:prod", "service:web", "env:prod");
+        assertArrayEquals(new String[] {"env:prod", "service:web"}, tagSet.asArray());
+        assertSame(tagSet, TagSet.of("service:web", "env:prod"));
+        assertEquals(Arrays.hashCode(tagSet.asArray()), tagSet.hashCode());
+    }
+
+    @Test
+    public void arrays_are_copies() {
+        TagSet tagSet = TagSet.of("env:staging", "service:api");
+        String[] tags = tagSet.asArray();
+        assertNotSame(tags, tagSet.asArray());
+        tags[0] = "env:prod";
+        assertArrayEquals(new String[] {"env:staging", "service:api"}, tagSet.asArray());
+    }
+
+    @Test(timeout = 10000L)
+    public void client_renders_and_aggregates_tag_sets() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress(1024);
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address).synchronous(true).build();
+        try {
+            TagSet tagSet = TagSet.of("service:web", "env:prod");
+            client.count("requests", 1, tagSet.asArray());
+            // the same tags in another order, with a duplicate.
+            client.count("requests", 2, TagSet.of("env:prod", "service:web", "env:prod").asArray());
+            client.histogram("latency", 5, tagSet.asArray());
+            client.flush();
+            assertEquals(
+                    "latency:5|h|#service:web,env:prod\nrequests:3|c|#service:web,env:prod\n",
+                    TestHelpers.written(address));
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -210,43 +210,43 @@ public class TelemetryTest {
         client.telemetry.incrAggregatedCountContexts(11);
         client.telemetry.incrAggregatedSetContexts(12);
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(6));
-        assertThat(client.telemetry.gaugeSent.get(), equalTo(2));
-        assertThat(client.telemetry.countSent.get(), equalTo(2));
-        assertThat(client.telemetry.setSent.get(), equalTo(2));
-        assertThat(client.telemetry.histogramSent.get(), equalTo(2));
-        assertThat(client.telemetry.distributionSent.get(), equalTo(2));
-        assertThat(client.telemetry.eventsSent.get(), equalTo(2));
-        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(3));
-        assertThat(client.telemetry.bytesSent.get(), equalTo(4));
-        assertThat(client.telemetry.bytesDropped.get(), equalTo(5));
-        assertThat(client.telemetry.packetsSent.get(), equalTo(6));
-        assertThat(client.telemetry.packetsDropped.get(), equalTo(7));
-        assertThat(client.telemetry.packetsDroppedQueue.get(), equalTo(8));
-        assertThat(client.telemetry.aggregatedContexts.get(), equalTo(9));
-        assertThat(client.telemetry.aggregatedGaugeContexts.get(), equalTo(10));
-        assertThat(client.telemetry.aggregatedCountContexts.get(), equalTo(11));
-        assertThat(client.telemetry.aggregatedSetContexts.get(), equalTo(12));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(6L));
+        assertThat(client.telemetry.gaugeSent.get(), equalTo(2L));
+        assertThat(client.telemetry.countSent.get(), equalTo(2L));
+        assertThat(client.telemetry.setSent.get(), equalTo(2L));
+        assertThat(client.telemetry.histogramSent.get(), equalTo(2L));
+        assertThat(client.telemetry.distributionSent.get(), equalTo(2L));
+        assertThat(client.telemetry.eventsSent.get(), equalTo(2L));
+        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(3L));
+        assertThat(client.telemetry.bytesSent.get(), equalTo(4L));
+        assertThat(client.telemetry.bytesDropped.get(), equalTo(5L));
+        assertThat(client.telemetry.packetsSent.get(), equalTo(6L));
+        assertThat(client.telemetry.packetsDropped.get(), equalTo(7L));
+        assertThat(client.telemetry.packetsDroppedQueue.get(), equalTo(8L));
+        assertThat(client.telemetry.aggregatedContexts.get(), equalTo(9L));
+        assertThat(client.telemetry.aggregatedGaugeContexts.get(), equalTo(10L));
+        assertThat(client.telemetry.aggregatedCountContexts.get(), equalTo(11L));
+        assertThat(client.telemetry.aggregatedSetContexts.get(), equalTo(12L));
 
         client.telemetry.flush();
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(0));
-        assertThat(client.telemetry.gaugeSent.get(), equalTo(0));
-        assertThat(client.telemetry.countSent.get(), equalTo(0));
-        assertThat(client.telemetry.setSent.get(), equalTo(0));
-        assertThat(client.telemetry.histogramSent.get(), equalTo(0));
-        assertThat(client.telemetry.distributionSent.get(), equalTo(0));
-        assertThat(client.telemetry.eventsSent.get(), equalTo(0));
-        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(0));
-        assertThat(client.telemetry.bytesSent.get(), equalTo(0));
-        assertThat(client.telemetry.bytesDropped.get(), equalTo(0));
-        assertThat(client.telemetry.packetsSent.get(), equalTo(0));
-        assertThat(client.telemetry.packetsDropped.get(), equalTo(0));
-        assertThat(client.telemetry.packetsDroppedQueue.get(), equalTo(0));
-        assertThat(client.telemetry.aggregatedContexts.get(), equalTo(0));
-        assertThat(client.telemetry.aggregatedGaugeContexts.get(), equalTo(0));
-        assertThat(client.telemetry.aggregatedCountContexts.get(), equalTo(0));
-        assertThat(client.telemetry.aggregatedSetContexts.get(), equalTo(0));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(0L));
+        assertThat(client.telemetry.gaugeSent.get(), equalTo(0L));
+        assertThat(client.telemetry.countSent.get(), equalTo(0L));
+        assertThat(client.telemetry.setSent.get(), equalTo(0L));
+        assertThat(client.telemetry.histogramSent.get(), equalTo(0L));
+        assertThat(client.telemetry.distributionSent.get(), equalTo(0L));
+        assertThat(client.telemetry.eventsSent.get(), equalTo(0L));
+        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(0L));
+        assertThat(client.telemetry.bytesSent.get(), equalTo(0L));
+        assertThat(client.telemetry.bytesDropped.get(), equalTo(0L));
+        assertThat(client.telemetry.packetsSent.get(), equalTo(0L));
+        assertThat(client.telemetry.packetsDropped.get(), equalTo(0L));
+        assertThat(client.telemetry.packetsDroppedQueue.get(), equalTo(0L));
+        assertThat(client.telemetry.aggregatedContexts.get(), equalTo(0L));
+        assertThat(client.telemetry.aggregatedGaugeContexts.get(), equalTo(0L));
+        assertThat(client.telemetry.aggregatedCountContexts.get(), equalTo(0L));
+        assertThat(client.telemetry.aggregatedSetContexts.get(), equalTo(0L));
 
         List<String> statsdMessages = fakeProcessor.getMessagesAsStrings();
 
@@ -375,9 +375,9 @@ public class TelemetryTest {
         server.clear();
         fakeProcessor.clear();
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(1));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(1L));
         client.telemetry.flush();
-        assertThat(client.telemetry.metricsSent.get(), equalTo(0));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(0L));
 
         List<String> statsdMessages = fakeProcessor.getMessagesAsStrings();
 
@@ -464,15 +464,15 @@ public class TelemetryTest {
 
         server.waitForMessage();
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(1));
-        assertThat(client.telemetry.eventsSent.get(), equalTo(1));
-        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(1));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(1L));
+        assertThat(client.telemetry.eventsSent.get(), equalTo(1L));
+        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(1L));
 
         client.telemetry.flush();
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(0));
-        assertThat(client.telemetry.eventsSent.get(), equalTo(0));
-        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(0));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(0L));
+        assertThat(client.telemetry.eventsSent.get(), equalTo(0L));
+        assertThat(client.telemetry.serviceChecksSent.get(), equalTo(0L));
     }
 
     @Test(timeout = 5000L)
@@ -480,7 +480,7 @@ public class TelemetryTest {
         client.telemetry.reset();
         client.telemetry.incrMetricsSent(1);
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(1));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(1L));
 
         // Start flush timer with a 50ms interval
         client.telemetry.start(50L);
@@ -494,7 +494,7 @@ public class TelemetryTest {
         }
         client.telemetry.stop();
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(0));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(0L));
 
         List<String> statsdMessages = fakeProcessor.getMessagesAsStrings();
 
@@ -570,11 +570,11 @@ public class TelemetryTest {
 
         clientError.stop();
 
-        assertThat(clientError.telemetry.metricsSent.get(), equalTo(1));
-        assertThat(clientError.telemetry.packetsDropped.get(), equalTo(1));
+        assertThat(clientError.telemetry.metricsSent.get(), equalTo(1L));
+        assertThat(clientError.telemetry.packetsDropped.get(), equalTo(1L));
         assertThat(
                 clientError.telemetry.bytesDropped.get(),
-                equalTo("my.prefix.gauge:24|g|#test".length() + tail.length()));
+                equalTo((long) ("my.prefix.gauge:24|g|#test".length() + tail.length())));
     }
 
     @Test(timeout = 5000L)
@@ -593,8 +593,60 @@ public class TelemetryTest {
             }
         }
 
-        assertThat(client.telemetry.metricsSent.get(), equalTo(1));
-        assertThat(client.telemetry.packetsSent.get(), equalTo(1));
-        assertThat(client.telemetry.bytesSent.get(), equalTo(26 + tail.length()));
+        assertThat(client.telemetry.metricsSent.get(), equalTo(1L));
+        assertThat(client.telemetry.packetsSent.get(), equalTo(1L));
+        assertThat(client.telemetry.bytesSent.get(), equalTo((long) (26 + tail.length())));
+    }
+
+    @Test(timeout = 5000L)
+    public void snapshot_reports_pipeline_state() throws Exception {
+        NonBlockingStatsDClient snapshotClient =
+                new NonBlockingStatsDClientBuilder()
+                        .address("mem://")
+                        .enableTelemetry(false)
+                        .enableAggregation(true)
+                        .aggregationFlushInterval(60000)
+                        .originDetectionEnabled(false)
+                        .bufferPoolSize(8)
+                        .queueSize(16)
+                        .build();
+        try {
+            snapshotClient.count("mycount", 1);
+            snapshotClient.count("mycount", 2);
+            snapshotClient.histogram("myhistogram", 3);
+            while (snapshotClient.telemetry.packetsSent.get() == 0) {
+                Thread.sleep(10);
+            }
+
+            final Map<String, Double> encoded = new HashMap<>();
+            Telemetry.Snapshot snapshot = snapshotClient.snapshot();
+            snapshot.encodeTo(
+                    new Telemetry.Snapshot.Encoder() {
+                        @Override
+                        public void gauge(String name, double value) {
+                            encoded.put(name, value);
+                        }
+
+                        @Override
+                        public void count(String name, double value, String[] tags) {
+                            encoded.put(name, value);
+                        }
+                    });
+
+            assertThat(snapshot.metricsSent, equalTo(3L));
+            assertThat(snapshot.aggregatedContexts, equalTo(1L));
+            assertThat(snapshot.aggregatorContexts, equalTo(1L));
+            assertThat(snapshot.packetsSent, equalTo(1L));
+            assertThat(snapshot.queueCapacity, equalTo(16L));
+            assertThat(snapshot.bufferPoolSize, equalTo(8L));
+            assertThat(encoded.get("datadog.dogstatsd.client.metrics"), equalTo(3.0));
+            assertThat(encoded.get("datadog.dogstatsd.client.aggregator_contexts"), equalTo(1.0));
+
+            // counters are reset by snapshots, independently of the telemetry flush.
+            assertThat(snapshotClient.telemetry.metricsSent.get(), equalTo(3L));
+            assertThat(snapshotClient.snapshot().metricsSent, equalTo(0L));
+        } finally {
+            snapshotClient.stop();
+        }
     }
 }
@@ -1,6 +1,9 @@
 package com.timgroup.statsd;
 
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 public class TestHelpers {
     static boolean isLinux() {
@@ -25,6 +28,29 @@ public class TestHelpers {
         return (isLinux() || isMac()) && isJnrAvailable();
     }
 
+    // Builder of a client writing to an in-memory address, without telemetry nor origin detection.
+    static NonBlockingStatsDClientBuilder memoryClient(final MemorySocketAddress address) {
+        return memoryClient(new NonBlockingStatsDClientBuilder(), address);
+    }
+
+    static NonBlockingStatsDClientBuilder memoryClient(
+            final NonBlockingStatsDClientBuilder builder, final MemorySocketAddress address) {
+        return builder.addressLookup(
+                        new Callable<SocketAddress>() {
+                            @Override
+                            public SocketAddress call() {
+                                return address;
+                            }
+                        })
+                .enableTelemetry(false)
+                .originDetectionEnabled(false);
+    }
+
+    // Everything written to an in-memory address so far.
+    static String written(final MemorySocketAddress address) {
+        return new String(address.getRing(), StandardCharsets.UTF_8);
+    }
+
     static Object[][] permutations(Object[][] in) {
         ArrayList<Object[]> out = new ArrayList<>();
         permutations(out, in, 0, new Object[in.length]);
@@ -0,0 +1,115 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        Method isVirtual = Thread.class.getMethod("isVirtual");
+        return (Boolean) isVirtual.invoke(thread);
+    }
+
+    @Test
+    public void factory_creates_virtual_threads_when_supported() throws Exception {
+        ThreadFactory factory = VirtualThreads.newFactory("StatsD-Test-");
+        try {
+            Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            assertNull(factory);
+            return;
+        }
+        // a preview feature before Java 21.
+        Assume.assumeNotNull(factory);
+
+        Thread thread =
+                factory.newThread(
+                        new Runnable() {
+                            @Override
+                            public void run() {}
+                        });
+        assertTrue(isVirtual(thread));
+        assertEquals("StatsD-Test-0", thread.getName());
+    }
+
+    @Test
+    public void hand_off_processor_drops_when_full() throws Exception {
+        StatsDHandOffProcessor processor =
+                new StatsDHandOffProcessor(
+                        1,
+                        new RecordingErrorHandler(),
+                        1024,
+                        1,
+                        1,
+                        0,
+                        1,
+                        new StatsDThreadFactory());
+        Message message =
+                new NumericMessage<Integer>(
+                        "foo", Message.Type.COUNT, 1, TagsCardinality.DEFAULT, null) {
+                    @Override
+                    boolean writeTo(StringBuilder builder, int capacity) {
+                        return false;
+                    }
+                };
+        assertTrue(processor.send(message));
+        assertFalse(processor.send(message));
+        assertEquals(1, processor.getQueueSize());
+    }
+
+    @Test
+    public void default_aggregator_keeps_monitors_and_timer() throws Exception {
+        StatsDProcessor processor =
+                new StatsDNonBlockingProcessor(
+                        1,
+                        new RecordingErrorHandler(),
+                        1024,
+                        1,
+                        1,
+                        100,
+                        1,
+                        new StatsDThreadFactory());
+        try {
+            assertNull(processor.getAggregator().locks);
+            assertNotNull(processor.getAggregator().scheduler);
+        } finally {
+            processor.getAggregator().stop();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void client_runs_without_timer_threads() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                TestHelpers.memoryClient(address)
+                        .enableTelemetry(true)
+                        .virtualThreads(true)
+                        .aggregationFlushInterval(100)
+                        .build();
+        try {
+            assertThat(client.statsDProcessor, instanceOf(StatsDHandOffProcessor.class));
+            assertNull(client.statsDProcessor.getAggregator().scheduler);
+            assertNotNull(client.statsDProcessor.getAggregator().locks);
+            assertNull(client.telemetry.timer);
+
+            client.count("mycount", 1);
+            client.count("mycount", 2);
+            // "mycount:3|c\n", once flushed by the shared scheduler.
+            while (address.getBytesWritten() < 12) {
+                Thread.sleep(10);
+            }
+        } finally {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.timgroup.statsd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientEventsTest {
+    private RecordingStream stream;
+    private final BlockingQueue<RecordedEvent> events = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        stream = new RecordingStream();
+        stream.enable("com.datadoghq.dogstatsd.AggregatorFlush");
+        stream.enable("com.datadoghq.dogstatsd.BufferPoolWait");
+        stream.enable("com.datadoghq.dogstatsd.WriteStall").withThreshold(Duration.ZERO);
+        stream.enable("com.datadoghq.dogstatsd.WriteError");
+        stream.enable("com.datadoghq.dogstatsd.QueueFull");
+        stream.disable("com.datadoghq.dogstatsd.Reconnect");
+        stream.setMaxAge(Duration.ofSeconds(10));
+        stream.onEvent(events::add);
+        stream.startAsync();
+    }
+
+    @After
+    public void tearDown() {
+        stream.close();
+    }
+
+    private RecordedEvent next(String name) throws InterruptedException {
+        while (true) {
+            RecordedEvent event = events.poll(10, TimeUnit.SECONDS);
+            if (event == null) {
+                throw new AssertionError("No " + name + " event recorded");
+            }
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+    }
+
+    @Test
+    public void disabled_events_are_not_timed() {
+        assertNull(ClientEvents.beginReconnect());
+    }
+
+    @Test(timeout = 30000L)
+    public void buffer_pool_wait() throws Exception {
+        final BufferPool pool = new BufferPool(1, 64, false);
+        ByteBuffer buffer = pool.borrow();
+        Thread waiter =
+                new Thread(
+                        () -> {
+                            try {
+                                pool.borrow();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        pool.put(buffer);
+        waiter.join();
+
+        RecordedEvent event = next("com.datadoghq.dogstatsd.BufferPoolWait");
+        assertEquals(1, event.getInt("poolSize"));
+        assertThat(event.getDuration().toMillis(), greaterThanOrEqualTo(50L));
+    }
+
+    @Test(timeout = 30000L)
+    public void sender_writes_and_errors() throws Exception {
+        StatsDSenderTest.FlakyChannel channel = new StatsDSenderTest.FlakyChannel();
+        BufferPool pool = new BufferPool(4, 64, false);
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(4);
+        StatsDSender sender =
+                new StatsDSender(
+                        channel,
+                        new RecordingErrorHandler(),
+                        pool,
+                        buffers,
+                        1,
+                        new StatsDThreadFactory());
+        sender.startWorkers("StatsD-Sender-");
+        try {
+            ByteBuffer buffer = pool.borrow();
+            buffer.put("foo:1|c\n".getBytes(StandardCharsets.UTF_8));
+            buffers.put(buffer);
+            RecordedEvent write = next("com.datadoghq.dogstatsd.WriteStall");
+            assertEquals(8, write.getInt("bytes"));
+
+            channel.down = true;
+            buffer = pool.borrow();
+            buffer.put("bar:2|c\n".getBytes(StandardCharsets.UTF_8));
+            buffers.put(buffer);
+            RecordedEvent error = next("com.datadoghq.dogstatsd.WriteError");
+            assertEquals(8, error.getInt("bytes"));
+            assertThat(error.getString("error"), containsString("Connection refused"));
+        } finally {
+            sender.shutdown(true);
+        }
+    }
+
+    @Test(timeout = 30000L)
+    public void client_flushes_and_drops() throws Exception {
+        final MemorySocketAddress address = new MemorySocketAddress();
+        NonBlockingStatsDClient client =
+                new NonBlockingStatsDClientBuilder()
+                        .addressLookup(() -> address)
+                        .enableTelemetry(false)
+                        .aggregationFlushInterval(100)
+                        .queueSize(1)
+                        .originDetectionEnabled(false)
+                        .build();
+        try {
+            client.count("mycount", 1);
+            RecordedEvent flush;
+            do {
+                flush = next("com.datadoghq.dogstatsd.AggregatorFlush");
+            } while (flush.getInt("contexts") == 0);
+            assertEquals(1, flush.getInt("contexts"));
+
+            // the single slot queue can not keep up.
+            for (int i = 0; i < 10000; i++) {
+                client.gauge("mygauge", i);
+            }
+            RecordedEvent drop = next("com.datadoghq.dogstatsd.QueueFull");
+            assertEquals("mygauge", drop.getString("aspect"));
+            assertNull(drop.getStackTrace());
+        } finally {
+            client.stop();
+        }
+    }
+}